@@ -0,0 +1,250 @@
+package com.github.megallo.markoverator.bigrammer;
+
+import com.github.megallo.markoverator.bigrammer.GenerationRules.BackwardWalk;
+import com.github.megallo.markoverator.bigrammer.GenerationRules.ForwardWalk;
+import com.github.megallo.markoverator.storage.AsyncBigrammerStorage;
+import com.github.megallo.markoverator.storage.BoundaryDistance;
+import com.github.megallo.markoverator.utils.Lists;
+import com.github.megallo.markoverator.utils.Pair;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import static com.github.megallo.markoverator.bigrammer.Bigrammer.DELIM;
+
+/**
+ * The same sentences as Bigrammer, but none of these calls block. Each one hands back a future
+ * right away, and every word lookup after that waits on the storage instead of on a thread.
+ *
+ * The work between reads is done on whichever thread completed the read, which is usually
+ * one of the storage's I/O threads.
+ */
+public class AsyncBigrammer {
+
+    private final AsyncBigrammerStorage storage;
+
+    private final Random random = new Random();
+
+    // the same rules for growing and ending sentences that Bigrammer uses
+    private final GenerationRules rules = new GenerationRules();
+
+    public AsyncBigrammer(AsyncBigrammerStorage storage) {
+        if (storage == null) {
+            throw new RuntimeException("No model generated or loaded");
+        }
+        this.storage = storage;
+    }
+
+    public int getMaxHalfLength() {
+        return rules.getMaxHalfLength();
+    }
+
+    public void setMaxHalfLength(int maxHalfLength) {
+        rules.setMaxHalfLength(maxHalfLength);
+    }
+
+    /**
+     * @see Bigrammer#generateRandom()
+     */
+    public CompletableFuture<List<String>> generateRandom() {
+        return pickStartingPair()
+                .thenCompose(pair -> generatePhraseWithKnownPair(pair.getFirst(), pair.getSecond()));
+    }
+
+    /**
+     * @see Bigrammer#generateRandom(String)
+     * @return a future of null if exact string is not found
+     */
+    public CompletableFuture<List<String>> generateRandom(String seedWord) {
+        return storage.sampleLocation(seedWord, random).thenCompose(location -> {
+            if (location == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            // now take that word plus the word immediately following it and start bigrammin'
+            return storage.getByIndex(location + 1)
+                    .thenCompose(wordFollowingSeed -> generatePhraseWithKnownPair(seedWord, wordFollowingSeed));
+        });
+    }
+
+    /**
+     * @see Bigrammer#generateRandom(String, String)
+     * @return a future of null if those exact words don't occur together
+     */
+    public CompletableFuture<List<String>> generateRandom(String seedWord1, String seedWord2) {
+        return storage.containsForwardWordList(new Pair(seedWord1, seedWord2)).thenCompose(contains -> contains
+                ? generatePhraseWithKnownPair(seedWord1, seedWord2)
+                : CompletableFuture.completedFuture(null));
+    }
+
+    /**
+     * @see Bigrammer#generateRandomForwards(String)
+     * @return a future of null if exact string is not found
+     */
+    public CompletableFuture<List<String>> generateRandomForwards(String seedWord) {
+        return storage.sampleLocation(seedWord, random).thenCompose(location -> {
+            if (location == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            return storage.getByIndex(location + 1)
+                    .thenCompose(wordFollowingSeed -> walkForward(rules.startForward(seedWord, wordFollowingSeed)))
+                    .thenApply(walk -> {
+                        walk.generated.removeAll(Lists.newArrayList(DELIM));
+                        return walk.generated;
+                    });
+        });
+    }
+
+    /**
+     * @see Bigrammer#generateRandomBackwards(String)
+     */
+    public CompletableFuture<List<String>> generateRandomBackwards(String seedWord) {
+        return generateRandomBackwards(seedWord, 0, getMaxHalfLength());
+    }
+
+    /**
+     * @see Bigrammer#generateRandomBackwards(String, int, int)
+     * @return a future of null if seed word is not in model, or of an empty list if we found it but couldn't meet the min reqs
+     */
+    public CompletableFuture<List<String>> generateRandomBackwards(String seedWord, int minWordCount, int maxWordCount) {
+        return storage.sampleLocation(seedWord, random).thenCompose(location -> {
+            if (location == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            return wordBeforeSeed(location, seedWord, minWordCount, 1)
+                    .thenCompose(wordBeforeSeed ->
+                            walkBackward(rules.startBackward(wordBeforeSeed, seedWord, minWordCount, maxWordCount)))
+                    .thenApply(walk -> {
+                        List<String> backwardText = walk.finish();
+                        backwardText.removeAll(Lists.newArrayList(DELIM));
+
+                        if (backwardText.size() >= minWordCount && backwardText.size() <= maxWordCount) {
+                            return backwardText;
+                        }
+                        return new ArrayList<>(); // we didn't succeed, indicate the caller could try again
+                    });
+        });
+    }
+
+    /**
+     * The word before the seed, from a few more places the seed shows up if this one can't make a long enough sentence
+     */
+    private CompletableFuture<String> wordBeforeSeed(int location, String seedWord, int minWordCount, int tries) {
+        return storage.getByIndex(location - 1).thenCompose(wordBeforeSeed -> {
+            if (tries >= Bigrammer.MAX_SEED_LOCATION_TRIES) {
+                return CompletableFuture.completedFuture(wordBeforeSeed);
+            }
+            return canReach(wordBeforeSeed, seedWord, minWordCount).thenCompose(reaches -> reaches
+                    ? CompletableFuture.completedFuture(wordBeforeSeed)
+                    : storage.sampleLocation(seedWord, random).thenCompose(next ->
+                            wordBeforeSeed(next, seedWord, minWordCount, tries + 1)));
+        });
+    }
+
+    /**
+     * @return false if the storage knows a backward walk from this pair can't get to minWordCount words
+     */
+    private CompletableFuture<Boolean> canReach(String word2, String word3, int minWordCount) {
+        if (word2.equals(DELIM)) {
+            return CompletableFuture.completedFuture(minWordCount <= 1); // just the seed
+        }
+        return storage.getBackwardBoundaryDistance(new Pair(word2, word3))
+                .thenApply(distance -> distance == null || distance.canReach(2, minWordCount));
+    }
+
+    CompletableFuture<List<String>> generatePhraseWithKnownPair(String w1, String w2) {
+        // the two halves don't depend on each other, so read for both at once
+        CompletableFuture<BackwardWalk> backward = walkBackward(rules.startBackward(w1, w2, 0, getMaxHalfLength()));
+        CompletableFuture<ForwardWalk> forward = walkForward(rules.startForward(w1, w2));
+        return backward.thenCombine(forward, (back, front) -> rules.joinHalves(back.finish(), front.generated));
+    }
+
+    /**
+     * A random pair of words to start from, neither of them DELIM
+     */
+    private CompletableFuture<Pair> pickStartingPair() {
+        return storage.sampleStartLocation(random).thenCompose(seed -> {
+            if (seed == null) {
+                throw new RuntimeException("Model has nowhere to start a sentence");
+            }
+            return storage.getByIndex(seed).thenCombine(storage.getByIndex(seed + 1), Pair::new);
+        });
+    }
+
+    private CompletableFuture<ForwardWalk> walkForward(ForwardWalk walk) {
+        if (walk.done) {
+            return CompletableFuture.completedFuture(walk);
+        }
+        return storage.sampleForward(walk.nextPair(), random).thenCompose(nextWord -> {
+            walk.advance(nextWord);
+            return walkForward(walk);
+        });
+    }
+
+    private CompletableFuture<BackwardWalk> walkBackward(BackwardWalk walk) {
+        if (walk.done) {
+            return CompletableFuture.completedFuture(walk);
+        }
+        return sampleBackward(walk).thenCompose(previousWord -> {
+            walk.advance(previousWord);
+            return walkBackward(walk);
+        });
+    }
+
+    /**
+     * Same steering as Bigrammer: when the walk has a minimum length and the storage knows how far
+     * each pair is from the start of a sentence, only pick words that can still end up inside the window.
+     */
+    private CompletableFuture<String> sampleBackward(BackwardWalk walk) {
+        Pair pair = walk.nextPair();
+        if (walk.minWordCount <= 0) {
+            return storage.sampleBackward(pair, random);
+        }
+        return storage.getBackwardBoundaryDistance(pair).thenCompose(distance -> distance == null
+                ? storage.sampleBackward(pair, random) // the storage doesn't keep track
+                : sampleBackwardThatFits(walk, pair, 0));
+    }
+
+    private CompletableFuture<String> sampleBackwardThatFits(BackwardWalk walk, Pair pair, int tries) {
+        if (tries >= Bigrammer.MAX_BACKWARD_SAMPLE_TRIES) {
+            return sampleBackwardFromList(walk, pair);
+        }
+        int words = walk.generated.size();
+        return storage.sampleBackward(pair, random).thenCompose(option -> {
+            if (option == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            if (option.equals(DELIM)) {
+                return words >= walk.minWordCount
+                        ? CompletableFuture.completedFuture(option)
+                        : sampleBackwardThatFits(walk, pair, tries + 1);
+            }
+            return storage.getBackwardBoundaryDistance(new Pair(option, pair.getFirst())).thenCompose(distance ->
+                    distance == null || distance.canEndWithin(words + 1, walk.minWordCount, walk.maxWordCount)
+                            ? CompletableFuture.completedFuture(option)
+                            : sampleBackwardThatFits(walk, pair, tries + 1));
+        });
+    }
+
+    /**
+     * Read every word that can come before the pair and how far back each one goes, all at once
+     */
+    private CompletableFuture<String> sampleBackwardFromList(BackwardWalk walk, Pair pair) {
+        return storage.getBackwardWordList(pair).thenCompose(options -> {
+            if (options == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            Map<String, CompletableFuture<BoundaryDistance>> reads = new HashMap<>();
+            for (String option : options) {
+                if (!option.equals(DELIM) && !reads.containsKey(option)) {
+                    reads.put(option, storage.getBackwardBoundaryDistance(new Pair(option, pair.getFirst())));
+                }
+            }
+            return CompletableFuture.allOf(reads.values().toArray(new CompletableFuture[0]))
+                    .thenApply(allRead -> rules.pickBackward(walk, options, option -> reads.get(option).join(), random));
+        });
+    }
+}
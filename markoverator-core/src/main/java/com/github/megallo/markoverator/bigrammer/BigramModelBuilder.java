@@ -1,5 +1,7 @@
 package com.github.megallo.markoverator.bigrammer;
 
+import com.github.megallo.markoverator.storage.BigrammerStorage;
+import com.github.megallo.markoverator.storage.DirectBufferBigrammerStorage;
 import com.github.megallo.markoverator.utils.Pair;
 
 import java.util.ArrayList;
@@ -19,14 +21,7 @@ public class BigramModelBuilder {
     public static BigramModel buildModel(List<List<String>> sentencesList) {
         HashMap<Pair, List<String>> forwardCache = new HashMap<>();
         HashMap<Pair, List<String>> backwardCache = new HashMap<>();
-        List<String> fullWordList = new ArrayList<>();
-
-        // add sentence delimiters to get more natural sentence starts and ends
-        for (List<String> oneSentence : sentencesList) {
-            fullWordList.add(DELIM);
-            fullWordList.addAll(oneSentence);
-        }
-        fullWordList.add(DELIM); // don't forget the one at the end
+        List<String> fullWordList = buildFullWordList(sentencesList);
 
         // for each triplet
         //   map of (<w1, w2> -> w3) = generates forward text
@@ -53,4 +48,26 @@ public class BigramModelBuilder {
 
         return new BigramModel(fullWordList, forwardCache, backwardCache);
     }
+
+    /**
+     * Build the same model as buildModel() straight into off-heap storage, without
+     * putting the forward and backward caches on the heap along the way.
+     *
+     * @param sentencesList a list of sentences: each sentence is pre-tokenized, usually into words
+     */
+    public static BigrammerStorage buildDirectStorage(List<List<String>> sentencesList) {
+        return new DirectBufferBigrammerStorage(buildFullWordList(sentencesList));
+    }
+
+    private static List<String> buildFullWordList(List<List<String>> sentencesList) {
+        List<String> fullWordList = new ArrayList<>();
+
+        // add sentence delimiters to get more natural sentence starts and ends
+        for (List<String> oneSentence : sentencesList) {
+            fullWordList.add(DELIM);
+            fullWordList.addAll(oneSentence);
+        }
+        fullWordList.add(DELIM); // don't forget the one at the end
+        return fullWordList;
+    }
 }
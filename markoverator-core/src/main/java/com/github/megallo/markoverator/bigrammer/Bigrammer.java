@@ -17,19 +17,18 @@
 package com.github.megallo.markoverator.bigrammer;
 
 import com.github.megallo.markoverator.annotations.VisibleForTesting;
+import com.github.megallo.markoverator.bigrammer.GenerationRules.BackwardWalk;
+import com.github.megallo.markoverator.bigrammer.GenerationRules.ForwardWalk;
 import com.github.megallo.markoverator.storage.BigrammerStorage;
+import com.github.megallo.markoverator.storage.BoundaryDistance;
 import com.github.megallo.markoverator.utils.Lists;
 import com.github.megallo.markoverator.utils.Pair;
-import com.github.megallo.markoverator.utils.PartOfSpeechUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
-import java.util.Stack;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Build a bigram markov model out of sentences for random text generation
@@ -45,14 +44,18 @@ public class Bigrammer {
     public final static int DEFAULT_MAX_HALF_LENGTH = 10;
     public final static String DELIM = "<DELIM>";
 
-    private int maxHalfLength = DEFAULT_MAX_HALF_LENGTH;
+    // how many places to look at for a seed word before settling for one that can't meet the minimum length
+    static final int MAX_SEED_LOCATION_TRIES = 10;
+    // plain picks to try before going through every word that can come before a pair
+    static final int MAX_BACKWARD_SAMPLE_TRIES = 4;
 
-    private Pattern BAD_BEGINNING_PUNCTUATION_REGEX = Pattern.compile("[\\.!\\?,;]+");
-    private Pattern GOOD_ENDING_PUNCTUATION_REGEX = Pattern.compile("[\\.!\\?]+");
+    // for the methods that don't take a budget
+    private static final GenerationBudget UNLIMITED = new GenerationBudget();
 
     private final BigrammerStorage storage;
 
-    private PartOfSpeechUtils posUtil = new PartOfSpeechUtils();
+    // how sentences grow and end, which doesn't depend on where the words come from
+    private final GenerationRules rules = new GenerationRules();
 
     public Bigrammer(BigrammerStorage storage) {
         if (storage == null) {
@@ -64,30 +67,27 @@ public class Bigrammer {
     }
 
     public int getMaxHalfLength() {
-        return maxHalfLength;
+        return rules.getMaxHalfLength();
     }
 
     public void setMaxHalfLength(int maxHalfLength) {
-        this.maxHalfLength = maxHalfLength;
+        rules.setMaxHalfLength(maxHalfLength);
     }
 
     /**
      * Generate a random sentence.
      */
     public List<String> generateRandom() {
-        int seed;
-        String word1;
-        String word2;
-        do {
-            // if you start too close to the end, you'll fall off it
-            seed = random.nextInt(storage.getFullWordListSize() - 3);
-            word1 = storage.getByIndex(seed);
-            word2 = storage.getByIndex(seed + 1);
-
-            // keep trying until we get an optimal starting point
-        } while (word1.equals(DELIM) || word2.equals(DELIM));
-
-        return generatePhraseWithKnownPair(word1, word2);
+        int seed = pickStartLocation();
+        return generatePhraseWithKnownPair(storage.getByIndex(seed), storage.getByIndex(seed + 1));
+    }
+
+    /**
+     * Generate a random sentence, stopping early with what we have so far if the budget runs out
+     */
+    public GenerationResult generateRandom(GenerationBudget budget) {
+        int seed = pickStartLocation();
+        return generatePhraseWithKnownPair(storage.getByIndex(seed), storage.getByIndex(seed + 1), budget);
     }
 
     /**
@@ -110,6 +110,20 @@ public class Bigrammer {
         return null;
     }
 
+    /**
+     * generateRandom(String) that stops early with what it has so far if the budget runs out
+     * @return null if exact string is not found
+     */
+    public GenerationResult generateRandom(String seedWord, GenerationBudget budget) {
+        Integer chosenRandomLocation = getAnyLocationOfSeed(seedWord);
+
+        if (chosenRandomLocation != null) {
+            return generatePhraseWithKnownPair(seedWord, storage.getByIndex(chosenRandomLocation + 1), budget);
+        }
+
+        return null;
+    }
+
     /**
      * Attempts to find the exact word you're looking for,
      * and generate a sentence starting with that word.
@@ -140,7 +154,7 @@ public class Bigrammer {
      * @return null if that word is not in the model
      */
     public List<String> generateRandomBackwards(String seedWord) {
-        return generateRandomBackwards(seedWord, 0, maxHalfLength);
+        return generateRandomBackwards(seedWord, 0, rules.getMaxHalfLength());
     }
 
     /**
@@ -153,17 +167,10 @@ public class Bigrammer {
         Integer chosenRandomLocation = getAnyLocationOfSeed(seedWord);
 
         if (chosenRandomLocation != null) {
-            // now take that word plus the word immediately before it and start bigrammin'
-            String wordBeforeSeed = storage.getByIndex(chosenRandomLocation - 1);
-
-            List<String> backwardText = generateBackwardText(wordBeforeSeed, seedWord, minWordCount, maxWordCount);
-
-            // TODO we counted DELIM as part of the word count during generation,
-            //  but now we remove it and then count again and that's not really fair
-
-            backwardText.removeAll(Lists.newArrayList(DELIM));
+            List<String> backwardText = backwardWords(
+                    walkBackFromSeed(chosenRandomLocation, seedWord, minWordCount, maxWordCount, UNLIMITED));
 
-            if (backwardText.size() >= minWordCount && backwardText.size() <= maxWordCount) {
+            if (missesLength(backwardText, minWordCount, maxWordCount) == 0) {
                 return backwardText;
             } else {
                 return new ArrayList<>(); // we didn't succeed, indicate the caller could try again
@@ -173,17 +180,111 @@ public class Bigrammer {
         return null;
     }
 
+    /**
+     * Like generateRandomBackwards(), but instead of giving up after one try it keeps trying until
+     * a sentence fits between the min and max word counts or the budget runs out. If it runs out,
+     * the result has whichever try came closest.
+     * @return null if seed word is not in model
+     */
+    public GenerationResult generateRandomBackwards(String seedWord, int minWordCount, int maxWordCount,
+                                                    GenerationBudget budget) {
+        if (budget.isUnlimited()) {
+            throw new RuntimeException("Trying until it works needs a time or step limit");
+        }
+
+        Integer chosenRandomLocation = getAnyLocationOfSeed(seedWord);
+        if (chosenRandomLocation == null) {
+            return null;
+        }
+
+        List<String> closest = new ArrayList<>();
+        int closestMiss = Integer.MAX_VALUE;
+        // every try costs a step, even one that doesn't get to look anything up
+        while (budget.spend()) {
+            BackwardWalk walk = walkBackFromSeed(chosenRandomLocation, seedWord, minWordCount, maxWordCount, budget);
+            List<String> backwardText = backwardWords(walk);
+            int miss = missesLength(backwardText, minWordCount, maxWordCount);
+            if (walk.done && miss == 0) {
+                return new GenerationResult(backwardText, GenerationResult.Status.COMPLETE);
+            }
+            if (miss < closestMiss) {
+                closest = backwardText;
+                closestMiss = miss;
+            }
+            chosenRandomLocation = getAnyLocationOfSeed(seedWord);
+        }
+        return new GenerationResult(closest, GenerationResult.Status.OUT_OF_BUDGET);
+    }
+
+    /**
+     * Walk backwards from one of the places the seed word shows up, as far as the budget allows
+     */
+    private BackwardWalk walkBackFromSeed(int chosenRandomLocation, String seedWord, int minWordCount, int maxWordCount,
+                                          GenerationBudget budget) {
+        // now take that word plus the word immediately before it and start bigrammin'
+        String wordBeforeSeed = storage.getByIndex(chosenRandomLocation - 1);
+
+        // some places the seed shows up can't make a long enough sentence, like the start of one
+        for (int tries = 1; tries < MAX_SEED_LOCATION_TRIES
+                && !canReach(wordBeforeSeed, seedWord, minWordCount) && budget.spend(); tries++) {
+            chosenRandomLocation = getAnyLocationOfSeed(seedWord);
+            wordBeforeSeed = storage.getByIndex(chosenRandomLocation - 1);
+        }
+
+        BackwardWalk walk = rules.startBackward(wordBeforeSeed, seedWord, minWordCount, maxWordCount);
+        walkBackward(walk, budget);
+        return walk;
+    }
+
+    private List<String> backwardWords(BackwardWalk walk) {
+        List<String> backwardText = walk.finish();
+
+        // TODO we counted DELIM as part of the word count during generation,
+        //  but now we remove it and then count again and that's not really fair
+
+        backwardText.removeAll(Lists.newArrayList(DELIM));
+        return backwardText;
+    }
+
+    /**
+     * @return how many words short or over the text is, or 0 if it fits
+     */
+    private static int missesLength(List<String> text, int minWordCount, int maxWordCount) {
+        if (text.size() < minWordCount) {
+            return minWordCount - text.size();
+        }
+        return Math.max(0, text.size() - maxWordCount);
+    }
+
+    /**
+     * @return false if the storage knows a backward walk from this pair can't get to minWordCount words
+     */
+    private boolean canReach(String word2, String word3, int minWordCount) {
+        if (word2.equals(DELIM)) {
+            return minWordCount <= 1; // just the seed
+        }
+        BoundaryDistance distance = storage.getBackwardBoundaryDistance(new Pair(word2, word3));
+        return distance == null || distance.canReach(2, minWordCount);
+    }
+
     /**
      * Get any location of the single seed word, and may or may not have DELIM adjacent to it.
      */
     @VisibleForTesting
     Integer getAnyLocationOfSeed(String seedWord) {
-         // look up every place this word occurs and pick a random location
-        List<Integer> allPossibleLocations = storage.getAllPossibleLocations(seedWord);
-        if (allPossibleLocations != null) {
-            return allPossibleLocations.get(random.nextInt(allPossibleLocations.size()));
+        // pick a random location out of every place this word occurs, or null if it's not in this model
+        return storage.sampleLocation(seedWord, random);
+    }
+
+    /**
+     * A random location where neither that word nor the next one is DELIM
+     */
+    private int pickStartLocation() {
+        Integer seed = storage.sampleStartLocation(random);
+        if (seed == null) {
+            throw new RuntimeException("Model has nowhere to start a sentence");
         }
-        return null; // it's not in this model
+        return seed;
     }
 
     /**
@@ -203,189 +304,166 @@ public class Bigrammer {
     List<String> generatePhraseWithKnownPair(String w1, String w2) {
         List<String> backwardText = generateBackwardText(w1, w2); // includes seed words at end
         List<String> forwardText = generateForwardText(w1, w2);   // includes seed words at beginning
+        return rules.joinHalves(backwardText, forwardText);
+    }
 
-        // we mucked with backwardText, so remove the seed words from forwardText
-        backwardText.addAll(forwardText.subList(2, forwardText.size())); // remove seed words and mush 'em together
-        // you need to remove the DELIMS here! right here! DELIM can appears in w1 or w2
-        backwardText.removeAll(Lists.newArrayList(DELIM));
-        return backwardText;
+    @VisibleForTesting
+    GenerationResult generatePhraseWithKnownPair(String w1, String w2, GenerationBudget budget) {
+        BackwardWalk backwardWalk = rules.startBackward(w1, w2, 0, rules.getMaxHalfLength());
+        walkBackward(backwardWalk, budget);
+        ForwardWalk forwardWalk = rules.startForward(w1, w2);
+        walkForward(forwardWalk, budget);
+
+        List<String> phrase = rules.joinHalves(backwardWalk.finish(), forwardWalk.generated);
+        return new GenerationResult(phrase, backwardWalk.done && forwardWalk.done
+                ? GenerationResult.Status.COMPLETE : GenerationResult.Status.OUT_OF_BUDGET);
     }
 
     @VisibleForTesting
     List<String> generateForwardText(String word1, String word2) {
+        ForwardWalk walk = rules.startForward(word1, word2);
+        walkForward(walk, UNLIMITED);
+        return walk.generated;
+    }
 
-        if (word2.equals(DELIM)) {
-            // if the starting phrase ends with DELIM, we're done
-            return Lists.newArrayList(word1, word2);
-        }
-
-        List<String> generated = Lists.newArrayList(word1, word2);
-
-        // loops until we reach a size we like, or the content reaches a good stopping point
-        while (generated.size() <= maxHalfLength) {
-
-            List<String> nextWordOptions = storage.getForwardWordList(new Pair(word1, word2));
-
-            if (nextWordOptions == null) {
-                break;
-            }
+    private void walkForward(ForwardWalk walk, GenerationBudget budget) {
+        while (!walk.done && budget.spend()) {
             // choose a random possible next word based on the two given ones
-            String nextWord = nextWordOptions.get(random.nextInt(nextWordOptions.size()));
-
-            loggie.debug("Potential next word -={}=-", nextWord);
-
-            // if the next word is the end, don't even bother adding it
-            if (nextWord.equals(DELIM)) {
-                break;
-            }
-
-            generated.add(nextWord);
-
-            // TODO basically just make this go to DELIM
-            if (checkEndCondition(generated)) { // OH SNAP this works because we check the length twice :facepalm:
-                break;
-            }
-
-            word1 = word2;
-            word2 = nextWord;
-
+            walk.advance(storage.sampleForward(walk.nextPair(), random));
         }
-
-        return generated;
     }
 
     /**
      * Used internally as a pass-through from generatePhraseWithKnownPair with default sizes
      */
     List<String> generateBackwardText(String word2, String word3) {
-        return generateBackwardText(word2, word3, 0, maxHalfLength);
+        return generateBackwardText(word2, word3, 0, rules.getMaxHalfLength());
     }
 
     @VisibleForTesting
     List<String> generateBackwardText(String word2, String word3, int minWordCount, int maxWordCount) {
-        Stack<String> generated = new Stack<>();
+        BackwardWalk walk = rules.startBackward(word2, word3, minWordCount, maxWordCount);
+        walkBackward(walk, UNLIMITED);
+        return walk.finish();
+    }
 
-        // handle edge cases
-        if (maxWordCount == 2 || word2.equals(DELIM)) {
-            generated.push(word2);
-            generated.push(word3);
-            return generated;
+    private void walkBackward(BackwardWalk walk, GenerationBudget budget) {
+        while (!walk.done && budget.spend()) {
+            walk.advance(sampleBackward(walk));
         }
+    }
 
-        generated.push(word3);
-        generated.push(word2);
+    /**
+     * Pick the word that comes before the walk's pair. When the walk has a minimum length to meet
+     * and the storage knows how far each pair is from the start of a sentence, only pick words
+     * that can still end up inside the length window, so the walk doesn't come up short.
+     */
+    private String sampleBackward(BackwardWalk walk) {
+        Pair pair = walk.nextPair();
+        if (walk.minWordCount <= 0 || storage.getBackwardBoundaryDistance(pair) == null) {
+            // nothing to come up short of, or the storage doesn't keep track
+            return storage.sampleBackward(pair, random);
+        }
 
-        while (generated.size() <= minWordCount || generated.size() < maxWordCount) {
-            List<String> prevWordOptions = storage.getBackwardWordList(new Pair(word2, word3));
-            if (prevWordOptions == null) {
-                // we have exhausted our options but we didn't meet the minimum size requirement
-                // but let the calling method decide if it is the right length or not
-                return generated;
+        // usually a plain pick fits, so only read the whole list once a few of them haven't
+        int words = walk.generated.size();
+        for (int tries = 0; tries < MAX_BACKWARD_SAMPLE_TRIES; tries++) {
+            String option = storage.sampleBackward(pair, random);
+            if (option == null) {
+                return null;
             }
-            String word1 = prevWordOptions.get(random.nextInt(prevWordOptions.size()));
-
-            generated.push(word1);
-
-            if (checkBeginCondition(generated)) {
-                break;
+            if (option.equals(DELIM)) {
+                if (words >= walk.minWordCount) {
+                    return option;
+                }
+                continue;
+            }
+            BoundaryDistance distance = storage.getBackwardBoundaryDistance(new Pair(option, pair.getFirst()));
+            if (distance == null || distance.canEndWithin(words + 1, walk.minWordCount, walk.maxWordCount)) {
+                return option;
             }
-
-            word3 = word2;
-            word2 = word1;
-        }
-
-        // remove any leading punctuation from the beginning
-        if (generated.peek().equals(DELIM)) {
-            generated.pop();
-        }
-
-        Matcher m = BAD_BEGINNING_PUNCTUATION_REGEX.matcher(generated.peek());
-        if (m.matches()) {
-            generated.pop();
         }
-
-        return Lists.reverse(generated);
+        return sampleBackwardFromList(walk, pair);
     }
 
     /**
-     * Return true if this should be the beginning of the sentence.
-     * @param words a sentence
+     * Go through every word that can come before the pair and pick from the ones that fit best
      */
-    private boolean checkBeginCondition(Stack<String> words) {
-        // pass the min size in?
-
-        String endWord = words.peek();
-
-        if (endWord.equals(DELIM)) {
-            return true;
+    private String sampleBackwardFromList(BackwardWalk walk, Pair pair) {
+        List<String> options = storage.getBackwardWordList(pair);
+        if (options == null) {
+            return null;
         }
+        return rules.pickBackward(walk, options,
+                option -> storage.getBackwardBoundaryDistance(new Pair(option, pair.getFirst())), random);
+    }
 
-        // yeah this is silly, because it's going to return false regardless
-        // but if we want more validation later then just be explicit
-        Matcher m = BAD_BEGINNING_PUNCTUATION_REGEX.matcher(endWord);
-        if (m.matches()) {
-            return false;
+    /**
+     * Generate a bunch of random sentences at once. All of them move forward one word at a time
+     * together, so each step is a single batch of lookups against the storage instead of one
+     * lookup per sentence.
+     */
+    public List<List<String>> generateRandom(int count) {
+        List<Pair> seeds = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int seed = pickStartLocation();
+            seeds.add(new Pair(storage.getByIndex(seed), storage.getByIndex(seed + 1)));
         }
 
-        return false;
+        return generatePhrasesWithKnownPairs(seeds);
     }
 
     /**
-     * Return true if this should be the end of the sentence.
-     * @param words a sentence
+     * generatePhraseWithKnownPair() for many pairs at once, in the same order
      */
-    private boolean checkEndCondition(List<String> words) {
-        // check length
-        if (words.size() >= maxHalfLength) {
-            return true;
+    @VisibleForTesting
+    List<List<String>> generatePhrasesWithKnownPairs(List<Pair> seeds) {
+        List<BackwardWalk> backwardWalks = new ArrayList<>(seeds.size());
+        List<ForwardWalk> forwardWalks = new ArrayList<>(seeds.size());
+        for (Pair seed : seeds) {
+            backwardWalks.add(rules.startBackward(seed.getFirst(), seed.getSecond(), 0, rules.getMaxHalfLength()));
+            forwardWalks.add(rules.startForward(seed.getFirst(), seed.getSecond()));
         }
 
-        String endWord = words.get(words.size()-1);
-
-        if (endWord.equals(DELIM)) {
-            return true;
+        List<BackwardWalk> activeBackward = new ArrayList<>(backwardWalks);
+        activeBackward.removeIf(walk -> walk.done);
+        while (!activeBackward.isEmpty()) {
+            List<Pair> pairs = new ArrayList<>(activeBackward.size());
+            for (BackwardWalk walk : activeBackward) {
+                pairs.add(walk.nextPair());
+            }
+            List<String> previousWords = storage.sampleBackwards(pairs, random);
+            for (int i = 0; i < activeBackward.size(); i++) {
+                activeBackward.get(i).advance(previousWords.get(i));
+            }
+            activeBackward.removeIf(walk -> walk.done);
         }
 
-        Matcher m = GOOD_ENDING_PUNCTUATION_REGEX.matcher(endWord);
-        if (m.matches()) {
-            return true;
-        }
-        // TODO pretty sure this approach is garbage, how about just check for a delimiter or punctuation
-        // starting partway through, figure out a good word to end on
-        if ((words.size() > maxHalfLength/2 && isDecentEndingWord(words))) {
-            return true;
+        List<ForwardWalk> activeForward = new ArrayList<>(forwardWalks);
+        activeForward.removeIf(walk -> walk.done);
+        while (!activeForward.isEmpty()) {
+            List<Pair> pairs = new ArrayList<>(activeForward.size());
+            for (ForwardWalk walk : activeForward) {
+                pairs.add(walk.nextPair());
+            }
+            List<String> nextWords = storage.sampleForwards(pairs, random);
+            for (int i = 0; i < activeForward.size(); i++) {
+                activeForward.get(i).advance(nextWords.get(i));
+            }
+            activeForward.removeIf(walk -> walk.done);
         }
 
-        // not ready yet, keep going
-        return false;
+        List<List<String>> phrases = new ArrayList<>(seeds.size());
+        for (int i = 0; i < seeds.size(); i++) {
+            phrases.add(rules.joinHalves(backwardWalks.get(i).finish(), forwardWalks.get(i).generated));
+        }
+        return phrases;
     }
 
-    // TODO no commas, colons, ampersands, semicolons
+    /**
+     * @see GenerationRules#isDecentEndingWord(List)
+     */
     protected boolean isDecentEndingWord(List<String> sentence) {
-        // avoid ending with a preposition, adjective, etc
-        List<String> tags = posUtil.tagSentence(sentence);
-
-        String endTag = tags.get(tags.size() - 1);
-        String endWord = sentence.get(sentence.size()-1).toLowerCase();
-        if (    endTag.equals("IN") ||      // preposition
-                endTag.equals("CC") ||      // conjunction
-                endTag.equals("TO") ||      // literally "to"
-                endTag.equals("DT") ||      // determiner
-                endTag.equals("PRP$") ||    // possessive pronoun
-                endWord.equals("i")   ||    // subjective pronouns
-                endWord.equals("she") ||
-                endWord.equals("he")  ||
-                endWord.equals("we")  ||
-                endWord.equals("they") ||
-                endWord.equals("i've") ||
-                endWord.equals("it's") ||
-                endWord.equals("just") ||   // I don't want to filter out all RB (adverbs), so this is stupid and I want to come up with a smarter thing
-                endWord.endsWith(","))      // in reality this is its own word, but let's not assume that here
-                {
-            loggie.info("Rejecting ending of :: {}", endWord);
-            return false;
-        }
-
-        return true;
+        return rules.isDecentEndingWord(sentence);
     }
 }
@@ -0,0 +1,90 @@
+package com.github.megallo.markoverator.bigrammer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long one call to Bigrammer is allowed to spend generating, as a time limit, a number of
+ * steps, or both. A step is one lookup against the storage. The clock starts when the budget
+ * is made, and a budget is used up by one call, so make a new one each time.
+ */
+public class GenerationBudget {
+
+    private final long deadline;     // compared against System.nanoTime()
+    private final boolean hasDeadline;
+    private final int maxSteps;
+    private final boolean hasMaxSteps;
+    private int steps;
+    private boolean exhausted;
+
+    /**
+     * @param maxSteps how many lookups against the storage generation may do
+     */
+    public GenerationBudget(int maxSteps) {
+        this(0, null, maxSteps, false, true);
+    }
+
+    /**
+     * @param timeLimit how long from now generation may take
+     */
+    public GenerationBudget(long timeLimit, TimeUnit unit) {
+        this(timeLimit, unit, 0, true, false);
+    }
+
+    /**
+     * Stop at whichever runs out first
+     */
+    public GenerationBudget(long timeLimit, TimeUnit unit, int maxSteps) {
+        this(timeLimit, unit, maxSteps, true, true);
+    }
+
+    /**
+     * No limits at all, for the methods that don't take a budget
+     */
+    GenerationBudget() {
+        this(0, null, 0, false, false);
+    }
+
+    private GenerationBudget(long timeLimit, TimeUnit unit, int maxSteps, boolean hasDeadline, boolean hasMaxSteps) {
+        if (hasDeadline && timeLimit < 0) {
+            throw new RuntimeException("Time limit can't be negative: " + timeLimit);
+        }
+        if (hasMaxSteps && maxSteps < 0) {
+            throw new RuntimeException("Step limit can't be negative: " + maxSteps);
+        }
+        this.hasDeadline = hasDeadline;
+        this.deadline = hasDeadline ? System.nanoTime() + unit.toNanos(timeLimit) : 0;
+        this.hasMaxSteps = hasMaxSteps;
+        this.maxSteps = maxSteps;
+    }
+
+    boolean isUnlimited() {
+        return !hasDeadline && !hasMaxSteps;
+    }
+
+    /**
+     * Take one step if there's any budget left
+     *
+     * @return false once the time or the steps have run out, and from then on
+     */
+    boolean spend() {
+        if (isUnlimited()) {
+            return true; // nothing to count, so one of these can be shared
+        }
+        if (exhausted
+                || (hasMaxSteps && steps >= maxSteps)
+                || (hasDeadline && System.nanoTime() - deadline >= 0)) {
+            exhausted = true;
+            return false;
+        }
+        steps++;
+        return true;
+    }
+
+    public boolean isExhausted() {
+        return exhausted;
+    }
+
+    public int getStepsTaken() {
+        return steps;
+    }
+}
@@ -0,0 +1,45 @@
+package com.github.megallo.markoverator.bigrammer;
+
+import java.util.List;
+
+/**
+ * The words from a call to Bigrammer that had a GenerationBudget, and whether it finished
+ */
+public class GenerationResult {
+
+    public enum Status {
+        /**
+         * Generated the same way it would have been without a budget
+         */
+        COMPLETE,
+        /**
+         * The budget ran out first, so these are the best words we had by then
+         */
+        OUT_OF_BUDGET
+    }
+
+    private final List<String> words;
+    private final Status status;
+
+    public GenerationResult(List<String> words, Status status) {
+        this.words = words;
+        this.status = status;
+    }
+
+    public List<String> getWords() {
+        return words;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isComplete() {
+        return status == Status.COMPLETE;
+    }
+
+    @Override
+    public String toString() {
+        return "GenerationResult{" + status + ", " + words + "}";
+    }
+}
@@ -0,0 +1,336 @@
+package com.github.megallo.markoverator.bigrammer;
+
+import com.github.megallo.markoverator.storage.BigrammerStorage;
+import com.github.megallo.markoverator.storage.BoundaryDistance;
+import com.github.megallo.markoverator.utils.Lists;
+import com.github.megallo.markoverator.utils.Pair;
+import com.github.megallo.markoverator.utils.PartOfSpeechUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Stack;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.github.megallo.markoverator.bigrammer.Bigrammer.DELIM;
+
+/**
+ * How sentences grow and when they end, without anything to look words up in. Bigrammer and
+ * AsyncBigrammer each keep one and feed its walks whatever their storage picks.
+ */
+final class GenerationRules {
+
+    private static final Logger loggie = LoggerFactory.getLogger(GenerationRules.class);
+
+    private static final Pattern BAD_BEGINNING_PUNCTUATION_REGEX = Pattern.compile("[\\.!\\?,;]+");
+    private static final Pattern GOOD_ENDING_PUNCTUATION_REGEX = Pattern.compile("[\\.!\\?]+");
+
+    private int maxHalfLength = Bigrammer.DEFAULT_MAX_HALF_LENGTH;
+
+    private final PartOfSpeechUtils posUtil = new PartOfSpeechUtils();
+
+    int getMaxHalfLength() {
+        return maxHalfLength;
+    }
+
+    void setMaxHalfLength(int maxHalfLength) {
+        this.maxHalfLength = maxHalfLength;
+    }
+
+    List<String> joinHalves(List<String> backwardText, List<String> forwardText) {
+        // we mucked with backwardText, so remove the seed words from forwardText
+        backwardText.addAll(forwardText.subList(2, forwardText.size())); // remove seed words and mush 'em together
+        // you need to remove the DELIMS here! right here! DELIM can appears in w1 or w2
+        backwardText.removeAll(Lists.newArrayList(DELIM));
+        return backwardText;
+    }
+
+    ForwardWalk startForward(String word1, String word2) {
+        return new ForwardWalk(word1, word2);
+    }
+
+    BackwardWalk startBackward(String word2, String word3, int minWordCount, int maxWordCount) {
+        return new BackwardWalk(word2, word3, minWordCount, maxWordCount);
+    }
+
+    /**
+     * One sentence being generated forwards, one word per call to advance()
+     */
+    class ForwardWalk {
+        final List<String> generated;
+        String word1;
+        String word2;
+        boolean done;
+
+        ForwardWalk(String word1, String word2) {
+            this.word1 = word1;
+            this.word2 = word2;
+            this.generated = Lists.newArrayList(word1, word2);
+            // if the starting phrase ends with DELIM, we're done
+            this.done = word2.equals(DELIM) || generated.size() > maxHalfLength;
+        }
+
+        Pair nextPair() {
+            return new Pair(word1, word2);
+        }
+
+        /**
+         * @param nextWord what the storage picked to come next, or null if nothing can
+         */
+        void advance(String nextWord) {
+            loggie.debug("Potential next word -={}=-", nextWord);
+
+            // if the next word is the end, don't even bother adding it
+            if (nextWord == null || nextWord.equals(DELIM)) {
+                done = true;
+                return;
+            }
+
+            generated.add(nextWord);
+
+            // TODO basically just make this go to DELIM
+            if (checkEndCondition(generated)) { // OH SNAP this works because we check the length twice :facepalm:
+                done = true;
+                return;
+            }
+
+            word1 = word2;
+            word2 = nextWord;
+            // loops until we reach a size we like, or the content reaches a good stopping point
+            done = generated.size() > maxHalfLength;
+        }
+    }
+
+    /**
+     * One sentence being generated backwards, one word per call to advance()
+     */
+    class BackwardWalk {
+        final Stack<String> generated = new Stack<>();
+        final int minWordCount;
+        final int maxWordCount;
+        final boolean edgeCase;
+        String word2;
+        String word3;
+        boolean done;
+
+        BackwardWalk(String word2, String word3, int minWordCount, int maxWordCount) {
+            this.word2 = word2;
+            this.word3 = word3;
+            this.minWordCount = minWordCount;
+            this.maxWordCount = maxWordCount;
+
+            generated.push(word3);
+            generated.push(word2);
+
+            // handle edge cases
+            this.edgeCase = maxWordCount == 2 || word2.equals(DELIM);
+            this.done = edgeCase || !wantsMore();
+        }
+
+        Pair nextPair() {
+            return new Pair(word2, word3);
+        }
+
+        /**
+         * @param word1 what the storage picked to come before, or null if nothing can
+         */
+        void advance(String word1) {
+            if (word1 == null) {
+                // we have exhausted our options but we didn't meet the minimum size requirement
+                // but let the calling method decide if it is the right length or not
+                done = true;
+                return;
+            }
+
+            generated.push(word1);
+
+            if (checkBeginCondition(generated)) {
+                done = true;
+                return;
+            }
+
+            word3 = word2;
+            word2 = word1;
+            done = !wantsMore();
+        }
+
+        private boolean wantsMore() {
+            return generated.size() <= minWordCount || generated.size() < maxWordCount;
+        }
+
+        /**
+         * @return the generated words in reading order
+         */
+        List<String> finish() {
+            if (!edgeCase) {
+                // remove any leading punctuation from the beginning
+                if (generated.peek().equals(DELIM)) {
+                    generated.pop();
+                }
+
+                Matcher m = BAD_BEGINNING_PUNCTUATION_REGEX.matcher(generated.peek());
+                if (m.matches()) {
+                    generated.pop();
+                }
+            }
+
+            return Lists.reverse(generated);
+        }
+    }
+
+    /**
+     * Pick from the words that can come before the walk's next pair, favouring the ones that can
+     * stop at the start of a sentence inside the walk's length window, then the ones that can at
+     * least get to the minimum.
+     * @param options     every word that can come before the pair, repeats and all
+     * @param distanceTo  how far back the pair made of an option and the walk's first word can go
+     */
+    String pickBackward(BackwardWalk walk, List<String> options, Function<String, BoundaryDistance> distanceTo,
+                        Random random) {
+        // each distinct word only gets looked at once, weighted by how often it came up
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        for (String option : options) {
+            counts.merge(option, 1, Integer::sum);
+        }
+
+        int words = walk.generated.size();
+        List<String> fits = new ArrayList<>();         // can stop at the start of a sentence inside the window
+        List<Integer> fitCounts = new ArrayList<>();
+        List<String> reaches = new ArrayList<>();      // can at least get to the minimum before it has to stop
+        List<Integer> reachCounts = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            String option = entry.getKey();
+            boolean fit;
+            boolean reach;
+            if (option.equals(DELIM)) {
+                fit = reach = words >= walk.minWordCount;
+            } else {
+                BoundaryDistance distance = distanceTo.apply(option);
+                if (distance == null) {
+                    return BigrammerStorage.sample(options, random); // shouldn't happen, but don't guess
+                }
+                fit = distance.canEndWithin(words + 1, walk.minWordCount, walk.maxWordCount);
+                reach = distance.canReach(words + 1, walk.minWordCount);
+            }
+            if (fit) {
+                fits.add(option);
+                fitCounts.add(entry.getValue());
+            }
+            if (reach) {
+                reaches.add(option);
+                reachCounts.add(entry.getValue());
+            }
+        }
+
+        if (!fits.isEmpty()) {
+            return sampleWeighted(fits, fitCounts, random);
+        }
+        if (!reaches.isEmpty()) {
+            return sampleWeighted(reaches, reachCounts, random);
+        }
+        return BigrammerStorage.sample(options, random);
+    }
+
+    private static String sampleWeighted(List<String> options, List<Integer> counts, Random random) {
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        int pick = random.nextInt(total);
+        for (int i = 0; i < options.size(); i++) {
+            pick -= counts.get(i);
+            if (pick < 0) {
+                return options.get(i);
+            }
+        }
+        throw new RuntimeException("Picked past the end of the options");
+    }
+
+    /**
+     * Return true if this should be the beginning of the sentence.
+     * @param words a sentence
+     */
+    private boolean checkBeginCondition(Stack<String> words) {
+        // pass the min size in?
+
+        String endWord = words.peek();
+
+        if (endWord.equals(DELIM)) {
+            return true;
+        }
+
+        // yeah this is silly, because it's going to return false regardless
+        // but if we want more validation later then just be explicit
+        Matcher m = BAD_BEGINNING_PUNCTUATION_REGEX.matcher(endWord);
+        if (m.matches()) {
+            return false;
+        }
+
+        return false;
+    }
+
+    /**
+     * Return true if this should be the end of the sentence.
+     * @param words a sentence
+     */
+    private boolean checkEndCondition(List<String> words) {
+        // check length
+        if (words.size() >= maxHalfLength) {
+            return true;
+        }
+
+        String endWord = words.get(words.size()-1);
+
+        if (endWord.equals(DELIM)) {
+            return true;
+        }
+
+        Matcher m = GOOD_ENDING_PUNCTUATION_REGEX.matcher(endWord);
+        if (m.matches()) {
+            return true;
+        }
+        // TODO pretty sure this approach is garbage, how about just check for a delimiter or punctuation
+        // starting partway through, figure out a good word to end on
+        if ((words.size() > maxHalfLength/2 && isDecentEndingWord(words))) {
+            return true;
+        }
+
+        // not ready yet, keep going
+        return false;
+    }
+
+    // TODO no commas, colons, ampersands, semicolons
+    boolean isDecentEndingWord(List<String> sentence) {
+        // avoid ending with a preposition, adjective, etc
+        List<String> tags = posUtil.tagSentence(sentence);
+
+        String endTag = tags.get(tags.size() - 1);
+        String endWord = sentence.get(sentence.size()-1).toLowerCase();
+        if (    endTag.equals("IN") ||      // preposition
+                endTag.equals("CC") ||      // conjunction
+                endTag.equals("TO") ||      // literally "to"
+                endTag.equals("DT") ||      // determiner
+                endTag.equals("PRP$") ||    // possessive pronoun
+                endWord.equals("i")   ||    // subjective pronouns
+                endWord.equals("she") ||
+                endWord.equals("he")  ||
+                endWord.equals("we")  ||
+                endWord.equals("they") ||
+                endWord.equals("i've") ||
+                endWord.equals("it's") ||
+                endWord.equals("just") ||   // I don't want to filter out all RB (adverbs), so this is stupid and I want to come up with a smarter thing
+                endWord.endsWith(","))      // in reality this is its own word, but let's not assume that here
+                {
+            loggie.info("Rejecting ending of :: {}", endWord);
+            return false;
+        }
+
+        return true;
+    }
+}
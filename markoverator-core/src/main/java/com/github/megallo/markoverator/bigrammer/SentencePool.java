@@ -0,0 +1,188 @@
+package com.github.megallo.markoverator.bigrammer;
+
+import com.github.megallo.markoverator.utils.RingBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Keeps sentences generated ahead of time, so handing one out is just taking it off a queue.
+ *
+ * There's a pool for generateRandom() and one for each seed word added with addSeedWord().
+ * When a pool drops below the low watermark, it gets topped back up to capacity on the executor.
+ * Each sentence is handed out once, and any that have been waiting longer than the max age are
+ * thrown away instead. If a pool is empty, the sentence gets generated right there instead.
+ */
+public class SentencePool {
+
+    private static final Logger loggie = LoggerFactory.getLogger(SentencePool.class);
+
+    private final Bigrammer bigrammer;
+    private final Executor executor;
+    private final int capacity;
+
+    private volatile int lowWatermark;
+    private volatile long maxAgeNanos = Long.MAX_VALUE;
+
+    private final Pool randomPool;
+    private final ConcurrentHashMap<String, Pool> seedPools = new ConcurrentHashMap<>();
+
+    /**
+     * @param bigrammer what makes the sentences, it gets called from the executor's threads
+     * @param executor  where the refills happen
+     * @param capacity  how many sentences each pool holds when it's full
+     */
+    public SentencePool(Bigrammer bigrammer, Executor executor, int capacity) {
+        if (capacity < 1) {
+            throw new RuntimeException("Capacity must be positive: " + capacity);
+        }
+        this.bigrammer = bigrammer;
+        this.executor = executor;
+        this.capacity = capacity;
+        this.lowWatermark = capacity / 2;
+        this.randomPool = new Pool(bigrammer::generateRandom);
+        randomPool.refillIfLow();
+    }
+
+    public int getLowWatermark() {
+        return lowWatermark;
+    }
+
+    /**
+     * @param lowWatermark refill a pool once it has fewer sentences than this
+     */
+    public void setLowWatermark(int lowWatermark) {
+        if (lowWatermark < 0 || lowWatermark > capacity) {
+            throw new RuntimeException("Low watermark must be between 0 and " + capacity + ": " + lowWatermark);
+        }
+        this.lowWatermark = lowWatermark;
+    }
+
+    /**
+     * @param maxAge how long a sentence can wait in a pool before it's too stale to hand out
+     */
+    public void setMaxAge(long maxAge, TimeUnit unit) {
+        this.maxAgeNanos = unit.toNanos(maxAge);
+    }
+
+    /**
+     * Start keeping sentences around for this seed word
+     */
+    public void addSeedWord(String seedWord) {
+        seedPools.computeIfAbsent(seedWord, word -> new Pool(() -> bigrammer.generateRandom(word))).refillIfLow();
+    }
+
+    public void removeSeedWord(String seedWord) {
+        seedPools.remove(seedWord);
+    }
+
+    /**
+     * @see Bigrammer#generateRandom()
+     */
+    public List<String> generateRandom() {
+        List<String> sentence = randomPool.take();
+        return sentence != null ? sentence : bigrammer.generateRandom();
+    }
+
+    /**
+     * @see Bigrammer#generateRandom(String)
+     * @return null if exact string is not found
+     */
+    public List<String> generateRandom(String seedWord) {
+        Pool pool = seedPools.get(seedWord);
+        List<String> sentence = pool != null ? pool.take() : null;
+        return sentence != null ? sentence : bigrammer.generateRandom(seedWord);
+    }
+
+    /**
+     * @return how many sentences are waiting for generateRandom()
+     */
+    public int getReadyCount() {
+        return randomPool.sentences.size();
+    }
+
+    /**
+     * @return how many sentences are waiting for this seed word, 0 if it isn't one of ours
+     */
+    public int getReadyCount(String seedWord) {
+        Pool pool = seedPools.get(seedWord);
+        return pool != null ? pool.sentences.size() : 0;
+    }
+
+    private static class Pooled {
+        final List<String> words;
+        final long madeAt;
+
+        Pooled(List<String> words, long madeAt) {
+            this.words = words;
+            this.madeAt = madeAt;
+        }
+    }
+
+    /**
+     * The sentences for one kind of request, and at most one refill at a time
+     */
+    private class Pool {
+        final RingBuffer<Pooled> sentences = new RingBuffer<>(capacity);
+        final AtomicBoolean refilling = new AtomicBoolean();
+        final Supplier<List<String>> generator;
+        volatile boolean missing; // the seed word isn't in the model, so there's nothing to keep
+
+        Pool(Supplier<List<String>> generator) {
+            this.generator = generator;
+        }
+
+        /**
+         * @return a fresh sentence, or null if there aren't any
+         */
+        List<String> take() {
+            long now = System.nanoTime();
+            Pooled pooled;
+            do {
+                pooled = sentences.poll();
+            } while (pooled != null && now - pooled.madeAt > maxAgeNanos);
+
+            refillIfLow();
+            return pooled != null ? pooled.words : null;
+        }
+
+        void refillIfLow() {
+            if (!missing && (sentences.size() < lowWatermark || sentences.isEmpty())) {
+                if (refilling.compareAndSet(false, true)) {
+                    try {
+                        executor.execute(this::refill);
+                    } catch (RejectedExecutionException e) {
+                        refilling.set(false);
+                        loggie.warn("Couldn't schedule a refill, will try again next time", e);
+                    }
+                }
+            }
+        }
+
+        private void refill() {
+            try {
+                while (sentences.size() < capacity) {
+                    List<String> words = generator.get();
+                    if (words == null) {
+                        missing = true;
+                        return;
+                    }
+                    if (!sentences.offer(new Pooled(words, System.nanoTime()))) {
+                        return;
+                    }
+                }
+            } catch (RuntimeException e) {
+                loggie.warn("Refilling sentences failed", e);
+            } finally {
+                refilling.set(false);
+            }
+        }
+    }
+}
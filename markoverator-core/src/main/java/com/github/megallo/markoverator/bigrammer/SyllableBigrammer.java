@@ -0,0 +1,202 @@
+package com.github.megallo.markoverator.bigrammer;
+
+import com.github.megallo.markoverator.storage.BigrammerStorage;
+import com.github.megallo.markoverator.utils.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.github.megallo.markoverator.bigrammer.Bigrammer.DELIM;
+
+/**
+ * Generates sentences backwards from a word, like Bigrammer.generateRandomBackwards(), but with
+ * exactly the number of syllables you ask for, for haiku and anything else with a meter.
+ *
+ * Up front it works out the fewest syllables the backward chain has to add from each pair before
+ * it can reach the start of a sentence. While walking, a word only gets picked if the syllables
+ * left over can still be made to fit, and when a word turns out to be a dead end the walk backs up
+ * and tries another, remembering which pairs can't make which counts. So it either finds a
+ * sentence that fits or knows for sure there isn't one, without generating and throwing away.
+ *
+ * Words the counter doesn't know are never picked.
+ */
+public class SyllableBigrammer {
+
+    private static final Logger loggie = LoggerFactory.getLogger(SyllableBigrammer.class);
+
+    private static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private final BigrammerStorage storage;
+    private final SyllableCounter counter;
+    private final Random random = new Random();
+
+    private final Map<String, Integer> syllables = new ConcurrentHashMap<>();
+    // every pair in the model whose first word isn't DELIM, and the fewest syllables the
+    // backward chain can add before it starts a sentence, or UNREACHABLE
+    private final Map<Pair, Integer> pairIds = new HashMap<>();
+    private final int[] minSyllables;
+
+    public SyllableBigrammer(BigrammerStorage storage, SyllableCounter counter) {
+        this.storage = storage;
+        this.counter = counter;
+
+        List<Pair> pairs = new ArrayList<>();
+        for (int i = 0; i + 1 < storage.getFullWordListSize(); i++) {
+            String first = storage.getByIndex(i);
+            String second = storage.getByIndex(i + 1);
+            if (!first.equals(DELIM) && !second.equals(DELIM)) {
+                Pair pair = new Pair(first, second);
+                if (!pairIds.containsKey(pair)) {
+                    pairIds.put(pair, pairs.size());
+                    pairs.add(pair);
+                }
+            }
+        }
+        this.minSyllables = findMinSyllables(pairs);
+        loggie.info("Counted syllables to the start of a sentence for {} pairs", pairs.size());
+    }
+
+    /**
+     * Shortest paths back to the start of a sentence, where stepping back from a pair to the one
+     * before it costs the syllables of the word it adds
+     */
+    private int[] findMinSyllables(List<Pair> pairs) {
+        int[] min = new int[pairs.size()];
+        Arrays.fill(min, UNREACHABLE);
+        // distance in the high half, pair in the low half
+        PriorityQueue<Long> queue = new PriorityQueue<>();
+        for (int id = 0; id < pairs.size(); id++) {
+            List<String> before = storage.getBackwardWordList(pairs.get(id));
+            if (before != null && before.contains(DELIM)) {
+                min[id] = 0;
+                queue.add((long) id);
+            }
+        }
+
+        while (!queue.isEmpty()) {
+            long entry = queue.poll();
+            int id = (int) entry;
+            int distance = (int) (entry >>> 32);
+            if (distance > min[id]) {
+                continue; // already found a shorter way
+            }
+            // (x, a) is one step back from every (a, b) where b follows x a
+            Pair pair = pairs.get(id);
+            int cost = count(pair.getFirst());
+            List<String> after = storage.getForwardWordList(pair);
+            if (cost < 0 || after == null) {
+                continue;
+            }
+            for (String word : new HashSet<>(after)) {
+                Integer next = word.equals(DELIM) ? null : pairIds.get(new Pair(pair.getSecond(), word));
+                if (next != null && distance + cost < min[next]) {
+                    min[next] = distance + cost;
+                    queue.add((long) min[next] << 32 | next);
+                }
+            }
+        }
+        return min;
+    }
+
+    /**
+     * @param seedWord the last word of the sentence
+     * @param syllableCount exactly how many syllables the sentence has, seed word included
+     * @return null if the seed word is not in the model, or an empty list if no sentence that ends
+     *         in it has that many syllables
+     */
+    public List<String> generateRandomBackwards(String seedWord, int syllableCount) {
+        List<Integer> locations = storage.getAllPossibleLocations(seedWord);
+        if (locations == null) {
+            return null;
+        }
+        int seedSyllables = count(seedWord);
+        if (seedSyllables < 0 || seedSyllables > syllableCount) {
+            return new ArrayList<>();
+        }
+
+        // the words right before the seed, as often as they come up
+        List<String> starts = new ArrayList<>();
+        for (int location : locations) {
+            if (location > 0) {
+                starts.add(storage.getByIndex(location - 1));
+            }
+        }
+
+        Set<Long> deadEnds = new HashSet<>();
+        List<String> backwardText = new ArrayList<>();
+        backwardText.add(seedWord);
+        for (String before : weightedOrder(starts)) {
+            int remaining = syllableCount - seedSyllables;
+            if (before.equals(DELIM)) {
+                if (remaining == 0) {
+                    return backwardText; // the seed is a sentence all by itself
+                }
+            } else if (count(before) >= 0
+                    && walkBack(new Pair(before, seedWord), remaining - count(before), backwardText, deadEnds)) {
+                Collections.reverse(backwardText);
+                return backwardText;
+            }
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Depth first search for a way back to the start of a sentence from the pair, using up
+     * exactly the remaining syllables. The pair's first word is already counted.
+     *
+     * @param backwardText the sentence so far, last word first, which gets the pair's first word
+     *                     and everything before it added when this works out
+     * @param deadEnds     pairs and remaining syllables we already know don't work out
+     */
+    private boolean walkBack(Pair pair, int remaining, List<String> backwardText, Set<Long> deadEnds) {
+        Integer id = pairIds.get(pair);
+        if (remaining < 0 || id == null || minSyllables[id] > remaining) {
+            return false;
+        }
+        // also marks the ones we're in the middle of, since coming back around to them can't help
+        if (!deadEnds.add((long) id << 32 | remaining)) {
+            return false;
+        }
+
+        backwardText.add(pair.getFirst());
+        for (String before : weightedOrder(storage.getBackwardWordList(pair))) {
+            if (before.equals(DELIM)) {
+                if (remaining == 0) {
+                    return true;
+                }
+                continue;
+            }
+            int cost = count(before);
+            if (cost >= 0 && walkBack(new Pair(before, pair.getFirst()), remaining - cost, backwardText, deadEnds)) {
+                return true;
+            }
+        }
+        backwardText.remove(backwardText.size() - 1);
+        return false;
+    }
+
+    /**
+     * @return each word once, in a random order where the ones that come up more tend to go first
+     */
+    private List<String> weightedOrder(List<String> words) {
+        List<String> shuffled = new ArrayList<>(words);
+        Collections.shuffle(shuffled, random);
+        return new ArrayList<>(new LinkedHashSet<>(shuffled));
+    }
+
+    private int count(String word) {
+        return syllables.computeIfAbsent(word.toLowerCase(), counter::countSyllables);
+    }
+}
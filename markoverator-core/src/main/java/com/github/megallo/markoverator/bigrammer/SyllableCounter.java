@@ -0,0 +1,14 @@
+package com.github.megallo.markoverator.bigrammer;
+
+/**
+ * Knows how many syllables words have, for SyllableBigrammer
+ */
+@FunctionalInterface
+public interface SyllableCounter {
+
+    /**
+     * @return how many syllables the word has, 0 for things like punctuation that don't add any,
+     *         or -1 if there's no telling, in which case it won't get used
+     */
+    int countSyllables(String word);
+}
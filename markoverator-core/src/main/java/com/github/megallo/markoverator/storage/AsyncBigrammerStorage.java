@@ -0,0 +1,79 @@
+package com.github.megallo.markoverator.storage;
+
+import com.github.megallo.markoverator.utils.Pair;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * BigrammerStorage for callers that can't block on reads. Every lookup hands back a future
+ * that completes once the read is done, with the same values BigrammerStorage would return.
+ *
+ * Use ExecutorAsyncBigrammerStorage to run any of the existing storages this way.
+ */
+public interface AsyncBigrammerStorage {
+
+    /**
+     * @see BigrammerStorage#getFullWordListSize()
+     */
+    CompletableFuture<Integer> getFullWordListSize();
+
+    /**
+     * @see BigrammerStorage#getByIndex(int)
+     */
+    CompletableFuture<String> getByIndex(int index);
+
+    /**
+     * @see BigrammerStorage#getAllPossibleLocations(String)
+     */
+    CompletableFuture<List<Integer>> getAllPossibleLocations(String word);
+
+    /**
+     * @see BigrammerStorage#containsForwardWordList(Pair)
+     */
+    CompletableFuture<Boolean> containsForwardWordList(Pair wordPair);
+
+    /**
+     * @see BigrammerStorage#getForwardWordList(Pair)
+     */
+    CompletableFuture<List<String>> getForwardWordList(Pair wordPair);
+
+    /**
+     * @see BigrammerStorage#getBackwardWordList(Pair)
+     */
+    CompletableFuture<List<String>> getBackwardWordList(Pair wordPair);
+
+    /**
+     * @see BigrammerStorage#sampleStartLocation(Random)
+     */
+    CompletableFuture<Integer> sampleStartLocation(Random random);
+
+    /**
+     * @see BigrammerStorage#sampleLocation(String, Random)
+     */
+    default CompletableFuture<Integer> sampleLocation(String word, Random random) {
+        return getAllPossibleLocations(word).thenApply(locations -> BigrammerStorage.sample(locations, random));
+    }
+
+    /**
+     * @see BigrammerStorage#sampleForward(Pair, Random)
+     */
+    default CompletableFuture<String> sampleForward(Pair wordPair, Random random) {
+        return getForwardWordList(wordPair).thenApply(words -> BigrammerStorage.sample(words, random));
+    }
+
+    /**
+     * @see BigrammerStorage#sampleBackward(Pair, Random)
+     */
+    default CompletableFuture<String> sampleBackward(Pair wordPair, Random random) {
+        return getBackwardWordList(wordPair).thenApply(words -> BigrammerStorage.sample(words, random));
+    }
+
+    /**
+     * @see BigrammerStorage#getBackwardBoundaryDistance(Pair)
+     */
+    default CompletableFuture<BoundaryDistance> getBackwardBoundaryDistance(Pair wordPair) {
+        return CompletableFuture.completedFuture(null);
+    }
+}
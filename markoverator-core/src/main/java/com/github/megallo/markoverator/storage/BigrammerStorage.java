@@ -2,7 +2,16 @@ package com.github.megallo.markoverator.storage;
 
 import com.github.megallo.markoverator.utils.Pair;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static com.github.megallo.markoverator.bigrammer.Bigrammer.DELIM;
 
 public interface BigrammerStorage {
     /*
@@ -65,4 +74,234 @@ public interface BigrammerStorage {
      * @return list of all possible previous words that might immediately precede in the chain
      */
     List<String> getBackwardWordList(Pair wordPair);
+
+    /**
+     * Pick one location of the given word at random. Storages that keep the locations
+     * somewhere expensive should override this to avoid reading all of them.
+     *
+     * @param word   the word to search for
+     * @param random source of randomness
+     * @return a random index location of the word, or null if there are 0
+     */
+    default Integer sampleLocation(String word, Random random) {
+        return sample(getAllPossibleLocations(word), random);
+    }
+
+    /**
+     * Pick a random location to start a sentence from, where neither that word nor the one
+     * after it is DELIM. Every such location is equally likely. This default makes a few random
+     * guesses and then falls back to reading the whole word list, so storages that can keep a
+     * list of them should override it.
+     *
+     * @param random source of randomness
+     * @return a random start location, or null if the model doesn't have any
+     */
+    default Integer sampleStartLocation(Random random) {
+        // the last word can't start anything, there's nothing after it
+        int candidates = getFullWordListSize() - 1;
+        if (candidates <= 0) {
+            return null;
+        }
+        for (int attempt = 0; attempt < 100; attempt++) {
+            int seed = random.nextInt(candidates);
+            if (!getByIndex(seed).equals(DELIM) && !getByIndex(seed + 1).equals(DELIM)) {
+                return seed;
+            }
+        }
+
+        // they're rare or there aren't any, so go find all of them
+        List<Integer> starts = new ArrayList<>();
+        boolean previousIsDelim = getByIndex(0).equals(DELIM);
+        for (int i = 0; i < candidates; i++) {
+            boolean nextIsDelim = getByIndex(i + 1).equals(DELIM);
+            if (!previousIsDelim && !nextIsDelim) {
+                starts.add(i);
+            }
+            previousIsDelim = nextIsDelim;
+        }
+        return sample(starts, random);
+    }
+
+    /**
+     * Pick one word that might follow the given pair in the forward chain, weighted
+     * the same as the list returned by getForwardWordList().
+     *
+     * @param wordPair a pair of first word followed by second word
+     * @param random   source of randomness
+     * @return a random next word, or null if the pair isn't in the forward chain
+     */
+    default String sampleForward(Pair wordPair, Random random) {
+        return sample(getForwardWordList(wordPair), random);
+    }
+
+    /**
+     * Pick one word that might precede the given pair in the backward chain, weighted
+     * the same as the list returned by getBackwardWordList().
+     *
+     * @param wordPair a pair of first word followed by second word
+     * @param random   source of randomness
+     * @return a random previous word, or null if the pair isn't in the backward chain
+     */
+    default String sampleBackward(Pair wordPair, Random random) {
+        return sample(getBackwardWordList(wordPair), random);
+    }
+
+    /**
+     * How far the forward chain can go from the given pair before it reaches the end of a sentence.
+     * Storages that work this out ahead of time let generation steer clear of words that would make
+     * a sentence too short or too long.
+     *
+     * @param wordPair a pair of first word followed by second word
+     * @return the fewest and most words that can still follow, or null if the pair isn't in the
+     *         forward chain or the storage doesn't keep track
+     */
+    default BoundaryDistance getForwardBoundaryDistance(Pair wordPair) {
+        return null;
+    }
+
+    /**
+     * How far the backward chain can go from the given pair before it reaches the start of a sentence.
+     *
+     * @param wordPair a pair of first word followed by second word
+     * @return the fewest and most words that can still precede, or null if the pair isn't in the
+     *         backward chain or the storage doesn't keep track
+     * @see #getForwardBoundaryDistance(Pair)
+     */
+    default BoundaryDistance getBackwardBoundaryDistance(Pair wordPair) {
+        return null;
+    }
+
+    /**
+     * Every distinct word in the model, spelled the same as getByIndex() has them. This default
+     * reads the whole word list, so storages that keep an index of their words should override it.
+     *
+     * @return all of the model's words
+     */
+    default Set<String> getVocabulary() {
+        Set<String> words = new HashSet<>();
+        for (int i = 0; i < getFullWordListSize(); i++) {
+            words.add(getByIndex(i));
+        }
+        return words;
+    }
+
+    /**
+     * Every distinct word that comes right before one of the given words somewhere in the model.
+     * It goes through their locations, so it only reads the parts of the word list it needs.
+     *
+     * @param words the words to look in front of
+     * @return the words found right before them
+     */
+    default Set<String> getWordsBefore(Collection<String> words) {
+        Set<String> found = new HashSet<>();
+        for (List<Integer> locations : getAllPossibleLocations(words).values()) {
+            for (int location : locations) {
+                if (location > 0) {
+                    found.add(getByIndex(location - 1));
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Look up the locations of many words at once. Storages that can read several keys
+     * more cheaply together than one at a time should override this.
+     *
+     * @param words the words to search for
+     * @return every word that occurs in the model, mapped to all of its index locations
+     */
+    default Map<String, List<Integer>> getAllPossibleLocations(Collection<String> words) {
+        Map<String, List<Integer>> found = new HashMap<>();
+        for (String word : words) {
+            List<Integer> locations = getAllPossibleLocations(word);
+            if (locations != null) {
+                found.put(word, locations);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Look up many pairs in the forward chain at once.
+     *
+     * @param wordPairs pairs of first word followed by second word
+     * @return every pair that is in the forward chain, mapped to its list of next words
+     */
+    default Map<Pair, List<String>> getForwardWordLists(Collection<Pair> wordPairs) {
+        Map<Pair, List<String>> found = new HashMap<>();
+        for (Pair wordPair : wordPairs) {
+            List<String> words = getForwardWordList(wordPair);
+            if (words != null) {
+                found.put(wordPair, words);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Look up many pairs in the backward chain at once.
+     *
+     * @param wordPairs pairs of first word followed by second word
+     * @return every pair that is in the backward chain, mapped to its list of previous words
+     */
+    default Map<Pair, List<String>> getBackwardWordLists(Collection<Pair> wordPairs) {
+        Map<Pair, List<String>> found = new HashMap<>();
+        for (Pair wordPair : wordPairs) {
+            List<String> words = getBackwardWordList(wordPair);
+            if (words != null) {
+                found.put(wordPair, words);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * sampleLocation() for many words at once
+     *
+     * @return a random location for each word in the same order, null for words that aren't in the model
+     */
+    default List<Integer> sampleLocations(List<String> words, Random random) {
+        List<Integer> sampled = new ArrayList<>(words.size());
+        for (String word : words) {
+            sampled.add(sampleLocation(word, random));
+        }
+        return sampled;
+    }
+
+    /**
+     * sampleForward() for many pairs at once
+     *
+     * @return a random next word for each pair in the same order, null for pairs that aren't in the chain
+     */
+    default List<String> sampleForwards(List<Pair> wordPairs, Random random) {
+        List<String> sampled = new ArrayList<>(wordPairs.size());
+        for (Pair wordPair : wordPairs) {
+            sampled.add(sampleForward(wordPair, random));
+        }
+        return sampled;
+    }
+
+    /**
+     * sampleBackward() for many pairs at once
+     *
+     * @return a random previous word for each pair in the same order, null for pairs that aren't in the chain
+     */
+    default List<String> sampleBackwards(List<Pair> wordPairs, Random random) {
+        List<String> sampled = new ArrayList<>(wordPairs.size());
+        for (Pair wordPair : wordPairs) {
+            sampled.add(sampleBackward(wordPair, random));
+        }
+        return sampled;
+    }
+
+    /**
+     * @return a random element of the list, or null if the list is null or empty
+     */
+    static <T> T sample(List<T> options, Random random) {
+        if (options == null || options.isEmpty()) {
+            return null;
+        }
+        return options.get(random.nextInt(options.size()));
+    }
 }
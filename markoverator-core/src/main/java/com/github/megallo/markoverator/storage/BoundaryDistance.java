@@ -0,0 +1,51 @@
+package com.github.megallo.markoverator.storage;
+
+/**
+ * How many more words a walk along one of the chains can add after a given pair before it
+ * runs into a sentence boundary: at the fewest, and at the most.
+ */
+public class BoundaryDistance {
+
+    /**
+     * The walk can go around in circles for as long as it likes, or never reaches a boundary at all
+     */
+    public static final int UNBOUNDED = Integer.MAX_VALUE;
+
+    private final int min;
+    private final int max;
+
+    public BoundaryDistance(int min, int max) {
+        this.min = min;
+        this.max = max;
+    }
+
+    public int getMin() {
+        return min;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    /**
+     * @return true if a walk that already has the given number of words, and then carries on from
+     *         here, could stop at a boundary with somewhere between minWords and maxWords in total
+     */
+    public boolean canEndWithin(int words, int minWords, int maxWords) {
+        return min != UNBOUNDED && words + (long) min <= maxWords
+                && (max == UNBOUNDED || words + (long) max >= minWords);
+    }
+
+    /**
+     * @return true if a walk that already has the given number of words could get to at least
+     *         minWords before it has to stop
+     */
+    public boolean canReach(int words, int minWords) {
+        return max == UNBOUNDED || words + (long) max >= minWords;
+    }
+
+    @Override
+    public String toString() {
+        return "BoundaryDistance{" + min + ", " + (max == UNBOUNDED ? "unbounded" : max) + "}";
+    }
+}
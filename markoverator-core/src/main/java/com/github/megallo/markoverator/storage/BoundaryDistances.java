@@ -0,0 +1,220 @@
+package com.github.megallo.markoverator.storage;
+
+import com.github.megallo.markoverator.utils.Pair;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+import static com.github.megallo.markoverator.bigrammer.Bigrammer.DELIM;
+
+/**
+ * Works out the BoundaryDistance of every pair in a chain with one pass over the graph the
+ * chain makes, where each pair leads to the pairs a walk can go to next.
+ *
+ * The fewest words come from a breadth first search back from the pairs that can stop right away.
+ * The most words come from peeling off pairs whose next steps are all known, starting with the
+ * ones that can only stop. Whatever never gets peeled off can reach a loop, so it's unbounded.
+ *
+ * Everything it works with is kept in direct buffers, so DirectBufferBigrammerStorage can build
+ * the distances for a big model without a handful of ints per pair on the heap, and keep the table.
+ */
+final class BoundaryDistances {
+
+    // stands in for the boundary in a list of next steps
+    static final int BOUNDARY = -1;
+
+    /**
+     * Goes through the steps from one pair. Repeats are fine, they only count once.
+     */
+    interface Steps {
+        void forEach(int state, IntConsumer action);
+    }
+
+    // fewest and most words for each pair, one after the other
+    private final DirectArray table;
+
+    /**
+     * @param numStates how many pairs there are, numbered from 0
+     * @param next      the pairs a walk can go to from this one, with BOUNDARY if it can stop here
+     * @param previous  every pair that has this one as a next step
+     */
+    BoundaryDistances(int numStates, Steps next, Steps previous) {
+        this.table = new DirectArray(2L * numStates, 4);
+        DirectArray remaining = new DirectArray(numStates, 4);
+        // the last pair that listed each one, so a step that comes up twice only counts once
+        DirectArray seenBy = new DirectArray(numStates, 4);
+        Queue queue = new Queue(numStates);
+
+        for (int state = 0; state < numStates; state++) {
+            int current = state;
+            int mark = state + 1;
+            setMin(state, BoundaryDistance.UNBOUNDED);
+            next.forEach(state, step -> {
+                if (step == BOUNDARY) {
+                    setMin(current, 0);
+                } else if (seenBy.getInt(step) != mark) {
+                    seenBy.putInt(step, mark);
+                    remaining.putInt(current, remaining.getInt(current) + 1);
+                }
+            });
+            if (remaining.getInt(state) == 0) {
+                setMin(state, 0); // nowhere to go, so the walk stops here too
+            }
+            if (getMin(state) == 0) {
+                queue.add(state);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.remove();
+            int steps = getMin(state) + 1;
+            previous.forEach(state, before -> {
+                if (getMin(before) == BoundaryDistance.UNBOUNDED) {
+                    setMin(before, steps);
+                    queue.add(before);
+                }
+            });
+        }
+
+        queue.clear();
+        for (int state = 0; state < numStates; state++) {
+            if (remaining.getInt(state) == 0) {
+                queue.add(state);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.remove();
+            int mark = -(state + 1); // can't clash with the marks from counting the next steps
+            int steps = getMax(state) + 1;
+            previous.forEach(state, before -> {
+                if (seenBy.getInt(before) == mark) {
+                    return;
+                }
+                seenBy.putInt(before, mark);
+                setMax(before, Math.max(getMax(before), steps));
+                int left = remaining.getInt(before) - 1;
+                remaining.putInt(before, left);
+                if (left == 0) {
+                    queue.add(before);
+                }
+            });
+        }
+        for (int state = 0; state < numStates; state++) {
+            if (remaining.getInt(state) > 0) {
+                setMax(state, BoundaryDistance.UNBOUNDED);
+            }
+        }
+    }
+
+    int getMin(int state) {
+        return table.getInt(2L * state);
+    }
+
+    int getMax(int state) {
+        return table.getInt(2L * state + 1);
+    }
+
+    BoundaryDistance get(int state) {
+        return new BoundaryDistance(getMin(state), getMax(state));
+    }
+
+    /**
+     * @return the fewest words for each pair at 2 * pair, and the most right after it
+     */
+    DirectArray getTable() {
+        return table;
+    }
+
+    private void setMin(int state, int min) {
+        table.putInt(2L * state, min);
+    }
+
+    private void setMax(int state, int max) {
+        table.putInt(2L * state + 1, max);
+    }
+
+    /**
+     * Each pair goes in at most once between clears, so it never needs more room than there are pairs
+     */
+    private static final class Queue {
+        private final DirectArray states;
+        private int head = 0;
+        private int tail = 0;
+
+        Queue(int capacity) {
+            this.states = new DirectArray(capacity, 4);
+        }
+
+        void add(int state) {
+            states.putInt(tail++, state);
+        }
+
+        int remove() {
+            return states.getInt(head++);
+        }
+
+        boolean isEmpty() {
+            return head == tail;
+        }
+
+        void clear() {
+            head = 0;
+            tail = 0;
+        }
+    }
+
+    /**
+     * Distances for one of BigramModel's chains, keyed the same way
+     *
+     * @param chain    the chain the walk follows
+     * @param opposite the chain going the other way, which says which pairs lead to each pair
+     * @param backward true if chain is the backward one
+     */
+    static Map<Pair, BoundaryDistance> forChain(Map<Pair, List<String>> chain, Map<Pair, List<String>> opposite,
+                                                boolean backward) {
+        List<Pair> pairs = new ArrayList<>(chain.keySet());
+        Map<Pair, Integer> states = new HashMap<>();
+        for (int i = 0; i < pairs.size(); i++) {
+            states.put(pairs.get(i), i);
+        }
+
+        BoundaryDistances distances = new BoundaryDistances(pairs.size(), (state, action) -> {
+            Pair pair = pairs.get(state);
+            // a walk that has reached a DELIM is already done
+            if (isDelim(backward ? pair.getFirst() : pair.getSecond())) {
+                action.accept(BOUNDARY);
+                return;
+            }
+            for (String word : chain.get(pair)) {
+                if (isDelim(word)) {
+                    action.accept(BOUNDARY);
+                } else {
+                    action.accept(states.get(backward ? new Pair(word, pair.getFirst()) : new Pair(pair.getSecond(), word)));
+                }
+            }
+        }, (state, action) -> {
+            Pair pair = pairs.get(state);
+            List<String> words = opposite.get(pair);
+            // nothing leads to a pair that's already done, and nothing that's done leads anywhere
+            if (words == null || isDelim(pair.getFirst()) || isDelim(pair.getSecond())) {
+                return;
+            }
+            for (String word : words) {
+                action.accept(states.get(backward ? new Pair(pair.getSecond(), word) : new Pair(word, pair.getFirst())));
+            }
+        });
+
+        Map<Pair, BoundaryDistance> found = new HashMap<>();
+        for (int i = 0; i < pairs.size(); i++) {
+            found.put(pairs.get(i), distances.get(i));
+        }
+        return found;
+    }
+
+    static boolean isDelim(String word) {
+        // pairs are compared regardless of case
+        return word.equalsIgnoreCase(DELIM);
+    }
+}
@@ -0,0 +1,228 @@
+package com.github.megallo.markoverator.storage;
+
+import com.github.megallo.markoverator.utils.Pair;
+import com.github.megallo.markoverator.utils.TinyLfuCache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Wraps another storage and keeps the forward lists, backward lists and word locations
+ * that get asked for the most in memory. Meant for storages that have to go to disk,
+ * where a few very common pairs and words account for most of the lookups.
+ *
+ * Misses are cached too, so asking again for something that isn't in the model is cheap.
+ *
+ * Sampling goes through the cache the same as getting a list does, so generating sentences fills
+ * it up. Lists too big to ever fit in the cache aren't put in it. They're remembered as too big,
+ * and after that sampling them is left to the wrapped storage, which for most storages is a lot
+ * cheaper than reading the whole list just to pick one.
+ */
+public class CachingBigrammerStorage implements BigrammerStorage {
+
+    public static final long DEFAULT_MAX_WEIGHT = 1_000_000;
+
+    // stands in for null, which the cache can't hold
+    private static final List<?> NOT_IN_MODEL = Collections.emptyList();
+    // stands in for a list that's too big to cache, compared by identity
+    private static final List<?> TOO_BIG = Collections.unmodifiableList(new ArrayList<>());
+
+    private static final int FORWARD = 0;
+    private static final int BACKWARD = 1;
+    private static final int LOCATIONS = 2;
+
+    private final BigrammerStorage storage;
+    private final TinyLfuCache<CacheKey, List<?>> cache;
+    private final long maxWeight;
+
+    public CachingBigrammerStorage(BigrammerStorage storage) {
+        this(storage, DEFAULT_MAX_WEIGHT);
+    }
+
+    /**
+     * @param storage   the storage to read through to
+     * @param maxWeight roughly how many list elements to keep cached, across all the lists
+     */
+    public CachingBigrammerStorage(BigrammerStorage storage, long maxWeight) {
+        this.storage = storage;
+        this.cache = new TinyLfuCache<>(maxWeight, CachingBigrammerStorage::weigh);
+        this.maxWeight = maxWeight;
+    }
+
+    @Override
+    public int getFullWordListSize() {
+        return storage.getFullWordListSize();
+    }
+
+    @Override
+    public String getByIndex(int index) {
+        return storage.getByIndex(index);
+    }
+
+    @Override
+    public Integer sampleStartLocation(Random random) {
+        return storage.sampleStartLocation(random);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Integer> getAllPossibleLocations(String word) {
+        return (List<Integer>) get(new CacheKey(LOCATIONS, word));
+    }
+
+    @Override
+    public Integer sampleLocation(String word, Random random) {
+        return sample(new CacheKey(LOCATIONS, word), random, () -> storage.sampleLocation(word, random));
+    }
+
+    @Override
+    public String sampleForward(Pair wordPair, Random random) {
+        return sample(new CacheKey(FORWARD, wordPair), random, () -> storage.sampleForward(wordPair, random));
+    }
+
+    @Override
+    public String sampleBackward(Pair wordPair, Random random) {
+        return sample(new CacheKey(BACKWARD, wordPair), random, () -> storage.sampleBackward(wordPair, random));
+    }
+
+    @Override
+    public boolean containsForwardWordList(Pair wordPair) {
+        return getForwardWordList(wordPair) != null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<String> getForwardWordList(Pair wordPair) {
+        return (List<String>) get(new CacheKey(FORWARD, wordPair));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<String> getBackwardWordList(Pair wordPair) {
+        return (List<String>) get(new CacheKey(BACKWARD, wordPair));
+    }
+
+    @Override
+    public Set<String> getVocabulary() {
+        return storage.getVocabulary();
+    }
+
+    @Override
+    public Set<String> getWordsBefore(Collection<String> words) {
+        return storage.getWordsBefore(words);
+    }
+
+    @Override
+    public BoundaryDistance getForwardBoundaryDistance(Pair wordPair) {
+        return storage.getForwardBoundaryDistance(wordPair);
+    }
+
+    @Override
+    public BoundaryDistance getBackwardBoundaryDistance(Pair wordPair) {
+        return storage.getBackwardBoundaryDistance(wordPair);
+    }
+
+    public long getHitCount() {
+        return cache.getHitCount();
+    }
+
+    public long getMissCount() {
+        return cache.getMissCount();
+    }
+
+    public long getEvictionCount() {
+        return cache.getEvictionCount();
+    }
+
+    private List<?> get(CacheKey key) {
+        List<?> list = cache.getIfPresent(key);
+        if (list == TOO_BIG) {
+            list = load(key);
+        } else if (list == null) {
+            list = loadAndCache(key);
+        }
+        return list == NOT_IN_MODEL ? null : list;
+    }
+
+    /**
+     * Pick from the cached list, loading it on a miss
+     *
+     * @param tooBig samples from the wrapped storage, for lists that are too big to cache
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T sample(CacheKey key, Random random, Supplier<T> tooBig) {
+        List<?> list = cache.getIfPresent(key);
+        if (list == TOO_BIG) {
+            return tooBig.get();
+        }
+        // not in the model is an empty list, which samples to null
+        return BigrammerStorage.sample((List<T>) (list == null ? loadAndCache(key) : list), random);
+    }
+
+    /**
+     * @return the list, which is only cached if it fits
+     */
+    private List<?> loadAndCache(CacheKey key) {
+        List<?> list = load(key);
+        // one that's heavier than the whole cache would push everything out and then get evicted itself,
+        // so it just gets noted down as too big
+        if (weigh(list) > maxWeight) {
+            cache.putIfAbsent(key, TOO_BIG);
+            return list;
+        }
+        List<?> cached = cache.putIfAbsent(key, list);
+        return cached == TOO_BIG ? list : cached;
+    }
+
+    private static int weigh(List<?> list) {
+        return list.size() + 1;
+    }
+
+    private List<?> load(CacheKey key) {
+        List<?> list;
+        switch (key.type) {
+            case FORWARD:
+                list = storage.getForwardWordList((Pair) key.key);
+                break;
+            case BACKWARD:
+                list = storage.getBackwardWordList((Pair) key.key);
+                break;
+            default:
+                list = storage.getAllPossibleLocations((String) key.key);
+                break;
+        }
+        return list == null ? NOT_IN_MODEL : list;
+    }
+
+    /**
+     * Keeps the same pair from the forward and backward chains apart
+     */
+    private static final class CacheKey {
+        final int type;
+        final Object key;
+
+        CacheKey(int type, Object key) {
+            this.type = type;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            CacheKey other = (CacheKey) o;
+            return type == other.type && key.equals(other.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * type + key.hashCode();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.github.megallo.markoverator.storage;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A fixed length array of ints, longs or bytes kept outside the heap, split over as many
+ * direct buffers as it takes, since a single one can't go past 2GB.
+ *
+ * Elements are never split between two buffers, so the element size has to be a power of
+ * two no bigger than a buffer.
+ */
+final class DirectArray {
+
+    static final int DEFAULT_CHUNK_SHIFT = 30; // 1GB per buffer
+
+    private final ByteBuffer[] chunks;
+    private final long length;
+    private final int elementShift;
+    private final int chunkShift;
+    private final long chunkMask;
+
+    DirectArray(long length, int elementBytes) {
+        this(length, elementBytes, DEFAULT_CHUNK_SHIFT);
+    }
+
+    DirectArray(long length, int elementBytes, int chunkShift) {
+        if (Integer.bitCount(elementBytes) != 1 || elementBytes > 1 << chunkShift) {
+            throw new IllegalArgumentException("Bad element size: " + elementBytes);
+        }
+        this.length = length;
+        this.elementShift = Integer.numberOfTrailingZeros(elementBytes);
+        this.chunkShift = chunkShift;
+        this.chunkMask = (1L << chunkShift) - 1;
+
+        long totalBytes = length << elementShift;
+        int numChunks = (int) ((totalBytes + chunkMask) >>> chunkShift);
+        this.chunks = new ByteBuffer[numChunks];
+        for (int i = 0; i < numChunks; i++) {
+            int chunkBytes = (int) Math.min(1L << chunkShift, totalBytes - ((long) i << chunkShift));
+            chunks[i] = ByteBuffer.allocateDirect(chunkBytes).order(ByteOrder.nativeOrder());
+        }
+    }
+
+    long length() {
+        return length;
+    }
+
+    int getInt(long index) {
+        long offset = offset(index);
+        return chunks[(int) (offset >>> chunkShift)].getInt((int) (offset & chunkMask));
+    }
+
+    void putInt(long index, int value) {
+        long offset = offset(index);
+        chunks[(int) (offset >>> chunkShift)].putInt((int) (offset & chunkMask), value);
+    }
+
+    long getLong(long index) {
+        long offset = offset(index);
+        return chunks[(int) (offset >>> chunkShift)].getLong((int) (offset & chunkMask));
+    }
+
+    void putLong(long index, long value) {
+        long offset = offset(index);
+        chunks[(int) (offset >>> chunkShift)].putLong((int) (offset & chunkMask), value);
+    }
+
+    byte getByte(long index) {
+        long offset = offset(index);
+        return chunks[(int) (offset >>> chunkShift)].get((int) (offset & chunkMask));
+    }
+
+    void putByte(long index, byte value) {
+        long offset = offset(index);
+        chunks[(int) (offset >>> chunkShift)].put((int) (offset & chunkMask), value);
+    }
+
+    private long offset(long index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Length: " + length);
+        }
+        return index << elementShift;
+    }
+}
@@ -0,0 +1,504 @@
+package com.github.megallo.markoverator.storage;
+
+import com.github.megallo.markoverator.bigrammer.BigramModel;
+import com.github.megallo.markoverator.utils.Pair;
+import com.github.megallo.markoverator.utils.Vocabulary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.IntUnaryOperator;
+
+import static com.github.megallo.markoverator.bigrammer.Bigrammer.DELIM;
+
+/**
+ * Keeps the whole model in memory like MemoryBigrammerStorage, but outside the heap, so
+ * big models don't leave the garbage collector millions of strings, pairs and lists to
+ * walk through. Every word is stored once in a Vocabulary and referred to by id everywhere
+ * else, and pairs are found through open addressing hash tables.
+ *
+ * Building one still uses the heap for a map of the distinct words. Once it's built the
+ * heap only holds the packed vocabulary and a few buffer objects, and -XX:MaxDirectMemorySize
+ * has to leave room for the rest. The memory is given back when the storage is garbage collected.
+ */
+public class DirectBufferBigrammerStorage implements BigrammerStorage {
+
+    private static final Logger loggie = LoggerFactory.getLogger(DirectBufferBigrammerStorage.class);
+
+    private static final int NONE = Vocabulary.NOT_FOUND;
+
+    private final int fullWordListSize;
+
+    // word id at every position of the corpus
+    private final DirectArray fullWordList;
+
+    // each distinct word plus the lowercase version of each, and which one is which
+    private final Vocabulary vocabulary;
+    private final DirectArray lowercaseIds;
+
+    // every location of a word, grouped by word id
+    private final DirectArray locationStarts;
+    private final DirectArray locations;
+
+    // every location a sentence can start from, so generateRandom() doesn't have to go looking
+    private final DirectArray startLocations;
+
+    private final Chain forward;
+    private final Chain backward;
+
+    public DirectBufferBigrammerStorage(BigramModel model) {
+        this(model.getFullWordList());
+    }
+
+    /**
+     * Build straight from a corpus laid out like BigramModel's full word list, which saves
+     * building the forward and backward caches on the heap first.
+     *
+     * @see com.github.megallo.markoverator.bigrammer.BigramModelBuilder#buildDirectStorage(List)
+     */
+    public DirectBufferBigrammerStorage(List<String> fullWordList) {
+        this.fullWordListSize = fullWordList.size();
+        this.fullWordList = new DirectArray(fullWordListSize, 4);
+
+        // give every word an id, with the lowercase version of each one in there too
+        Set<String> distinct = new HashSet<>(fullWordList);
+        for (String word : new ArrayList<>(distinct)) {
+            distinct.add(word.toLowerCase());
+        }
+        this.vocabulary = new Vocabulary(distinct);
+
+        Map<String, Integer> ids = new HashMap<>();
+        for (String word : distinct) {
+            ids.put(word, vocabulary.getId(word));
+        }
+        for (int i = 0; i < fullWordListSize; i++) {
+            this.fullWordList.putInt(i, ids.get(fullWordList.get(i)));
+        }
+
+        int vocabularySize = vocabulary.size();
+        this.lowercaseIds = new DirectArray(vocabularySize, 4);
+        for (String word : distinct) {
+            lowercaseIds.putInt(ids.get(word), ids.get(word.toLowerCase()));
+        }
+
+        this.locationStarts = new DirectArray(vocabularySize + 1, 4);
+        this.locations = new DirectArray(fullWordListSize, 4);
+        indexLocations(vocabularySize);
+        this.startLocations = findStartLocations(vocabulary.getId(DELIM));
+
+        // forward is (w1, w2) -> w3 and backward is (w2, w3) -> w1, for each triplet starting at w1
+        this.forward = new Chain(this.fullWordList, lowercaseIds, vocabularySize, 0, 1, 2);
+        this.backward = new Chain(this.fullWordList, lowercaseIds, vocabularySize, 1, 2, 0);
+
+        int delimId = vocabulary.getId(DELIM);
+        int lowercaseDelimId = delimId == NONE ? NONE : lowercaseIds.getInt(delimId);
+        calculateDistances(forward, backward, false, lowercaseDelimId);
+        calculateDistances(backward, forward, true, lowercaseDelimId);
+
+        loggie.info("Built direct buffer storage of {} words, {} distinct words, {} forward and {} backward pairs",
+                fullWordListSize, vocabularySize, forward.size(), backward.size());
+    }
+
+    @Override
+    public int getFullWordListSize() {
+        return fullWordListSize;
+    }
+
+    @Override
+    public String getByIndex(int index) {
+        if (index < 0 || index >= fullWordListSize) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + fullWordListSize);
+        }
+        return vocabulary.getWord(fullWordList.getInt(index));
+    }
+
+    @Override
+    public Integer sampleStartLocation(Random random) {
+        if (startLocations.length() == 0) {
+            return null;
+        }
+        return startLocations.getInt(random.nextInt((int) startLocations.length()));
+    }
+
+    @Override
+    public List<Integer> getAllPossibleLocations(String word) {
+        int id = vocabulary.getId(word);
+        if (id == NONE) {
+            return null;
+        }
+        int start = locationStarts.getInt(id);
+        int end = locationStarts.getInt(id + 1);
+        if (start == end) {
+            return null; // only here as the lowercase version of another word
+        }
+        List<Integer> found = new ArrayList<>(end - start);
+        for (int i = start; i < end; i++) {
+            found.add(locations.getInt(i));
+        }
+        return found;
+    }
+
+    @Override
+    public Integer sampleLocation(String word, Random random) {
+        int id = vocabulary.getId(word);
+        if (id == NONE) {
+            return null;
+        }
+        int start = locationStarts.getInt(id);
+        int end = locationStarts.getInt(id + 1);
+        if (start == end) {
+            return null;
+        }
+        return locations.getInt(start + random.nextInt(end - start));
+    }
+
+    @Override
+    public Set<String> getVocabulary() {
+        Set<String> words = new HashSet<>();
+        for (int id = 0; id < vocabulary.size(); id++) {
+            // skip the ones that are only here as the lowercase version of another word
+            if (locationStarts.getInt(id) != locationStarts.getInt(id + 1)) {
+                words.add(vocabulary.getWord(id));
+            }
+        }
+        return words;
+    }
+
+    @Override
+    public boolean containsForwardWordList(Pair wordPair) {
+        return find(forward, wordPair) != NONE;
+    }
+
+    @Override
+    public List<String> getForwardWordList(Pair wordPair) {
+        return expand(forward, find(forward, wordPair));
+    }
+
+    @Override
+    public List<String> getBackwardWordList(Pair wordPair) {
+        return expand(backward, find(backward, wordPair));
+    }
+
+    @Override
+    public String sampleForward(Pair wordPair, Random random) {
+        return sample(forward, find(forward, wordPair), random);
+    }
+
+    @Override
+    public String sampleBackward(Pair wordPair, Random random) {
+        return sample(backward, find(backward, wordPair), random);
+    }
+
+    @Override
+    public BoundaryDistance getForwardBoundaryDistance(Pair wordPair) {
+        return distance(forward, find(forward, wordPair));
+    }
+
+    @Override
+    public BoundaryDistance getBackwardBoundaryDistance(Pair wordPair) {
+        return distance(backward, find(backward, wordPair));
+    }
+
+    private int find(Chain chain, Pair wordPair) {
+        // pairs match regardless of case, same as Pair.equals()
+        int first = vocabulary.getId(wordPair.getFirst().toLowerCase());
+        if (first == NONE) {
+            return NONE;
+        }
+        int second = vocabulary.getId(wordPair.getSecond().toLowerCase());
+        if (second == NONE) {
+            return NONE;
+        }
+        return chain.find(pairKey(first, second));
+    }
+
+    private List<String> expand(Chain chain, int entry) {
+        if (entry == NONE) {
+            return null;
+        }
+        int start = chain.successorStarts.getInt(entry);
+        int end = chain.successorStarts.getInt(entry + 1);
+        List<String> words = new ArrayList<>(chain.cumulativeCounts.getInt(end - 1));
+        int previousTotal = 0;
+        for (int i = start; i < end; i++) {
+            String word = vocabulary.getWord(chain.successorIds.getInt(i));
+            int total = chain.cumulativeCounts.getInt(i);
+            for (int j = previousTotal; j < total; j++) {
+                words.add(word);
+            }
+            previousTotal = total;
+        }
+        return words;
+    }
+
+    private String sample(Chain chain, int entry, Random random) {
+        if (entry == NONE) {
+            return null;
+        }
+        int low = chain.successorStarts.getInt(entry);
+        int high = chain.successorStarts.getInt(entry + 1) - 1;
+        int pick = random.nextInt(chain.cumulativeCounts.getInt(high));
+
+        // the first successor whose running total goes past the pick
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (chain.cumulativeCounts.getInt(middle) > pick) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return vocabulary.getWord(chain.successorIds.getInt(low));
+    }
+
+    private static BoundaryDistance distance(Chain chain, int entry) {
+        if (entry == NONE) {
+            return null;
+        }
+        return new BoundaryDistance(chain.distances.getInt(2L * entry), chain.distances.getInt(2L * entry + 1));
+    }
+
+    /**
+     * Work out how far every pair in the chain is from a sentence boundary, the same way
+     * BoundaryDistances.forChain() does for BigramModel's chains
+     *
+     * @param opposite the chain going the other way, which says which pairs lead to each pair
+     */
+    private void calculateDistances(Chain chain, Chain opposite, boolean backward, int lowercaseDelimId) {
+        BoundaryDistances distances = new BoundaryDistances((int) chain.size(), (pair, action) -> {
+            long key = chain.pairKeys.getLong(pair);
+            int first = (int) (key >>> 32);
+            int second = (int) key;
+            // a walk that has reached a DELIM is already done
+            if ((backward ? first : second) == lowercaseDelimId) {
+                action.accept(BoundaryDistances.BOUNDARY);
+                return;
+            }
+            for (int i = chain.successorStarts.getInt(pair); i < chain.successorStarts.getInt(pair + 1); i++) {
+                int word = lowercaseIds.getInt(chain.successorIds.getInt(i));
+                if (word == lowercaseDelimId) {
+                    action.accept(BoundaryDistances.BOUNDARY);
+                } else {
+                    action.accept(chain.find(backward ? pairKey(word, first) : pairKey(second, word)));
+                }
+            }
+        }, (pair, action) -> {
+            long key = chain.pairKeys.getLong(pair);
+            int first = (int) (key >>> 32);
+            int second = (int) key;
+            int other = opposite.find(key);
+            // nothing leads to a pair that's already done, and nothing that's done leads anywhere
+            if (other == NONE || first == lowercaseDelimId || second == lowercaseDelimId) {
+                return;
+            }
+            for (int i = opposite.successorStarts.getInt(other); i < opposite.successorStarts.getInt(other + 1); i++) {
+                int word = lowercaseIds.getInt(opposite.successorIds.getInt(i));
+                action.accept(chain.find(backward ? pairKey(second, word) : pairKey(word, first)));
+            }
+        });
+        chain.distances = distances.getTable();
+    }
+
+    /**
+     * Counting sort of every position by word id, so each word's locations end up together and in order
+     */
+    private void indexLocations(int vocabularySize) {
+        for (int i = 0; i < fullWordListSize; i++) {
+            int id = fullWordList.getInt(i);
+            locationStarts.putInt(id + 1, locationStarts.getInt(id + 1) + 1);
+        }
+        for (int id = 1; id <= vocabularySize; id++) {
+            locationStarts.putInt(id, locationStarts.getInt(id) + locationStarts.getInt(id - 1));
+        }
+
+        DirectArray next = new DirectArray(vocabularySize, 4);
+        for (int id = 0; id < vocabularySize; id++) {
+            next.putInt(id, locationStarts.getInt(id));
+        }
+        for (int i = 0; i < fullWordListSize; i++) {
+            int id = fullWordList.getInt(i);
+            int at = next.getInt(id);
+            locations.putInt(at, i);
+            next.putInt(id, at + 1);
+        }
+    }
+
+    /**
+     * @param delimId the id of DELIM, or NONE if there isn't one
+     */
+    private DirectArray findStartLocations(int delimId) {
+        int count = 0;
+        for (int i = 0; i < fullWordListSize - 1; i++) {
+            if (fullWordList.getInt(i) != delimId && fullWordList.getInt(i + 1) != delimId) {
+                count++;
+            }
+        }
+
+        DirectArray starts = new DirectArray(count, 4);
+        int next = 0;
+        for (int i = 0; i < fullWordListSize - 1; i++) {
+            if (fullWordList.getInt(i) != delimId && fullWordList.getInt(i + 1) != delimId) {
+                starts.putInt(next++, i);
+            }
+        }
+        return starts;
+    }
+
+    private static long pairKey(int first, int second) {
+        return (long) first << 32 | second;
+    }
+
+    /**
+     * @return a power of two with room to spare for the given number of entries
+     */
+    private static long tableSize(long entries) {
+        return Long.highestOneBit(Math.max(2, entries * 2) - 1) << 1;
+    }
+
+    private static long freeSlot(DirectArray slots, long hash) {
+        long mask = slots.length() - 1;
+        long slot = hash & mask;
+        while (slots.getInt(slot) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static long spread(long hash) {
+        hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+        hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    /**
+     * One direction of the model: each distinct pair of lowercase word ids, with the distinct
+     * words that can come next and a running total of how often each one did.
+     */
+    private static final class Chain {
+        final DirectArray pairKeys;
+        final DirectArray pairSlots;
+        final DirectArray successorStarts;
+        final DirectArray successorIds;
+        final DirectArray cumulativeCounts;
+
+        // fewest and most words to a sentence boundary for each pair, filled in once both chains exist
+        DirectArray distances;
+
+        /**
+         * @param first  offset of the pair's first word from the start of each triplet
+         * @param second offset of the pair's second word
+         * @param value  offset of the word that goes with the pair
+         */
+        Chain(DirectArray fullWordList, DirectArray lowercaseIds, int vocabularySize, int first, int second, int value) {
+            int numTriplets = (int) Math.max(0, fullWordList.length() - 2);
+            IntUnaryOperator firstKey = i -> lowercaseIds.getInt(fullWordList.getInt(i + first));
+            IntUnaryOperator secondKey = i -> lowercaseIds.getInt(fullWordList.getInt(i + second));
+            IntUnaryOperator valueKey = i -> fullWordList.getInt(i + value);
+
+            // radix sort the triplets by pair, then word, so equal ones end up next to each other
+            DirectArray order = new DirectArray(numTriplets, 4);
+            for (int i = 0; i < numTriplets; i++) {
+                order.putInt(i, i);
+            }
+            DirectArray scratch = new DirectArray(numTriplets, 4);
+            DirectArray counts = new DirectArray(vocabularySize + 1, 4);
+            countingSort(order, scratch, counts, valueKey);
+            countingSort(scratch, order, counts, secondKey);
+            countingSort(order, scratch, counts, firstKey);
+            order = scratch;
+
+            long numPairs = 0;
+            long numSuccessors = 0;
+            long previousKey = NONE;
+            int previousValue = NONE;
+            for (int j = 0; j < numTriplets; j++) {
+                int i = order.getInt(j);
+                long key = pairKey(firstKey.applyAsInt(i), secondKey.applyAsInt(i));
+                int word = valueKey.applyAsInt(i);
+                if (key != previousKey) {
+                    numPairs++;
+                    numSuccessors++;
+                } else if (word != previousValue) {
+                    numSuccessors++;
+                }
+                previousKey = key;
+                previousValue = word;
+            }
+
+            this.pairKeys = new DirectArray(numPairs, 8);
+            this.pairSlots = new DirectArray(tableSize(numPairs), 4);
+            this.successorStarts = new DirectArray(numPairs + 1, 4);
+            this.successorIds = new DirectArray(numSuccessors, 4);
+            this.cumulativeCounts = new DirectArray(numSuccessors, 4);
+
+            int pair = NONE;
+            int successor = NONE;
+            int total = 0;
+            previousKey = NONE;
+            previousValue = NONE;
+            for (int j = 0; j < numTriplets; j++) {
+                int i = order.getInt(j);
+                long key = pairKey(firstKey.applyAsInt(i), secondKey.applyAsInt(i));
+                int word = valueKey.applyAsInt(i);
+                if (key != previousKey) {
+                    pair++;
+                    pairKeys.putLong(pair, key);
+                    pairSlots.putInt(freeSlot(pairSlots, spread(key)), pair + 1);
+                    successorStarts.putInt(pair, successor + 1);
+                    total = 0;
+                }
+                if (key != previousKey || word != previousValue) {
+                    successor++;
+                    successorIds.putInt(successor, word);
+                }
+                cumulativeCounts.putInt(successor, ++total);
+                previousKey = key;
+                previousValue = word;
+            }
+            successorStarts.putInt(numPairs, (int) numSuccessors);
+        }
+
+        long size() {
+            return pairKeys.length();
+        }
+
+        int find(long key) {
+            long mask = pairSlots.length() - 1;
+            for (long slot = spread(key) & mask; ; slot = (slot + 1) & mask) {
+                int pair = pairSlots.getInt(slot) - 1;
+                if (pair == NONE || pairKeys.getLong(pair) == key) {
+                    return pair;
+                }
+            }
+        }
+
+        /**
+         * Stable sort of the triplet positions in from into to, by a key between 0 and the vocabulary size
+         */
+        private static void countingSort(DirectArray from, DirectArray to, DirectArray counts, IntUnaryOperator key) {
+            for (long k = 0; k < counts.length(); k++) {
+                counts.putInt(k, 0);
+            }
+            for (long j = 0; j < from.length(); j++) {
+                int k = key.applyAsInt(from.getInt(j)) + 1;
+                counts.putInt(k, counts.getInt(k) + 1);
+            }
+            for (long k = 1; k < counts.length(); k++) {
+                counts.putInt(k, counts.getInt(k) + counts.getInt(k - 1));
+            }
+            for (long j = 0; j < from.length(); j++) {
+                int i = from.getInt(j);
+                int k = key.applyAsInt(i);
+                int at = counts.getInt(k);
+                to.putInt(at, i);
+                counts.putInt(k, at + 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.github.megallo.markoverator.storage;
+
+import com.github.megallo.markoverator.utils.Pair;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs a regular blocking BigrammerStorage on an executor of its own, so the threads
+ * asking for words never wait on a read themselves.
+ */
+public class ExecutorAsyncBigrammerStorage implements AsyncBigrammerStorage {
+
+    private final BigrammerStorage storage;
+    private final Executor executor;
+
+    /**
+     * @param storage  any storage, it gets called from the executor's threads
+     * @param executor where the reads happen, see newIoExecutor()
+     */
+    public ExecutorAsyncBigrammerStorage(BigrammerStorage storage, Executor executor) {
+        this.storage = storage;
+        this.executor = executor;
+    }
+
+    /**
+     * An executor sized for blocking reads. When all the threads are busy and the queue is full,
+     * new reads fail with a RejectedExecutionException instead of piling up without limit.
+     * Whoever creates it is responsible for shutting it down.
+     *
+     * @param threads   how many reads can be waiting on the disk at once
+     * @param maxQueued how many more reads can wait for a thread
+     */
+    public static ExecutorService newIoExecutor(int threads, int maxQueued) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "bigrammer-io-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxQueued), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @Override
+    public CompletableFuture<Integer> getFullWordListSize() {
+        return read(storage::getFullWordListSize);
+    }
+
+    @Override
+    public CompletableFuture<String> getByIndex(int index) {
+        return read(() -> storage.getByIndex(index));
+    }
+
+    @Override
+    public CompletableFuture<List<Integer>> getAllPossibleLocations(String word) {
+        return read(() -> storage.getAllPossibleLocations(word));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> containsForwardWordList(Pair wordPair) {
+        return read(() -> storage.containsForwardWordList(wordPair));
+    }
+
+    @Override
+    public CompletableFuture<List<String>> getForwardWordList(Pair wordPair) {
+        return read(() -> storage.getForwardWordList(wordPair));
+    }
+
+    @Override
+    public CompletableFuture<List<String>> getBackwardWordList(Pair wordPair) {
+        return read(() -> storage.getBackwardWordList(wordPair));
+    }
+
+    // the storage may have a cheaper way to sample than reading the whole list, so let it
+
+    @Override
+    public CompletableFuture<Integer> sampleStartLocation(Random random) {
+        return read(() -> storage.sampleStartLocation(random));
+    }
+
+    @Override
+    public CompletableFuture<Integer> sampleLocation(String word, Random random) {
+        return read(() -> storage.sampleLocation(word, random));
+    }
+
+    @Override
+    public CompletableFuture<String> sampleForward(Pair wordPair, Random random) {
+        return read(() -> storage.sampleForward(wordPair, random));
+    }
+
+    @Override
+    public CompletableFuture<String> sampleBackward(Pair wordPair, Random random) {
+        return read(() -> storage.sampleBackward(wordPair, random));
+    }
+
+    @Override
+    public CompletableFuture<BoundaryDistance> getBackwardBoundaryDistance(Pair wordPair) {
+        return read(() -> storage.getBackwardBoundaryDistance(wordPair));
+    }
+
+    private <T> CompletableFuture<T> read(Supplier<T> read) {
+        try {
+            return CompletableFuture.supplyAsync(read, executor);
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<T> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+}
@@ -2,20 +2,39 @@ package com.github.megallo.markoverator.storage;
 
 import com.github.megallo.markoverator.bigrammer.BigramModel;
 import com.github.megallo.markoverator.utils.Pair;
+import com.github.megallo.markoverator.utils.Vocabulary;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static com.github.megallo.markoverator.bigrammer.Bigrammer.DELIM;
 
 public class MemoryBigrammerStorage implements BigrammerStorage {
 
-    private final Map<String, List<Integer>> wordIndexMap; // calculated, so not part of the model object
+    // calculated, so not part of the model object: the locations of each word grouped by word id
+    private final Vocabulary vocabulary;
+    private final int[] locationStarts;
+    private final int[] locations;
+    // every location a sentence can start from, so generateRandom() doesn't have to go looking
+    private final int[] startLocations;
+    // how far each pair is from the nearest sentence boundary, for length constrained generation,
+    // worked out the first time someone asks so nobody else pays for them
+    private volatile Map<Pair, BoundaryDistance> forwardDistances;
+    private volatile Map<Pair, BoundaryDistance> backwardDistances;
     private final BigramModel model;
 
     public MemoryBigrammerStorage(BigramModel model) {
         this.model = model;
-        this.wordIndexMap = calculateWordIndices();
+        this.vocabulary = new Vocabulary(model.getFullWordList());
+        this.locationStarts = new int[vocabulary.size() + 1];
+        this.locations = new int[model.getFullWordList().size()];
+        calculateWordIndices();
+        this.startLocations = calculateStartLocations();
     }
 
     @Override
@@ -28,9 +47,43 @@ public class MemoryBigrammerStorage implements BigrammerStorage {
         return model.getFullWordList().get(index);
     }
 
+    @Override
+    public Integer sampleStartLocation(Random random) {
+        if (startLocations.length == 0) {
+            return null;
+        }
+        return startLocations[random.nextInt(startLocations.length)];
+    }
+
     @Override
     public List<Integer> getAllPossibleLocations(String word) {
-        return wordIndexMap.get(word);
+        int id = vocabulary.getId(word);
+        if (id == Vocabulary.NOT_FOUND) {
+            return null;
+        }
+        List<Integer> found = new ArrayList<>(locationStarts[id + 1] - locationStarts[id]);
+        for (int i = locationStarts[id]; i < locationStarts[id + 1]; i++) {
+            found.add(locations[i]);
+        }
+        return found;
+    }
+
+    @Override
+    public Integer sampleLocation(String word, Random random) {
+        int id = vocabulary.getId(word);
+        if (id == Vocabulary.NOT_FOUND) {
+            return null;
+        }
+        return locations[locationStarts[id] + random.nextInt(locationStarts[id + 1] - locationStarts[id])];
+    }
+
+    @Override
+    public Set<String> getVocabulary() {
+        Set<String> words = new HashSet<>();
+        for (int id = 0; id < vocabulary.size(); id++) {
+            words.add(vocabulary.getWord(id));
+        }
+        return words;
     }
 
     @Override
@@ -48,19 +101,66 @@ public class MemoryBigrammerStorage implements BigrammerStorage {
         return model.getBackwardCache().get(key);
     }
 
-    private Map<String, List<Integer>> calculateWordIndices() {
-        Map<String, List<Integer>> wordIndexMap = new HashMap<>();
+    @Override
+    public BoundaryDistance getForwardBoundaryDistance(Pair key) {
+        Map<Pair, BoundaryDistance> distances = forwardDistances;
+        if (distances == null) {
+            synchronized (this) {
+                distances = forwardDistances;
+                if (distances == null) {
+                    distances = BoundaryDistances.forChain(model.getForwardCache(), model.getBackwardCache(), false);
+                    forwardDistances = distances;
+                }
+            }
+        }
+        return distances.get(key);
+    }
 
-        // make a list of the indices at which a given word appears
-        for (int i = 0; i < model.getFullWordList().size(); i++) {
-            String word = model.getFullWordList().get(i);
-            if (!wordIndexMap.containsKey(word)) {
-                wordIndexMap.put(word, new ArrayList<>());
+    @Override
+    public BoundaryDistance getBackwardBoundaryDistance(Pair key) {
+        Map<Pair, BoundaryDistance> distances = backwardDistances;
+        if (distances == null) {
+            synchronized (this) {
+                distances = backwardDistances;
+                if (distances == null) {
+                    distances = BoundaryDistances.forChain(model.getBackwardCache(), model.getForwardCache(), true);
+                    backwardDistances = distances;
+                }
             }
-            wordIndexMap.get(word).add(i);
+        }
+        return distances.get(key);
+    }
+
+    private void calculateWordIndices() {
+        List<String> fullWordList = model.getFullWordList();
+        int[] wordIds = new int[fullWordList.size()];
+
+        // count how many times each word appears, which says where its locations start
+        for (int i = 0; i < fullWordList.size(); i++) {
+            wordIds[i] = vocabulary.getId(fullWordList.get(i));
+            locationStarts[wordIds[i] + 1]++;
             // DELIM could be removed here if space is a concern
         }
+        for (int id = 1; id < locationStarts.length; id++) {
+            locationStarts[id] += locationStarts[id - 1];
+        }
 
-        return wordIndexMap;
+        // then make a list of the indices at which a given word appears
+        int[] next = Arrays.copyOf(locationStarts, vocabulary.size());
+        for (int i = 0; i < wordIds.length; i++) {
+            locations[next[wordIds[i]]++] = i;
+        }
+    }
+
+    private int[] calculateStartLocations() {
+        List<String> fullWordList = model.getFullWordList();
+        int[] starts = new int[fullWordList.size()];
+        int count = 0;
+        for (int i = 0; i < fullWordList.size() - 1; i++) {
+            if (!fullWordList.get(i).equals(DELIM) && !fullWordList.get(i + 1).equals(DELIM)) {
+                starts[count++] = i;
+            }
+        }
+        return Arrays.copyOf(starts, count);
     }
 }
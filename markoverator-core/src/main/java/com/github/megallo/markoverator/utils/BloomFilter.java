@@ -0,0 +1,109 @@
+package com.github.megallo.markoverator.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Set membership that fits in memory for models that don't. It can say something
+ * might be in the set when it isn't, but never the other way around, so a miss
+ * means we can skip the lookup entirely.
+ */
+public class BloomFilter {
+
+    private final long[] bits;
+    private final long numBits;
+    private final int numHashes;
+
+    /**
+     * @param expectedItems     how many items will be added
+     * @param falsePositiveRate how often mightContain() may say yes for something that was never added
+     */
+    public BloomFilter(long expectedItems, double falsePositiveRate) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("False positive rate must be between 0 and 1: " + falsePositiveRate);
+        }
+        long items = Math.max(1, expectedItems);
+        long wanted = (long) Math.ceil(-items * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+
+        this.bits = new long[(int) ((Math.max(64, wanted) + 63) / 64)];
+        this.numBits = bits.length * 64L;
+        this.numHashes = Math.max(1, (int) Math.round((double) numBits / items * Math.log(2)));
+    }
+
+    private BloomFilter(long[] bits, int numHashes) {
+        this.bits = bits;
+        this.numBits = bits.length * 64L;
+        this.numHashes = numHashes;
+    }
+
+    public void add(long item) {
+        long hash = mix(item);
+        long hash2 = mix(hash);
+        for (int i = 0; i < numHashes; i++) {
+            long bit = Long.remainderUnsigned(hash + i * hash2, numBits);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    public void add(String item) {
+        add(hash(item));
+    }
+
+    /**
+     * @return false if the item was definitely never added, true if it probably was
+     */
+    public boolean mightContain(long item) {
+        long hash = mix(item);
+        long hash2 = mix(hash);
+        for (int i = 0; i < numHashes; i++) {
+            long bit = Long.remainderUnsigned(hash + i * hash2, numBits);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean mightContain(String item) {
+        return mightContain(hash(item));
+    }
+
+    public byte[] toBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + bits.length * 8);
+        buffer.putInt(numHashes).putInt(bits.length);
+        buffer.asLongBuffer().put(bits);
+        return buffer.array();
+    }
+
+    public static BloomFilter fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int numHashes = buffer.getInt();
+        long[] bits = new long[buffer.getInt()];
+        buffer.asLongBuffer().get(bits);
+        return new BloomFilter(bits, numHashes);
+    }
+
+    /**
+     * 64 bit FNV-1a over the UTF-8 bytes, since String.hashCode() only gives us 32 bits to work with
+     */
+    private static long hash(String item) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : item.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Spread the bits around so that similar items end up far apart (MurmurHash3 finalizer)
+     */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,103 @@
+package com.github.megallo.markoverator.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded queue that any number of threads can offer to and poll from without locks.
+ *
+ * Every slot has a sequence number saying whose turn it is: the producer that will fill it next,
+ * or the consumer that will empty it next. A thread claims a turn with one compare-and-set on
+ * the head or tail, and nobody ever waits on anybody else.
+ */
+public class RingBuffer<T> {
+
+    private final AtomicReferenceArray<T> slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(); // the next position to poll
+    private final AtomicLong tail = new AtomicLong(); // the next position to offer to
+
+    /**
+     * @param capacity how many items it can hold, rounded up to a power of two
+     */
+    public RingBuffer(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^30: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return false if it's full
+     */
+    public boolean offer(T item) {
+        if (item == null) {
+            throw new NullPointerException("Can't hold nulls, poll() uses them for empty");
+        }
+        long position = tail.get();
+        int index;
+        while (true) {
+            index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (difference < 0) {
+                return false; // the consumer from a lap ago hasn't emptied it yet
+            }
+            position = tail.get();
+        }
+        slots.set(index, item);
+        sequences.set(index, position + 1); // now it's the consumer's turn
+        return true;
+    }
+
+    /**
+     * @return the oldest item, or null if it's empty
+     */
+    public T poll() {
+        long position = head.get();
+        int index;
+        while (true) {
+            index = (int) position & mask;
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (difference < 0) {
+                return null; // nobody has filled it yet
+            }
+            position = head.get();
+        }
+        T item = slots.get(index);
+        slots.set(index, null);
+        sequences.set(index, position + mask + 1); // the producer's turn, one lap later
+        return item;
+    }
+
+    /**
+     * @return about how many items are in it, exact unless other threads are busy with it
+     */
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, getCapacity()));
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+}
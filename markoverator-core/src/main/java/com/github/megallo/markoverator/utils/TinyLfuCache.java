@@ -0,0 +1,365 @@
+package com.github.megallo.markoverator.utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * A size bounded cache that keeps whatever gets asked for most often, using W-TinyLFU.
+ *
+ * New entries land in a small LRU window. When they fall out of it they have to beat the
+ * least recently used entry of the main area on access frequency to stay, so a burst of
+ * one-off lookups can't push out the entries that get hit all the time. Frequencies come
+ * from a count-min sketch that gets halved every so often, so old popularity fades.
+ *
+ * Lookups go straight to a ConcurrentHashMap. Keeping track of recency and frequency is
+ * done under a lock, and a hit or miss that would have to wait for that lock just skips it.
+ */
+public class TinyLfuCache<K, V> {
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+    private static final int EVICTED = 3;
+
+    private final ConcurrentHashMap<K, Node<K, V>> data = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final ToIntFunction<V> weigher;
+    private final long maxWeight;
+    private final long maxWindowWeight;
+    private final long maxProtectedWeight;
+
+    // everything below is guarded by lock
+    private final AccessOrder<K, V> window = new AccessOrder<>();
+    private final AccessOrder<K, V> probation = new AccessOrder<>();
+    private final AccessOrder<K, V> protectedArea = new AccessOrder<>();
+    private final FrequencySketch sketch;
+    private long weight = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxWeight the most total weight the cache will hold
+     * @param weigher   how much room a value takes up, at least 1
+     */
+    public TinyLfuCache(long maxWeight, ToIntFunction<V> weigher) {
+        if (maxWeight < 1) {
+            throw new IllegalArgumentException("Max weight must be positive: " + maxWeight);
+        }
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.maxWindowWeight = Math.max(1, maxWeight / 100);
+        this.maxProtectedWeight = (maxWeight - maxWindowWeight) * 8 / 10;
+        this.sketch = new FrequencySketch((int) Math.min(maxWeight, 1 << 20));
+    }
+
+    /**
+     * @return the cached value, or null if there isn't one
+     */
+    public V getIfPresent(K key) {
+        Node<K, V> node = data.get(key);
+        if (node == null) {
+            misses.increment();
+            recordMiss(key);
+            return null;
+        }
+        hits.increment();
+        recordHit(node);
+        return node.value;
+    }
+
+    /**
+     * Return the cached value, or load it and cache it if there isn't one.
+     * Two threads missing on the same key at once may both load it.
+     *
+     * @param loader must not return null
+     */
+    public V get(K key, Function<K, V> loader) {
+        V value = getIfPresent(key);
+        if (value != null) {
+            return value;
+        }
+        return putIfAbsent(key, loader.apply(key));
+    }
+
+    /**
+     * @return the value now cached for the key, which is the existing one if somebody beat us to it
+     */
+    public V putIfAbsent(K key, V value) {
+        Node<K, V> node = new Node<>(key, value, Math.max(1, weigher.applyAsInt(value)));
+        lock.lock();
+        try {
+            Node<K, V> existing = data.putIfAbsent(key, node);
+            if (existing != null) {
+                return existing.value;
+            }
+            node.queue = WINDOW;
+            window.addLast(node);
+            weight += node.weight;
+            evict();
+        } finally {
+            lock.unlock();
+        }
+        return value;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return how many entries are cached right now
+     */
+    public int size() {
+        return data.size();
+    }
+
+    /**
+     * @return the total weight of everything cached right now
+     */
+    public long getWeight() {
+        lock.lock();
+        try {
+            return weight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void recordMiss(K key) {
+        if (!lock.tryLock()) {
+            return; // same as a hit, the count is only a guess anyway
+        }
+        try {
+            sketch.increment(key.hashCode());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void recordHit(Node<K, V> node) {
+        if (!lock.tryLock()) {
+            return; // somebody else is busy with it, losing a little accuracy beats waiting
+        }
+        try {
+            sketch.increment(node.key.hashCode());
+            switch (node.queue) {
+                case WINDOW:
+                    window.moveToLast(node);
+                    break;
+                case PROBATION:
+                    // hit again after getting in, it has earned a spot in the protected area
+                    probation.remove(node);
+                    node.queue = PROTECTED;
+                    protectedArea.addLast(node);
+                    demoteProtected();
+                    break;
+                case PROTECTED:
+                    protectedArea.moveToLast(node);
+                    break;
+                default:
+                    break; // evicted while we were waiting
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void demoteProtected() {
+        while (protectedArea.weight > maxProtectedWeight) {
+            Node<K, V> demoted = protectedArea.removeFirst();
+            demoted.queue = PROBATION;
+            probation.addLast(demoted);
+        }
+    }
+
+    private void evict() {
+        // whatever falls out of the window becomes a candidate at the end of probation
+        while (window.weight > maxWindowWeight && window.first() != null) {
+            Node<K, V> candidate = window.removeFirst();
+            candidate.queue = PROBATION;
+            probation.addLast(candidate);
+        }
+
+        while (weight > maxWeight) {
+            Node<K, V> victim = probation.first();
+            Node<K, V> candidate = probation.last();
+            if (victim == null) {
+                // nothing on probation, take the oldest from wherever there's something left
+                evictNode(protectedArea.first() != null ? protectedArea.first() : window.first());
+            } else if (victim == candidate) {
+                evictNode(victim);
+            } else if (sketch.frequency(candidate.key.hashCode()) > sketch.frequency(victim.key.hashCode())) {
+                evictNode(victim);
+            } else {
+                evictNode(candidate);
+            }
+        }
+    }
+
+    private void evictNode(Node<K, V> node) {
+        switch (node.queue) {
+            case WINDOW:
+                window.remove(node);
+                break;
+            case PROBATION:
+                probation.remove(node);
+                break;
+            case PROTECTED:
+                protectedArea.remove(node);
+                break;
+            default:
+                return;
+        }
+        node.queue = EVICTED;
+        weight -= node.weight;
+        data.remove(node.key, node);
+        evictions.increment();
+    }
+
+    private static final class Node<K, V> {
+        final K key;
+        final V value;
+        final int weight;
+        int queue;
+        Node<K, V> previous;
+        Node<K, V> next;
+
+        Node(K key, V value, int weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Doubly linked list from least to most recently used
+     */
+    private static final class AccessOrder<K, V> {
+        private Node<K, V> head;
+        private Node<K, V> tail;
+        long weight = 0;
+
+        Node<K, V> first() {
+            return head;
+        }
+
+        Node<K, V> last() {
+            return tail;
+        }
+
+        void addLast(Node<K, V> node) {
+            node.previous = tail;
+            node.next = null;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+            weight += node.weight;
+        }
+
+        void remove(Node<K, V> node) {
+            if (node.previous == null) {
+                head = node.next;
+            } else {
+                node.previous.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.previous;
+            } else {
+                node.next.previous = node.previous;
+            }
+            node.previous = null;
+            node.next = null;
+            weight -= node.weight;
+        }
+
+        Node<K, V> removeFirst() {
+            Node<K, V> node = head;
+            remove(node);
+            return node;
+        }
+
+        void moveToLast(Node<K, V> node) {
+            if (node != tail) {
+                remove(node);
+                addLast(node);
+            }
+        }
+    }
+
+    /**
+     * Count-min sketch of 4 bit counters, four rows packed into one table of longs.
+     * Once enough increments have gone by every counter gets halved.
+     */
+    private static final class FrequencySketch {
+        private static final long[] SEEDS = {
+                0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+        private final long[] table;
+        private final int resetAfter;
+        private int additions = 0;
+
+        FrequencySketch(int expectedEntries) {
+            int length = Integer.highestOneBit(Math.max(16, expectedEntries) - 1) << 1;
+            this.table = new long[length];
+            this.resetAfter = 10 * length;
+        }
+
+        int frequency(int hashCode) {
+            int frequency = 15;
+            for (int i = 0; i < SEEDS.length; i++) {
+                long hash = spread(hashCode, i);
+                frequency = Math.min(frequency, (int) ((table[index(hash)] >>> offset(hash)) & 15));
+            }
+            return frequency;
+        }
+
+        void increment(int hashCode) {
+            boolean added = false;
+            for (int i = 0; i < SEEDS.length; i++) {
+                long hash = spread(hashCode, i);
+                int index = index(hash);
+                int offset = offset(hash);
+                if (((table[index] >>> offset) & 15) < 15) {
+                    table[index] += 1L << offset;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= resetAfter) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+                }
+                additions /= 2;
+            }
+        }
+
+        private static long spread(int hashCode, int row) {
+            long hash = (hashCode + SEEDS[row]) * SEEDS[(row + 1) & 3];
+            return hash ^ (hash >>> 29);
+        }
+
+        private int index(long hash) {
+            return (int) (hash >>> 32) & (table.length - 1);
+        }
+
+        private static int offset(long hash) {
+            return ((int) hash & 15) << 2;
+        }
+    }
+}
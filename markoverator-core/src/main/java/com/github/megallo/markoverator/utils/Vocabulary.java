@@ -0,0 +1,135 @@
+package com.github.megallo.markoverator.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashSet;
+
+/**
+ * A fixed set of words, each with an id from 0 to size() - 1, packed into one UTF-8 byte
+ * array instead of a String apiece. Ids follow the sorted order of the bytes, so finding
+ * a word's id is a binary search, and Strings only get made when somebody asks for one.
+ */
+public class Vocabulary {
+
+    public static final int NOT_FOUND = -1;
+
+    private final byte[] bytes;
+    private final int[] offsets;
+
+    /**
+     * @param words the words to keep, duplicates are fine
+     */
+    public Vocabulary(Collection<String> words) {
+        byte[][] encoded = new HashSet<>(words).stream()
+                .map(word -> word.getBytes(StandardCharsets.UTF_8))
+                .sorted(Vocabulary::compare)
+                .toArray(byte[][]::new);
+
+        long totalBytes = 0;
+        for (byte[] word : encoded) {
+            totalBytes += word.length;
+        }
+        if (totalBytes > Integer.MAX_VALUE) {
+            throw new RuntimeException("Vocabulary is too big to pack: " + totalBytes + " bytes");
+        }
+
+        this.bytes = new byte[(int) totalBytes];
+        this.offsets = new int[encoded.length + 1];
+        int offset = 0;
+        for (int id = 0; id < encoded.length; id++) {
+            offsets[id] = offset;
+            System.arraycopy(encoded[id], 0, bytes, offset, encoded[id].length);
+            offset += encoded[id].length;
+        }
+        offsets[encoded.length] = offset;
+    }
+
+    private Vocabulary(byte[] bytes, int[] offsets) {
+        this.bytes = bytes;
+        this.offsets = offsets;
+    }
+
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    public boolean contains(String word) {
+        return getId(word) != NOT_FOUND;
+    }
+
+    /**
+     * @return the id of the word, or NOT_FOUND if it isn't one of ours
+     */
+    public int getId(String word) {
+        byte[] wanted = word.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compare(middle, wanted);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * @param id from 0 to size() - 1
+     */
+    public String getWord(int id) {
+        return new String(bytes, offsets[id], offsets[id + 1] - offsets[id], StandardCharsets.UTF_8);
+    }
+
+    public byte[] toBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + offsets.length * 4 + bytes.length);
+        buffer.putInt(offsets.length).putInt(bytes.length);
+        buffer.asIntBuffer().put(offsets);
+        buffer.position(8 + offsets.length * 4);
+        buffer.put(bytes);
+        return buffer.array();
+    }
+
+    public static Vocabulary fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int[] offsets = new int[buffer.getInt()];
+        byte[] words = new byte[buffer.getInt()];
+        buffer.asIntBuffer().get(offsets);
+        buffer.position(8 + offsets.length * 4);
+        buffer.get(words);
+        return new Vocabulary(words, offsets);
+    }
+
+    /**
+     * Compare the word with the given id to some UTF-8 bytes, the same way the ids were sorted
+     */
+    private int compare(int id, byte[] other) {
+        int start = offsets[id];
+        int length = offsets[id + 1] - start;
+        for (int i = 0; i < Math.min(length, other.length); i++) {
+            int difference = (bytes[start + i] & 0xff) - (other[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return length - other.length;
+    }
+
+    /**
+     * Unsigned byte order, which for UTF-8 is the same as code point order
+     */
+    private static int compare(byte[] one, byte[] two) {
+        for (int i = 0; i < Math.min(one.length, two.length); i++) {
+            int difference = (one[i] & 0xff) - (two[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return one.length - two.length;
+    }
+}
@@ -0,0 +1,91 @@
+package com.github.megallo.markoverator.bigrammer;
+
+import com.github.megallo.markoverator.storage.ExecutorAsyncBigrammerStorage;
+import com.github.megallo.markoverator.storage.MemoryBigrammerStorage;
+import com.github.megallo.markoverator.utils.Lists;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+public class AsyncBigrammerTest {
+
+    private static ExecutorService executor;
+    private static AsyncBigrammer bigrammer;
+
+    @BeforeClass
+    public static void setup() {
+        BigramModel model = BigramModelBuilder.buildModel(Arrays.asList(
+                Arrays.asList("howdy", "y'all", ".", "How", "are", "ya", "?"),
+                Arrays.asList(",", "howdy", "pardner"),
+                Arrays.asList("keep", "yer", "!", "boots", "on"),
+                Arrays.asList(".", "I", "reckon")
+        ));
+        executor = ExecutorAsyncBigrammerStorage.newIoExecutor(2, 100);
+        bigrammer = new AsyncBigrammer(new ExecutorAsyncBigrammerStorage(new MemoryBigrammerStorage(model), executor));
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void testSameSentencesAsBigrammer() {
+        List<String> expected = Lists.newArrayList("howdy", "y'all", ".", "How", "are", "ya", "?");
+        Assert.assertEquals(expected, bigrammer.generateRandom("How", "are").join());
+
+        expected = Lists.newArrayList("howdy", "pardner");
+        Assert.assertEquals(expected, bigrammer.generateRandom("pardner").join());
+
+        expected = Lists.newArrayList("How", "are", "ya", "?");
+        Assert.assertEquals(expected, bigrammer.generateRandomForwards("How").join());
+
+        expected = Lists.newArrayList("keep", "yer", "!", "boots", "on");
+        Assert.assertEquals(expected, bigrammer.generateRandomBackwards("on", 4, 8).join());
+
+        Assert.assertEquals(Lists.newArrayList(), bigrammer.generateRandomBackwards("pardner", 4, 8).join());
+        Assert.assertFalse(bigrammer.generateRandom().join().isEmpty());
+    }
+
+    @Test
+    public void testLengthConstrainedBackwards() {
+        // "nice boots" can go back to the start of a sentence right away, or the long way around
+        AsyncBigrammer constrained = new AsyncBigrammer(new ExecutorAsyncBigrammerStorage(new MemoryBigrammerStorage(
+                BigramModelBuilder.buildModel(Arrays.asList(
+                        Arrays.asList("nice", "boots"),
+                        Arrays.asList("I", "really", "like", "your", "nice", "boots")
+                ))), executor));
+
+        List<String> expected = Lists.newArrayList("I", "really", "like", "your", "nice", "boots");
+        for (int i = 0; i < 50; i++) {
+            Assert.assertEquals(expected, constrained.generateRandomBackwards("boots", 5, 8).join());
+        }
+
+        // one "boots" starts a sentence, so landing there means looking for another one
+        constrained = new AsyncBigrammer(new ExecutorAsyncBigrammerStorage(new MemoryBigrammerStorage(
+                BigramModelBuilder.buildModel(Arrays.asList(
+                        Arrays.asList("boots", "on"),
+                        Arrays.asList("I", "like", "your", "boots"),
+                        Arrays.asList("I", "like", "your", "boots"),
+                        Arrays.asList("I", "like", "your", "boots")
+                ))), executor));
+
+        expected = Lists.newArrayList("I", "like", "your", "boots");
+        for (int i = 0; i < 20; i++) {
+            Assert.assertEquals(expected, constrained.generateRandomBackwards("boots", 3, 8).join());
+        }
+    }
+
+    @Test
+    public void testNotInModel() {
+        Assert.assertNull(bigrammer.generateRandom("asdfpoiu123456789||Dffesd").join());
+        Assert.assertNull(bigrammer.generateRandom("howdy", "asdfpoiu123456789||Dffesd").join());
+        Assert.assertNull(bigrammer.generateRandomForwards("asdfpoiu123456789||Dffesd").join());
+        Assert.assertNull(bigrammer.generateRandomBackwards("asdfpoiu123456789||Dffesd").join());
+    }
+}
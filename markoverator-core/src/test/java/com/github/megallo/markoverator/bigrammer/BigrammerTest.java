@@ -16,14 +16,20 @@
 
 package com.github.megallo.markoverator.bigrammer;
 
+import com.github.megallo.markoverator.storage.BigrammerStorage;
 import com.github.megallo.markoverator.storage.MemoryBigrammerStorage;
 import com.github.megallo.markoverator.utils.Lists;
+import com.github.megallo.markoverator.utils.Pair;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.github.megallo.markoverator.bigrammer.Bigrammer.DELIM;
 
@@ -65,6 +71,20 @@ public class BigrammerTest {
         Assert.assertEquals(expected, generated);
     }
 
+    @Test
+    public void testBatchKnownPairGeneration() {
+        List<List<String>> generated = bigrammer.generatePhrasesWithKnownPairs(Arrays.asList(
+                new Pair("How", "are"), new Pair("howdy", "pardner"), new Pair(".", "I"), new Pair("?", DELIM)));
+
+        Assert.assertEquals(4, generated.size());
+        Assert.assertEquals(Lists.newArrayList("howdy", "y'all", ".", "How", "are", "ya", "?"), generated.get(0));
+        Assert.assertEquals(Lists.newArrayList("howdy", "pardner"), generated.get(1));
+        Assert.assertEquals(Lists.newArrayList("I", "reckon"), generated.get(2));
+        Assert.assertEquals(Lists.newArrayList("howdy", "y'all", ".", "How", "are", "ya", "?"), generated.get(3));
+
+        Assert.assertEquals(10, bigrammer.generateRandom(10).size());
+    }
+
     @Test
     public void testRandomGeneration() {
         List<String> expected = Lists.newArrayList("howdy", "pardner");
@@ -193,6 +213,42 @@ public class BigrammerTest {
         Assert.assertEquals(expected, back);
     }
 
+    @Test
+    public void testBackwardsGenerationKeepsWeights() {
+        // "sat down" comes after "cat" nine times and "dog" once, and either one fits
+        List<List<String>> sentences = new ArrayList<>();
+        for (int i = 0; i < 9; i++) {
+            sentences.add(Arrays.asList("cat", "sat", "down"));
+        }
+        sentences.add(Arrays.asList("dog", "sat", "down"));
+        AtomicInteger listReads = new AtomicInteger();
+        Bigrammer weighted = new Bigrammer(new MemoryBigrammerStorage(BigramModelBuilder.buildModel(sentences)) {
+            @Override
+            public List<String> getBackwardWordList(Pair key) {
+                listReads.incrementAndGet();
+                return super.getBackwardWordList(key);
+            }
+
+            @Override
+            public String sampleBackward(Pair key, Random random) {
+                // straight from the model, so it doesn't count as reading the list
+                return BigrammerStorage.sample(super.getBackwardWordList(key), random);
+            }
+        });
+
+        int cats = 0;
+        for (int i = 0; i < 1000; i++) {
+            List<String> back = weighted.generateBackwardText("sat", "down", 3, 5);
+            Assert.assertEquals(3, back.size());
+            if (back.get(0).equals("cat")) {
+                cats++;
+            }
+        }
+        Assert.assertTrue("cat picked " + cats + " times", cats > 850 && cats < 950);
+        // every pick fit, so nothing had to go through the whole list
+        Assert.assertEquals(0, listReads.get());
+    }
+
     @Test
     public void testBackwardsGenerationWordCount() {
         List<String> expected = Lists.newArrayList("howdy", "y'all", ".", "How", "are");
@@ -254,4 +310,55 @@ public class BigrammerTest {
         Assert.assertFalse(bigrammer.isDecentEndingWord(nope4));
     }
 
+    @Test
+    public void testLengthConstrainedBackwards() {
+        // "nice boots" can go back to the start of a sentence right away, or the long way around
+        Bigrammer constrained = new Bigrammer(new MemoryBigrammerStorage(BigramModelBuilder.buildModel(Arrays.asList(
+                Arrays.asList("nice", "boots"),
+                Arrays.asList("I", "really", "like", "your", "nice", "boots")
+        ))));
+
+        List<String> expected = Lists.newArrayList("I", "really", "like", "your", "nice", "boots");
+        for (int i = 0; i < 50; i++) {
+            Assert.assertEquals(expected, constrained.generateRandomBackwards("boots", 5, 8));
+        }
+    }
+
+    @Test
+    public void testBudgetedGeneration() {
+        // plenty of steps is the same as no budget at all
+        GenerationResult result = bigrammer.generateRandom("pardner", new GenerationBudget(100));
+        Assert.assertEquals(GenerationResult.Status.COMPLETE, result.getStatus());
+        Assert.assertEquals(Lists.newArrayList("howdy", "pardner"), result.getWords());
+
+        // "How are" takes four steps back, counting the one that finds DELIM, and two forward
+        GenerationBudget budget = new GenerationBudget(5);
+        result = bigrammer.generatePhraseWithKnownPair("How", "are", budget);
+        Assert.assertEquals(GenerationResult.Status.OUT_OF_BUDGET, result.getStatus());
+        Assert.assertEquals(Lists.newArrayList("howdy", "y'all", ".", "How", "are", "ya"), result.getWords());
+        Assert.assertTrue(budget.isExhausted());
+
+        // no steps at all still gets the seed words back
+        result = bigrammer.generatePhraseWithKnownPair("How", "are", new GenerationBudget(0));
+        Assert.assertFalse(result.isComplete());
+        Assert.assertEquals(Lists.newArrayList("How", "are"), result.getWords());
+
+        Assert.assertNull(bigrammer.generateRandom("WHATEVER", new GenerationBudget(100)));
+    }
+
+    @Test
+    public void testBudgetedBackwards() {
+        GenerationResult result = bigrammer.generateRandomBackwards("on", 4, 8, new GenerationBudget(100));
+        Assert.assertEquals(GenerationResult.Status.COMPLETE, result.getStatus());
+        Assert.assertEquals(Lists.newArrayList("keep", "yer", "!", "boots", "on"), result.getWords());
+
+        // "howdy pardner" is never going to be four words long, so it tries until the time is up
+        long start = System.nanoTime();
+        result = bigrammer.generateRandomBackwards("pardner", 4, 8, new GenerationBudget(20, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        Assert.assertEquals(GenerationResult.Status.OUT_OF_BUDGET, result.getStatus());
+        Assert.assertEquals(Lists.newArrayList("howdy", "pardner"), result.getWords());
+
+        Assert.assertNull(bigrammer.generateRandomBackwards("WHATEVER", 4, 8, new GenerationBudget(100)));
+    }
 }
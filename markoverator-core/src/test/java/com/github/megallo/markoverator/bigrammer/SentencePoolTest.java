@@ -0,0 +1,90 @@
+package com.github.megallo.markoverator.bigrammer;
+
+import com.github.megallo.markoverator.storage.MemoryBigrammerStorage;
+import com.github.megallo.markoverator.utils.Lists;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class SentencePoolTest {
+
+    private static Bigrammer bigrammer;
+
+    @BeforeClass
+    public static void setup() {
+        BigramModel model = BigramModelBuilder.buildModel(Arrays.asList(
+                Arrays.asList("howdy", "y'all", ".", "How", "are", "ya", "?"),
+                Arrays.asList(",", "howdy", "pardner"),
+                Arrays.asList("keep", "yer", "!", "boots", "on")
+        ));
+        bigrammer = new Bigrammer(new MemoryBigrammerStorage(model));
+    }
+
+    @Test
+    public void testRefillsBelowLowWatermark() {
+        List<Runnable> refills = new ArrayList<>();
+        SentencePool pool = new SentencePool(bigrammer, refills::add, 4);
+        pool.addSeedWord("pardner");
+        Assert.assertEquals(2, refills.size()); // one for random, one for pardner
+        runAll(refills);
+        Assert.assertEquals(4, pool.getReadyCount());
+        Assert.assertEquals(4, pool.getReadyCount("pardner"));
+
+        // taking down to the watermark of 2 doesn't ask for more
+        Assert.assertEquals(Lists.newArrayList("howdy", "pardner"), pool.generateRandom("pardner"));
+        Assert.assertEquals(Lists.newArrayList("howdy", "pardner"), pool.generateRandom("pardner"));
+        Assert.assertTrue(refills.isEmpty());
+        Assert.assertEquals(2, pool.getReadyCount("pardner"));
+
+        // going under it does, and only once
+        pool.generateRandom("pardner");
+        pool.generateRandom("pardner");
+        Assert.assertEquals(1, refills.size());
+        runAll(refills);
+        Assert.assertEquals(4, pool.getReadyCount("pardner"));
+        Assert.assertEquals(4, pool.getReadyCount());
+    }
+
+    @Test
+    public void testEmptyPoolGeneratesInline() {
+        List<Runnable> refills = new ArrayList<>();
+        SentencePool pool = new SentencePool(bigrammer, refills::add, 4);
+        pool.addSeedWord("pardner");
+
+        // nothing has been refilled yet
+        Assert.assertEquals(Lists.newArrayList("howdy", "pardner"), pool.generateRandom("pardner"));
+        Assert.assertFalse(pool.generateRandom().isEmpty());
+        Assert.assertEquals(Lists.newArrayList("howdy", "y'all", ".", "How", "are", "ya", "?"), pool.generateRandom("How"));
+
+        pool.addSeedWord("WHATEVER");
+        runAll(refills);
+        Assert.assertEquals(0, pool.getReadyCount("WHATEVER"));
+        Assert.assertNull(pool.generateRandom("WHATEVER"));
+        Assert.assertTrue(refills.isEmpty()); // it knows there's nothing to keep
+    }
+
+    @Test
+    public void testStaleSentencesThrownAway() throws InterruptedException {
+        List<Runnable> refills = new ArrayList<>();
+        SentencePool pool = new SentencePool(bigrammer, refills::add, 4);
+        runAll(refills);
+        Assert.assertEquals(4, pool.getReadyCount());
+
+        pool.setMaxAge(1, TimeUnit.MILLISECONDS);
+        Thread.sleep(5);
+        Assert.assertFalse(pool.generateRandom().isEmpty());
+        Assert.assertEquals(0, pool.getReadyCount());
+        Assert.assertEquals(1, refills.size());
+    }
+
+    private static void runAll(List<Runnable> tasks) {
+        List<Runnable> running = new ArrayList<>(tasks);
+        tasks.clear();
+        running.forEach(Runnable::run);
+    }
+}
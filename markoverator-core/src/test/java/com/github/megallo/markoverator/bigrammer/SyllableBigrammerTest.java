@@ -0,0 +1,58 @@
+package com.github.megallo.markoverator.bigrammer;
+
+import com.github.megallo.markoverator.storage.MemoryBigrammerStorage;
+import com.github.megallo.markoverator.utils.Lists;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SyllableBigrammerTest {
+
+    private static SyllableBigrammer bigrammer;
+
+    @BeforeClass
+    public static void setup() {
+        Map<String, Integer> syllables = new HashMap<>();
+        for (String word : Arrays.asList("the", "old", "pond", "a", "frog", "jumps", "in", "sound", "oh")) {
+            syllables.put(word, 1);
+        }
+        syllables.put("water", 2);
+        syllables.put("quiet", 2);
+        syllables.put(",", 0);
+
+        bigrammer = new SyllableBigrammer(new MemoryBigrammerStorage(BigramModelBuilder.buildModel(Arrays.asList(
+                Arrays.asList("the", "old", "pond"),
+                Arrays.asList("the", "quiet", "pond"),
+                Arrays.asList("the", "ineffable", "pond"), // no idea how many syllables, so never used
+                Arrays.asList("a", "frog", "jumps", "in", "the", "pond"),
+                Arrays.asList("water", "sound", "in", "the", "pond"),
+                Arrays.asList("oh", ",", "pond")
+        ))), word -> syllables.getOrDefault(word, -1));
+    }
+
+    @Test
+    public void testExactSyllables() {
+        for (int i = 0; i < 20; i++) {
+            Assert.assertEquals(Lists.newArrayList("oh", ",", "pond"), bigrammer.generateRandomBackwards("pond", 2));
+            Assert.assertEquals(Lists.newArrayList("the", "old", "pond"), bigrammer.generateRandomBackwards("pond", 3));
+            Assert.assertEquals(Lists.newArrayList("the", "quiet", "pond"), bigrammer.generateRandomBackwards("pond", 4));
+
+            List<String> six = bigrammer.generateRandomBackwards("pond", 6);
+            Assert.assertTrue(six.toString(), six.equals(Lists.newArrayList("a", "frog", "jumps", "in", "the", "pond"))
+                    || six.equals(Lists.newArrayList("water", "sound", "in", "the", "pond")));
+        }
+    }
+
+    @Test
+    public void testNoSuchLine() {
+        Assert.assertTrue(bigrammer.generateRandomBackwards("pond", 5).isEmpty());
+        Assert.assertTrue(bigrammer.generateRandomBackwards("pond", 1).isEmpty());
+        Assert.assertTrue(bigrammer.generateRandomBackwards("ineffable", 3).isEmpty());
+        Assert.assertNull(bigrammer.generateRandomBackwards("nope", 3));
+    }
+}
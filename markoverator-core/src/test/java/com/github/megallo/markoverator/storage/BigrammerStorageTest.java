@@ -0,0 +1,94 @@
+package com.github.megallo.markoverator.storage;
+
+import com.github.megallo.markoverator.utils.Pair;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static com.github.megallo.markoverator.bigrammer.Bigrammer.DELIM;
+
+public class BigrammerStorageTest {
+
+    /**
+     * Just a word list, so everything else is left to the defaults
+     */
+    private static class WordListStorage implements BigrammerStorage {
+        private final List<String> words;
+
+        WordListStorage(String... words) {
+            this.words = Arrays.asList(words);
+        }
+
+        @Override
+        public int getFullWordListSize() {
+            return words.size();
+        }
+
+        @Override
+        public String getByIndex(int index) {
+            return words.get(index);
+        }
+
+        @Override
+        public List<Integer> getAllPossibleLocations(String word) {
+            return null;
+        }
+
+        @Override
+        public boolean containsForwardWordList(Pair wordPair) {
+            return false;
+        }
+
+        @Override
+        public List<String> getForwardWordList(Pair wordPair) {
+            return null;
+        }
+
+        @Override
+        public List<String> getBackwardWordList(Pair wordPair) {
+            return null;
+        }
+    }
+
+    @Test
+    public void testNoStartLocation() {
+        Random random = new Random(42);
+        Assert.assertNull(new WordListStorage().sampleStartLocation(random));
+        Assert.assertNull(new WordListStorage("howdy").sampleStartLocation(random));
+        Assert.assertNull(new WordListStorage(DELIM, "howdy", DELIM, "y'all", DELIM).sampleStartLocation(random));
+    }
+
+    @Test
+    public void testEveryStartLocationCanComeUp() {
+        Random random = new Random(42);
+        // the only one is right before the last word
+        Assert.assertEquals(Integer.valueOf(2), new WordListStorage("howdy", DELIM, "hi", "!").sampleStartLocation(random));
+
+        BigrammerStorage storage = new WordListStorage(DELIM, "howdy", "y'all", DELIM, "hi", "there", "!");
+        Set<Integer> seen = new HashSet<>();
+        for (int i = 0; i < 200; i++) {
+            seen.add(storage.sampleStartLocation(random));
+        }
+        Assert.assertEquals(new HashSet<>(Arrays.asList(1, 4, 5)), seen);
+    }
+
+    @Test
+    public void testRareStartLocation() {
+        // one start among lots of DELIMs, so the random guesses mostly miss
+        String[] words = new String[1000];
+        Arrays.fill(words, DELIM);
+        words[700] = "howdy";
+        words[701] = "y'all";
+        BigrammerStorage storage = new WordListStorage(words);
+
+        Random random = new Random(42);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(Integer.valueOf(700), storage.sampleStartLocation(random));
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.github.megallo.markoverator.storage;
+
+import com.github.megallo.markoverator.bigrammer.BigramModel;
+import com.github.megallo.markoverator.bigrammer.BigramModelBuilder;
+import com.github.megallo.markoverator.bigrammer.Bigrammer;
+import com.github.megallo.markoverator.utils.Pair;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class CachingBigrammerStorageTest {
+
+    // "yer !" comes after keep and on and before boots and horse, and "yer" is at 2 and 6
+    private static final BigramModel model = BigramModelBuilder.buildModel(Arrays.asList(
+            Arrays.asList("keep", "yer", "!", "boots", "on", "yer", "!", "horse")));
+
+    /**
+     * Counts what gets asked of it
+     */
+    private static class CountingStorage extends MemoryBigrammerStorage {
+        int lists = 0;
+        int samples = 0;
+
+        CountingStorage() {
+            super(model);
+        }
+
+        @Override
+        public List<Integer> getAllPossibleLocations(String word) {
+            lists++;
+            return super.getAllPossibleLocations(word);
+        }
+
+        @Override
+        public List<String> getForwardWordList(Pair key) {
+            lists++;
+            return super.getForwardWordList(key);
+        }
+
+        @Override
+        public List<String> getBackwardWordList(Pair key) {
+            lists++;
+            return super.getBackwardWordList(key);
+        }
+
+        @Override
+        public Integer sampleLocation(String word, Random random) {
+            samples++;
+            return super.sampleLocation(word, random);
+        }
+
+        @Override
+        public String sampleForward(Pair wordPair, Random random) {
+            samples++;
+            // straight from the model, so it doesn't count as reading a list
+            return BigrammerStorage.sample(super.getForwardWordList(wordPair), random);
+        }
+
+        @Override
+        public String sampleBackward(Pair wordPair, Random random) {
+            samples++;
+            // straight from the model, so it doesn't count as reading a list
+            return BigrammerStorage.sample(super.getBackwardWordList(wordPair), random);
+        }
+    }
+
+    @Test
+    public void testTooBigGoesToStorage() {
+        CountingStorage counting = new CountingStorage();
+        // every list here weighs at least 3, so none of them fit
+        CachingBigrammerStorage caching = new CachingBigrammerStorage(counting, 2);
+        Random random = new Random(42);
+
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(Arrays.asList("boots", "horse").contains(caching.sampleForward(new Pair("yer", "!"), random)));
+        }
+        // the list got read once to find out it's too big, and after that the storage picks
+        Assert.assertEquals(1, counting.lists);
+        Assert.assertEquals(9, counting.samples);
+
+        // too big to keep, so it gets loaded every time and never cached
+        caching.getForwardWordList(new Pair("yer", "!"));
+        caching.getForwardWordList(new Pair("yer", "!"));
+        Assert.assertEquals(3, counting.lists);
+        Assert.assertEquals(0, caching.getEvictionCount());
+    }
+
+    @Test
+    public void testSamplingHitsUseCachedList() {
+        CountingStorage counting = new CountingStorage();
+        CachingBigrammerStorage caching = new CachingBigrammerStorage(counting, 100);
+        Random random = new Random(42);
+
+        Assert.assertEquals(Arrays.asList(2, 6), caching.getAllPossibleLocations("yer"));
+        Assert.assertEquals(2, caching.getForwardWordList(new Pair("yer", "!")).size());
+        Assert.assertNull(caching.getBackwardWordList(new Pair("nope", "!")));
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(Arrays.asList(2, 6).contains(caching.sampleLocation("yer", random)));
+            Assert.assertTrue(Arrays.asList("boots", "horse").contains(caching.sampleForward(new Pair("yer", "!"), random)));
+            Assert.assertNull(caching.sampleBackward(new Pair("nope", "!"), random));
+        }
+        Assert.assertEquals(3, counting.lists);
+        Assert.assertEquals(0, counting.samples);
+    }
+
+    @Test
+    public void testSamplingMissesFillCache() {
+        CountingStorage counting = new CountingStorage();
+        CachingBigrammerStorage caching = new CachingBigrammerStorage(counting, 100);
+        Random random = new Random(42);
+
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(Arrays.asList("boots", "horse").contains(caching.sampleForward(new Pair("yer", "!"), random)));
+            Assert.assertTrue(Arrays.asList(2, 6).contains(caching.sampleLocation("yer", random)));
+            Assert.assertNull(caching.sampleBackward(new Pair("nope", "!"), random));
+        }
+        // read once on the first miss, picked from the cache after that
+        Assert.assertEquals(3, counting.lists);
+        Assert.assertEquals(0, counting.samples);
+        Assert.assertEquals(27, caching.getHitCount());
+    }
+
+    @Test
+    public void testGeneratingHitsCache() {
+        CachingBigrammerStorage caching = new CachingBigrammerStorage(new MemoryBigrammerStorage(model));
+        Bigrammer bigrammer = new Bigrammer(caching);
+        for (int i = 0; i < 100; i++) {
+            bigrammer.generateRandom("yer");
+            bigrammer.generateRandom();
+        }
+        // the model only has a handful of pairs, so nearly everything after the first few is a hit
+        Assert.assertTrue("hits " + caching.getHitCount() + ", misses " + caching.getMissCount(),
+                caching.getHitCount() > 10 * caching.getMissCount());
+    }
+}
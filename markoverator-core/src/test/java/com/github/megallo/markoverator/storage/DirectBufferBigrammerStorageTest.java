@@ -0,0 +1,179 @@
+package com.github.megallo.markoverator.storage;
+
+import com.github.megallo.markoverator.bigrammer.BigramModel;
+import com.github.megallo.markoverator.bigrammer.BigramModelBuilder;
+import com.github.megallo.markoverator.utils.Pair;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static com.github.megallo.markoverator.bigrammer.Bigrammer.DELIM;
+
+public class DirectBufferBigrammerStorageTest {
+
+    private static BigramModel model;
+    private static MemoryBigrammerStorage memory;
+    private static DirectBufferBigrammerStorage direct;
+
+    @BeforeClass
+    public static void setup() {
+        model = BigramModelBuilder.buildModel(Arrays.asList(
+                Arrays.asList("howdy", "y'all", ".", "How", "are", "ya", "?"),
+                Arrays.asList(",", "Howdy", "pardner", "howdy", "y'all"),
+                Arrays.asList("keep", "yer", "!", "boots", "on", "yer", "!", "horse"),
+                Arrays.asList(".", "I", "reckon", "café")
+        ));
+        memory = new MemoryBigrammerStorage(model);
+        direct = new DirectBufferBigrammerStorage(model);
+    }
+
+    @Test
+    public void testSameAsMemoryStorage() {
+        Assert.assertEquals(memory.getFullWordListSize(), direct.getFullWordListSize());
+        for (int i = 0; i < memory.getFullWordListSize(); i++) {
+            String word = memory.getByIndex(i);
+            Assert.assertEquals(word, direct.getByIndex(i));
+            Assert.assertEquals(memory.getAllPossibleLocations(word), direct.getAllPossibleLocations(word));
+        }
+
+        for (Pair pair : model.getForwardCache().keySet()) {
+            Assert.assertTrue(direct.containsForwardWordList(pair));
+            Assert.assertEquals(sorted(memory.getForwardWordList(pair)), sorted(direct.getForwardWordList(pair)));
+            Assert.assertEquals(memory.getForwardBoundaryDistance(pair).toString(), direct.getForwardBoundaryDistance(pair).toString());
+        }
+        for (Pair pair : model.getBackwardCache().keySet()) {
+            Assert.assertEquals(sorted(memory.getBackwardWordList(pair)), sorted(direct.getBackwardWordList(pair)));
+            Assert.assertEquals(memory.getBackwardBoundaryDistance(pair).toString(), direct.getBackwardBoundaryDistance(pair).toString());
+        }
+    }
+
+    @Test
+    public void testVocabulary() {
+        Set<String> words = new HashSet<>(model.getFullWordList());
+        // "how" is only in there as the lowercase version of "How"
+        Assert.assertFalse(words.contains("how"));
+        Assert.assertEquals(words, memory.getVocabulary());
+        Assert.assertEquals(words, direct.getVocabulary());
+
+        Set<String> beforeEndings = new HashSet<>();
+        List<String> fullWordList = model.getFullWordList();
+        for (int i = 1; i < fullWordList.size(); i++) {
+            if (Arrays.asList("!", ".").contains(fullWordList.get(i))) {
+                beforeEndings.add(fullWordList.get(i - 1));
+            }
+        }
+        List<String> endings = Arrays.asList("!", ".", "nope");
+        Assert.assertEquals(beforeEndings, memory.getWordsBefore(endings));
+        Assert.assertEquals(beforeEndings, direct.getWordsBefore(endings));
+    }
+
+    @Test
+    public void testPairsIgnoreCase() {
+        Assert.assertEquals(Arrays.asList("pardner"), direct.getForwardWordList(new Pair(",", "HOWDY")));
+        Assert.assertEquals(sorted(Arrays.asList(".", DELIM)), sorted(direct.getForwardWordList(new Pair("HOWDY", "Y'ALL"))));
+        Assert.assertEquals(Arrays.asList("How"), direct.getForwardWordList(new Pair("Y'ALL", ".")));
+        Assert.assertEquals(Arrays.asList("café"), direct.getForwardWordList(new Pair("i", "RECKON")));
+    }
+
+    @Test
+    public void testBoundaryDistances() {
+        // keep yer ! boots on yer ! horse: "yer !" can end after "boots on yer ! horse" or just "horse",
+        // or go around "boots on yer !" forever
+        BoundaryDistance distance = direct.getForwardBoundaryDistance(new Pair("yer", "!"));
+        Assert.assertEquals(1, distance.getMin());
+        Assert.assertEquals(BoundaryDistance.UNBOUNDED, distance.getMax());
+
+        // from "reckon café" back to the start of ". I reckon café", one word at a time
+        distance = direct.getBackwardBoundaryDistance(new Pair("reckon", "café"));
+        Assert.assertEquals(2, distance.getMin());
+        Assert.assertEquals(2, distance.getMax());
+
+        Assert.assertNull(direct.getBackwardBoundaryDistance(new Pair("boots", "howdy")));
+    }
+
+    @Test
+    public void testMissing() {
+        Assert.assertNull(direct.getAllPossibleLocations("nope"));
+        Assert.assertNull(direct.getAllPossibleLocations("how")); // only "How" is in there
+        Assert.assertNull(direct.sampleLocation("how", new Random()));
+        Assert.assertFalse(direct.containsForwardWordList(new Pair("howdy", "nope")));
+        Assert.assertNull(direct.getForwardWordList(new Pair("boots", "howdy")));
+        Assert.assertNull(direct.sampleBackward(new Pair("boots", "howdy"), new Random()));
+    }
+
+    @Test
+    public void testSampling() {
+        Random random = new Random(42);
+        int boots = 0;
+        for (int i = 0; i < 1000; i++) {
+            String next = direct.sampleForward(new Pair("keep", "yer"), random);
+            Assert.assertEquals("!", next);
+            if ("boots".equals(direct.sampleForward(new Pair("yer", "!"), random))) {
+                boots++;
+            }
+            Assert.assertTrue(direct.getAllPossibleLocations("yer").contains(direct.sampleLocation("yer", random)));
+        }
+        // boots and horse each follow "yer !" once
+        Assert.assertTrue("boots picked " + boots + " times", boots > 400 && boots < 600);
+    }
+
+    @Test
+    public void testStartLocations() {
+        Random random = new Random(42);
+        for (BigrammerStorage storage : Arrays.asList(memory, direct)) {
+            for (int i = 0; i < 100; i++) {
+                int start = storage.sampleStartLocation(random);
+                Assert.assertNotEquals(DELIM, storage.getByIndex(start));
+                Assert.assertNotEquals(DELIM, storage.getByIndex(start + 1));
+            }
+        }
+
+        BigrammerStorage onlyOneWordSentences = BigramModelBuilder.buildDirectStorage(Arrays.asList(
+                Arrays.asList("howdy"), Arrays.asList("pardner")));
+        Assert.assertNull(onlyOneWordSentences.sampleStartLocation(random));
+    }
+
+    @Test
+    public void testBuiltFromSentences() {
+        BigrammerStorage built = BigramModelBuilder.buildDirectStorage(Arrays.asList(
+                Arrays.asList("howdy", "pardner"),
+                Arrays.asList("howdy", "y'all")));
+
+        Assert.assertEquals(7, built.getFullWordListSize());
+        Assert.assertEquals(DELIM, built.getByIndex(0));
+        Assert.assertEquals(Arrays.asList(1, 4), built.getAllPossibleLocations("howdy"));
+        Assert.assertEquals(sorted(Arrays.asList("pardner", "y'all")), sorted(built.getForwardWordList(new Pair(DELIM, "howdy"))));
+    }
+
+    @Test
+    public void testArrayAcrossChunks() {
+        DirectArray array = new DirectArray(100, 8, 6); // eight longs per chunk
+        for (int i = 0; i < 100; i++) {
+            array.putLong(i, (long) i << 40 | i);
+        }
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals((long) i << 40 | i, array.getLong(i));
+        }
+
+        try {
+            array.getLong(100);
+            Assert.fail("Read past the end");
+        } catch (IndexOutOfBoundsException expected) {
+            // good
+        }
+    }
+
+    private static List<String> sorted(List<String> words) {
+        List<String> copy = new ArrayList<>(words);
+        Collections.sort(copy);
+        return copy;
+    }
+}
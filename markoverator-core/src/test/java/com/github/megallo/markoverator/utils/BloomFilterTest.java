@@ -0,0 +1,50 @@
+package com.github.megallo.markoverator.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BloomFilterTest {
+
+    @Test
+    public void testNoFalseNegatives() {
+        BloomFilter filter = new BloomFilter(1000, 0.01);
+        for (int i = 0; i < 1000; i++) {
+            filter.add("word" + i);
+            filter.add((long) i << 32 | i);
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertTrue(filter.mightContain("word" + i));
+            Assert.assertTrue(filter.mightContain((long) i << 32 | i));
+        }
+    }
+
+    @Test
+    public void testFalsePositiveRate() {
+        BloomFilter filter = new BloomFilter(10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            filter.add("word" + i);
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (filter.mightContain("nope" + i)) {
+                falsePositives++;
+            }
+        }
+        // 1% expected, leave some room for bad luck
+        Assert.assertTrue("Too many false positives: " + falsePositives, falsePositives < 300);
+    }
+
+    @Test
+    public void testRoundTrip() {
+        BloomFilter filter = new BloomFilter(100, 0.01);
+        filter.add("howdy");
+        filter.add(42L);
+
+        BloomFilter copy = BloomFilter.fromBytes(filter.toBytes());
+        Assert.assertTrue(copy.mightContain("howdy"));
+        Assert.assertTrue(copy.mightContain(42L));
+        Assert.assertFalse(copy.mightContain("pardner"));
+    }
+}
@@ -0,0 +1,76 @@
+package com.github.megallo.markoverator.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class RingBufferTest {
+
+    @Test
+    public void testFullAndEmpty() {
+        RingBuffer<String> ring = new RingBuffer<>(3);
+        Assert.assertEquals(4, ring.getCapacity());
+        Assert.assertNull(ring.poll());
+
+        // go around a few times
+        for (int lap = 0; lap < 3; lap++) {
+            for (int i = 0; i < 4; i++) {
+                Assert.assertTrue(ring.offer("howdy" + i));
+            }
+            Assert.assertFalse(ring.offer("pardner"));
+            Assert.assertEquals(4, ring.size());
+
+            for (int i = 0; i < 4; i++) {
+                Assert.assertEquals("howdy" + i, ring.poll());
+            }
+            Assert.assertNull(ring.poll());
+            Assert.assertTrue(ring.isEmpty());
+        }
+    }
+
+    @Test
+    public void testManyThreads() throws InterruptedException {
+        RingBuffer<Long> ring = new RingBuffer<>(16);
+        int perProducer = 100000;
+        AtomicLong taken = new AtomicLong();
+        AtomicLong sum = new AtomicLong();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < 4; p++) {
+            threads.add(new Thread(() -> {
+                for (long i = 1; i <= perProducer; i++) {
+                    while (!ring.offer(i)) {
+                        Thread.yield();
+                    }
+                }
+            }));
+        }
+        for (int c = 0; c < 4; c++) {
+            threads.add(new Thread(() -> {
+                while (taken.get() < 4L * perProducer) {
+                    Long item = ring.poll();
+                    if (item == null) {
+                        Thread.yield();
+                    } else {
+                        sum.addAndGet(item);
+                        taken.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // every item came out exactly once
+        Assert.assertEquals(4L * perProducer, taken.get());
+        Assert.assertEquals(4L * perProducer * (perProducer + 1) / 2, sum.get());
+        Assert.assertNull(ring.poll());
+    }
+}
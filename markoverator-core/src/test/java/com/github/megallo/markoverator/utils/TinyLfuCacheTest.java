@@ -0,0 +1,60 @@
+package com.github.megallo.markoverator.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TinyLfuCacheTest {
+
+    @Test
+    public void testLoadsOnce() {
+        TinyLfuCache<String, String> cache = new TinyLfuCache<>(100, value -> 1);
+        AtomicInteger loads = new AtomicInteger();
+
+        Assert.assertEquals("HOWDY", cache.get("howdy", key -> { loads.incrementAndGet(); return key.toUpperCase(); }));
+        Assert.assertEquals("HOWDY", cache.get("howdy", key -> { loads.incrementAndGet(); return key.toUpperCase(); }));
+
+        Assert.assertEquals(1, loads.get());
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertNull(cache.getIfPresent("pardner"));
+    }
+
+    @Test
+    public void testStaysWithinWeight() {
+        TinyLfuCache<Integer, String> cache = new TinyLfuCache<>(50, String::length);
+        for (int i = 0; i < 1000; i++) {
+            cache.putIfAbsent(i, "abc");
+        }
+
+        Assert.assertTrue(cache.getWeight() <= 50);
+        Assert.assertTrue(cache.getEvictionCount() > 0);
+
+        // too big to ever fit
+        cache.putIfAbsent(-1, new String(new char[51]));
+        Assert.assertNull(cache.getIfPresent(-1));
+        Assert.assertTrue(cache.getWeight() <= 50);
+    }
+
+    @Test
+    public void testKeepsFrequentEntries() {
+        TinyLfuCache<Integer, Integer> cache = new TinyLfuCache<>(100, value -> 1);
+
+        // a handful of popular keys
+        for (int round = 0; round < 20; round++) {
+            for (int key = 0; key < 10; key++) {
+                cache.get(key, k -> k);
+            }
+        }
+
+        // followed by a scan of keys that only show up once
+        for (int key = 1000; key < 2000; key++) {
+            cache.get(key, k -> k);
+        }
+
+        for (int key = 0; key < 10; key++) {
+            Assert.assertNotNull("Lost popular key " + key, cache.getIfPresent(key));
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.github.megallo.markoverator.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class VocabularyTest {
+
+    @Test
+    public void testIds() {
+        Vocabulary vocabulary = new Vocabulary(Arrays.asList("howdy", "pardner", "Howdy", "howdy", "café", "🤠"));
+
+        Assert.assertEquals(5, vocabulary.size());
+        for (String word : Arrays.asList("howdy", "pardner", "Howdy", "café", "🤠")) {
+            Assert.assertEquals(word, vocabulary.getWord(vocabulary.getId(word)));
+        }
+        Assert.assertEquals(Vocabulary.NOT_FOUND, vocabulary.getId("yall"));
+        Assert.assertFalse(vocabulary.contains(""));
+
+        // ids are in code point order
+        Assert.assertEquals(0, vocabulary.getId("Howdy"));
+        Assert.assertEquals(4, vocabulary.getId("🤠"));
+    }
+
+    @Test
+    public void testRoundTrip() {
+        Vocabulary vocabulary = new Vocabulary(Arrays.asList("keep", "yer", "boots", "on"));
+        Vocabulary copy = Vocabulary.fromBytes(vocabulary.toBytes());
+
+        Assert.assertEquals(vocabulary.size(), copy.size());
+        for (int id = 0; id < vocabulary.size(); id++) {
+            Assert.assertEquals(vocabulary.getWord(id), copy.getWord(id));
+            Assert.assertEquals(id, copy.getId(vocabulary.getWord(id)));
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2015 Megan Galloway
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.megallo.markoverator;
+
+import com.github.megallo.markoverator.storage.h2.MVStoreModelGenerator;
+import com.github.megallo.markoverator.utils.TextUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compare building an MVStore model in sorted order against the old way of
+ * merging batches into the file and compacting it afterwards.
+ */
+public class MVStoreBenchmark {
+
+    private static final Logger loggie = LoggerFactory.getLogger(MVStoreBenchmark.class);
+
+    private static final int RUNS = 3;
+
+    /**
+     * Usage: MVStoreBenchmark [full path to corpus txt file] [batch size]
+     *
+     * Use a batch size smaller than the corpus to see how it does when the model doesn't fit in memory.
+     */
+    public static void main(String[] args) throws IOException {
+
+        if (args.length < 1 || args.length > 2) {
+            loggie.error("Nope!\n\nUsage: MVStoreBenchmark <full path to corpus txt file> [batch size]\n\n");
+            return;
+        }
+
+        int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : MVStoreModelGenerator.DEFAULT_BATCH_SIZE;
+
+        TextUtils textUtils = new TextUtils();
+        List<List<String>> sentences = new ArrayList<>();
+        for (String line : Files.readAllLines(new File(args[0]).toPath(), StandardCharsets.UTF_8)) {
+            sentences.add(textUtils.cleanUpLine(line));
+        }
+
+        // first round warms up the JVM, the rest are the ones we report
+        for (int run = 0; run <= RUNS; run++) {
+            for (boolean compact : new boolean[] {false, true}) {
+                File modelFile = File.createTempFile("markoverator", ".mv");
+                modelFile.delete(); // the generator won't overwrite an existing file
+
+                long start = System.nanoTime();
+                MVStoreModelGenerator generator = new MVStoreModelGenerator(modelFile.getPath());
+                generator.setBatchSize(batchSize);
+                generator.setCompactAfterGenerating(compact);
+                generator.generateFromSentences(sentences);
+                long millis = (System.nanoTime() - start) / 1_000_000;
+
+                if (run > 0) {
+                    loggie.info("{}: {} ms, {} bytes", compact ? "merge and compact" : "sorted", millis, modelFile.length());
+                }
+                modelFile.delete();
+            }
+        }
+    }
+}
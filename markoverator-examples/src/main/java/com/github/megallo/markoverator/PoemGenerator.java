@@ -17,8 +17,8 @@
 package com.github.megallo.markoverator;
 
 import com.github.megallo.markoverator.bigrammer.BigramModel;
-import com.github.megallo.markoverator.bigrammer.Bigrammer;
 import com.github.megallo.markoverator.kryo.utils.KryoModelUtils;
+import com.github.megallo.markoverator.poet.PoemEngine;
 import com.github.megallo.markoverator.poet.Poet;
 import com.github.megallo.markoverator.storage.MemoryBigrammerStorage;
 import com.github.megallo.markoverator.utils.TextUtils;
@@ -29,7 +29,10 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Make poems!
@@ -40,20 +43,17 @@ public class PoemGenerator {
     private static final Logger loggie = LoggerFactory.getLogger(PoemGenerator.class);
 
     static TextUtils textUtils = new TextUtils(); // TODO
-    Bigrammer bigrammer;
-    Poet poet;
+    ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    PoemEngine engine;
 
     PoemGenerator(String modelFile) throws FileNotFoundException {
         // load an existing model from a file
         // example model creation is shown in MarkovGenerator
         BigramModel model = KryoModelUtils.loadModel(new FileInputStream(new File(modelFile)));
-        this.bigrammer = new Bigrammer(new MemoryBigrammerStorage(model));
-        this.bigrammer.setMaxHalfLength(6); // short and sweet
-        poet = new Poet();
+        // only rhymes this model has, so we never go looking for a word it doesn't know
+        engine = new PoemEngine(new Poet(), new MemoryBigrammerStorage(model), executor);
     }
 
-    // TODO I think I want a helper class that accepts a model, poem length, and line max length
-    // to do all this for you
     public static void main(String[] args) throws IOException {
         if (args.length < 1) {
             loggie.error("Nope!\n\nUsage: PoemGenerator <full path to model file>\n\n");
@@ -65,60 +65,34 @@ public class PoemGenerator {
         pg.buildThreeLinePoem("alice");
         pg.buildThreeLinePoem("anxiously");
         pg.buildThreeLinePoem("queen");
-        pg.buildThreeLinePoem("interest");
-        pg.buildThreeLinePoem("interest");
-        pg.buildThreeLinePoem("mushroom");
-        pg.buildThreeLinePoem("conversation");
 
+        // or a bunch at once, which keeps every thread busy
+        List<String> topics = Arrays.asList("interest", "interest", "mushroom", "conversation");
+        List<List<List<String>>> poems = pg.engine.writePoems(topics, 3, 0, 6);
+        for (int i = 0; i < topics.size(); i++) {
+            pg.logPoem(topics.get(i), poems.get(i));
+        }
+
+        pg.executor.shutdown();
     }
 
     public void buildThreeLinePoem(String targetWord) {
-        // first, make sure our target word is in the model. Otherwise, how do we even know what we're talking about?
-        String poemTopicWord = targetWord.toLowerCase();
-        String topicPoemLine; // bonus: keep the line and use it in the poem
-        if ((topicPoemLine = makePoemLine(bigrammer, poemTopicWord)) == null) {
-            loggie.info("I don't know about {} :/", poemTopicWord);
-            return;
-        }
-
-        loggie.info("Looking up words that rhyme with {}", poemTopicWord);
-        List<String> rhymingWords = poet.findRhymingWords(poemTopicWord); // returns a list including the target word, if we know how to rhyme it
+        // two rhyming lines, then one that ends in the target word, each short and sweet
+        logPoem(targetWord, engine.writePoem(targetWord, 3, 0, 6));
+    }
 
-        if (rhymingWords == null) {
-            loggie.info("I don't know what rhymes with {} :(", poemTopicWord);
+    private void logPoem(String targetWord, List<List<String>> lines) {
+        if (lines == null) {
+            loggie.info("I don't know about {} :/", targetWord);
             return;
         }
-
-        loggie.debug(rhymingWords.toString());
-
-        rhymingWords.remove(poemTopicWord);
-
-        // count up to a configurable poem line count
-        int lineCount = 0;
-
         StringBuilder poem = new StringBuilder();
-        // and now we just start trying to find words in the model
-        for (String rhyme : rhymingWords) {
-            String poemLine = makePoemLine(bigrammer, rhyme);
-            if (poemLine != null) {
-                poem.append(poemLine).append("\n");
-                if (++lineCount >= 2) { // TODO configurable, this is the number of lines in the poem plus the last line
-                    break;
-                }
+        for (List<String> tokens : lines) {
+            if (poem.length() > 0) {
+                poem.append("\n");
             }
+            poem.append(textUtils.stringify(textUtils.capitalizeInitialWord(textUtils.reattachPunctuation(tokens))));
         }
-
-        poem.append(topicPoemLine); // artistically use the target rhyme word last, I guess
-
         loggie.info("I wrote this for you!\n{}", poem);
     }
-
-    private String makePoemLine(Bigrammer bigrammer, String word) {
-        List<String> tokens;
-        if ((tokens = bigrammer.generateRandomBackwards(word)) != null) {
-            // we found a word that is in the model
-            return textUtils.stringify(textUtils.capitalizeInitialWord(textUtils.reattachPunctuation(tokens)));
-        }
-        return null;
-    }
 }
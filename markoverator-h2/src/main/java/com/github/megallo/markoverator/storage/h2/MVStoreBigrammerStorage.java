@@ -1,20 +1,48 @@
 package com.github.megallo.markoverator.storage.h2;
 
 import com.github.megallo.markoverator.storage.BigrammerStorage;
+import com.github.megallo.markoverator.utils.BloomFilter;
 import com.github.megallo.markoverator.utils.Pair;
+import org.h2.mvstore.Cursor;
+import org.h2.mvstore.MVMap;
 import org.h2.mvstore.MVStore;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
+/**
+ * Reads a model written by MVStoreModelGenerator. Only the last published generation
+ * of the model is visible, so an append that is still running or was interrupted
+ * never shows up halfway.
+ *
+ * If the model was written with bloom filters, words and pairs that aren't in it are
+ * turned away from memory instead of searching the file for them.
+ *
+ * The batch lookups sort their keys first and read them in the order they sit in the file,
+ * so neighboring keys get served from pages that were just read.
+ */
 public class MVStoreBigrammerStorage implements BigrammerStorage {
 
     private final MVStore store;
+    private final MVStoreMaps maps;
 
-    private final Map<Integer, String> fullWordList;
-    private final Map<Pair, List<String>> forwardCache;
-    private final Map<Pair, List<String>> backwardCache;
-    private final Map<String, List<Integer>> wordIndex;
+    private final int publishedGeneration;
+    private final int publishedWordCount;
+    private final int publishedStartCount;
+
+    // null if the model doesn't have them
+    private final BloomFilter wordFilter;
+    private final BloomFilter forwardPairFilter;
 
     public MVStoreBigrammerStorage(String filename) {
         this.store = new MVStore.Builder()
@@ -22,50 +50,406 @@ public class MVStoreBigrammerStorage implements BigrammerStorage {
                 .readOnly()
                 .open();
 
-        // all_words <counter, word>
-        this.fullWordList = store.openMap("fullWordList");
+        this.maps = new MVStoreMaps(store, false);
+        maps.checkFormatVersion(filename);
 
-        // forward_chain <word_one, word_two, word_three>
-        this.forwardCache = store.openMap("forwardCache");
+        this.publishedGeneration = maps.getInfo(MVStoreMaps.PUBLISHED_GENERATION_KEY, -1);
+        this.publishedWordCount = maps.getInfo(MVStoreMaps.PUBLISHED_WORD_COUNT_KEY, 0);
+        if (publishedGeneration < 0) {
+            throw new RuntimeException("Model was never finished: " + filename);
+        }
 
-        // backward_chain <word_two, word_three, word_one>
-        this.backwardCache = store.openMap("backwardCache");
+        // starts are keyed by location, so the published ones are the ones before the last published word
+        this.publishedStartCount = (int) getKeyIndex(maps.startLocations, publishedWordCount - 1);
 
-        // word_index <word, <list of word locations>>
-        this.wordIndex = store.openMap("wordIndex");
+        this.wordFilter = loadBloomFilter(MVStoreMaps.WORDS_FILTER_KEY);
+        this.forwardPairFilter = loadBloomFilter(MVStoreMaps.FORWARD_PAIRS_FILTER_KEY);
     }
 
     @Override
     public int getFullWordListSize() {
-        return fullWordList.size();
+        return publishedWordCount;
     }
 
     @Override
     public String getByIndex(int index) {
-        return fullWordList.get(index);
+        return maps.fullWordList.get(index);
+    }
+
+    @Override
+    public Integer sampleStartLocation(Random random) {
+        if (publishedStartCount == 0) {
+            return null;
+        }
+        return maps.startLocations.getKey(random.nextInt(publishedStartCount));
     }
 
     @Override
     public List<Integer> getAllPossibleLocations(String word) {
-        return wordIndex.get(word);
+        Integer wordId = getWordId(word);
+        return wordId == null ? null : getLocations(wordId);
+    }
+
+    @Override
+    public Map<String, List<Integer>> getAllPossibleLocations(Collection<String> words) {
+        Map<String, List<Integer>> found = new HashMap<>();
+        for (Entry<Integer, String> entry : byId(getWordIds(words)).entrySet()) {
+            List<Integer> locations = getLocations(entry.getKey());
+            if (locations != null) {
+                found.put(entry.getValue(), locations);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Goes through the word IDs rather than the word list. Words that are only here in lowercase
+     * for pairs, or that haven't been published yet, don't have any locations and get left out.
+     */
+    @Override
+    public Set<String> getVocabulary() {
+        Set<String> words = new HashSet<>();
+        Cursor<Integer, String> cursor = maps.idWords.cursor(null);
+        while (cursor.hasNext()) {
+            long[] range = getLocationRange(cursor.next());
+            if (range[0] != range[1]) {
+                words.add(cursor.getValue());
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Reads the words in front of every location in order, so they come off neighboring pages
+     */
+    @Override
+    public Set<String> getWordsBefore(Collection<String> words) {
+        TreeSet<Integer> before = new TreeSet<>();
+        for (List<Integer> locations : getAllPossibleLocations(words).values()) {
+            for (int location : locations) {
+                if (location > 0) {
+                    before.add(location - 1);
+                }
+            }
+        }
+        Set<String> found = new HashSet<>();
+        for (int location : before) {
+            found.add(getByIndex(location));
+        }
+        return found;
+    }
+
+    private List<Integer> getLocations(int wordId) {
+        long end = MVStoreMaps.toLocationKey(wordId, publishedWordCount);
+        List<Integer> locations = new ArrayList<>();
+        Cursor<Long, Boolean> cursor = maps.wordLocations.cursor(MVStoreMaps.toLocationKey(wordId, 0));
+        while (cursor.hasNext()) {
+            long key = cursor.next();
+            if (key >= end) {
+                break;
+            }
+            locations.add(WordPairDataType.getSecondWordId(key));
+        }
+        return locations.isEmpty() ? null : locations;
+    }
+
+    /**
+     * Counts the word's locations by their position in the map and reads back just the one we pick
+     */
+    @Override
+    public Integer sampleLocation(String word, Random random) {
+        Integer wordId = getWordId(word);
+        return wordId == null ? null : sampleLocation(wordId, random);
+    }
+
+    /**
+     * Every position gets its own pick, even when the same word comes up more than once
+     */
+    @Override
+    public List<Integer> sampleLocations(List<String> words, Random random) {
+        // where each word is in the list, gone through in ID order so the lookups stay near each other
+        Map<String, Integer> wordIds = getWordIds(words);
+        Map<Integer, List<Integer>> positions = new TreeMap<>();
+        for (int i = 0; i < words.size(); i++) {
+            Integer wordId = wordIds.get(words.get(i));
+            if (wordId != null) {
+                positions.computeIfAbsent(wordId, id -> new ArrayList<>()).add(i);
+            }
+        }
+
+        Integer[] sampled = new Integer[words.size()];
+        for (Entry<Integer, List<Integer>> entry : positions.entrySet()) {
+            long[] range = getLocationRange(entry.getKey());
+            for (int position : entry.getValue()) {
+                sampled[position] = sampleLocation(range, random);
+            }
+        }
+        return new ArrayList<>(Arrays.asList(sampled));
+    }
+
+    private Integer sampleLocation(int wordId, Random random) {
+        return sampleLocation(getLocationRange(wordId), random);
+    }
+
+    /**
+     * @return where the word's published locations start and end in the map, by index
+     */
+    private long[] getLocationRange(int wordId) {
+        long first = getKeyIndex(maps.wordLocations, MVStoreMaps.toLocationKey(wordId, 0));
+        long end = getKeyIndex(maps.wordLocations, MVStoreMaps.toLocationKey(wordId, publishedWordCount));
+        return new long[] {first, end};
+    }
+
+    private Integer sampleLocation(long[] range, Random random) {
+        if (range[0] == range[1]) {
+            return null;
+        }
+        long key = maps.wordLocations.getKey(range[0] + random.nextInt((int) (range[1] - range[0])));
+        return WordPairDataType.getSecondWordId(key);
     }
 
     @Override
     public boolean containsForwardWordList(Pair key) {
-        return forwardCache.containsKey(key);
+        return getSuccessors(maps.forwardCache, forwardPairFilter, key) != null;
     }
 
     @Override
     public List<String> getForwardWordList(Pair key) {
-        return forwardCache.get(key);
+        return getWordList(maps.forwardCache, forwardPairFilter, key);
     }
 
     @Override
     public List<String> getBackwardWordList(Pair key) {
-        return backwardCache.get(key);
+        return getWordList(maps.backwardCache, null, key);
+    }
+
+    @Override
+    public Map<Pair, List<String>> getForwardWordLists(Collection<Pair> wordPairs) {
+        return getWordLists(maps.forwardCache, forwardPairFilter, wordPairs);
+    }
+
+    @Override
+    public Map<Pair, List<String>> getBackwardWordLists(Collection<Pair> wordPairs) {
+        return getWordLists(maps.backwardCache, null, wordPairs);
+    }
+
+    @Override
+    public List<String> sampleForwards(List<Pair> wordPairs, Random random) {
+        return sampleWords(maps.forwardCache, forwardPairFilter, wordPairs, random);
+    }
+
+    @Override
+    public List<String> sampleBackwards(List<Pair> wordPairs, Random random) {
+        return sampleWords(maps.backwardCache, null, wordPairs, random);
+    }
+
+    @Override
+    public String sampleForward(Pair key, Random random) {
+        return sampleWord(maps.forwardCache, forwardPairFilter, key, random);
+    }
+
+    @Override
+    public String sampleBackward(Pair key, Random random) {
+        return sampleWord(maps.backwardCache, null, key, random);
     }
 
     public String getFileName() {
         return store.getFileStore().getFileName();
     }
+
+    /**
+     * Let go of the file, after which nothing else can be read
+     */
+    public void close() {
+        store.close();
+    }
+
+    private List<String> getWordList(MVMap<Long, Successors> chain, BloomFilter pairFilter, Pair key) {
+        Successors successors = getSuccessors(chain, pairFilter, key);
+        if (successors == null) {
+            return null;
+        }
+        return successors.toWordList(maps.idWords::get);
+    }
+
+    /**
+     * Pick from the counts directly, so only the chosen word has to be looked up
+     */
+    private String sampleWord(MVMap<Long, Successors> chain, BloomFilter pairFilter, Pair key, Random random) {
+        Successors successors = getSuccessors(chain, pairFilter, key);
+        if (successors == null) {
+            return null;
+        }
+        return maps.idWords.get(successors.sample(random));
+    }
+
+    /**
+     * @return the index the key has in the map, or would have if it were there
+     */
+    private static <K> long getKeyIndex(MVMap<K, ?> map, K key) {
+        long index = map.getKeyIndex(key);
+        return index >= 0 ? index : -(index + 1);
+    }
+
+    /**
+     * @param pairFilter bloom filter over the chain's keys, or null to always look
+     */
+    private Successors getSuccessors(MVMap<Long, Successors> chain, BloomFilter pairFilter, Pair key) {
+        Long pairKey = getPairKey(key);
+        if (pairKey == null || (pairFilter != null && !pairFilter.mightContain(pairKey))) {
+            return null;
+        }
+
+        Successors successors = chain.get(pairKey);
+        return successors == null ? null : successors.getVisible(publishedGeneration);
+    }
+
+    /**
+     * @return the stored key for this pair, or null if one of the words isn't in the model at all
+     */
+    private Long getPairKey(Pair pair) {
+        // pair keys are built from lowercase words, same as Pair.equals()
+        Integer first = getWordId(pair.getFirst().toLowerCase());
+        if (first == null) {
+            return null;
+        }
+        Integer second = getWordId(pair.getSecond().toLowerCase());
+        if (second == null) {
+            return null;
+        }
+        return WordPairDataType.toKey(first, second);
+    }
+
+    /**
+     * @return the word's ID, or null if it isn't in the model
+     */
+    private Integer getWordId(String word) {
+        if (wordFilter != null && !wordFilter.mightContain(word)) {
+            return null;
+        }
+        return maps.wordIds.get(word);
+    }
+
+    private BloomFilter loadBloomFilter(String name) {
+        byte[] bytes = maps.bloomFilters.get(name);
+        return bytes == null ? null : BloomFilter.fromBytes(bytes);
+    }
+
+    private Map<Pair, List<String>> getWordLists(MVMap<Long, Successors> chain, BloomFilter pairFilter,
+                                                 Collection<Pair> wordPairs) {
+        Map<Pair, Long> pairKeys = getPairKeys(wordPairs);
+        Map<Long, Successors> successors = getSuccessors(chain, pairFilter, pairKeys.values());
+
+        TreeSet<Integer> wordIds = new TreeSet<>();
+        for (Successors one : successors.values()) {
+            for (int i = 0; i < one.size(); i++) {
+                wordIds.add(one.getWordId(i));
+            }
+        }
+        Map<Integer, String> words = getWords(wordIds);
+
+        Map<Pair, List<String>> found = new HashMap<>();
+        for (Entry<Pair, Long> entry : pairKeys.entrySet()) {
+            Successors one = successors.get(entry.getValue());
+            if (one != null) {
+                found.put(entry.getKey(), one.toWordList(words::get));
+            }
+        }
+        return found;
+    }
+
+    private List<String> sampleWords(MVMap<Long, Successors> chain, BloomFilter pairFilter,
+                                     List<Pair> wordPairs, Random random) {
+        Map<Pair, Long> pairKeys = getPairKeys(wordPairs);
+        Map<Long, Successors> successors = getSuccessors(chain, pairFilter, pairKeys.values());
+
+        List<Integer> sampledIds = new ArrayList<>(wordPairs.size());
+        TreeSet<Integer> wordIds = new TreeSet<>();
+        for (Pair pair : wordPairs) {
+            Successors one = successors.get(pairKeys.get(pair));
+            Integer wordId = one == null ? null : one.sample(random);
+            sampledIds.add(wordId);
+            if (wordId != null) {
+                wordIds.add(wordId);
+            }
+        }
+        Map<Integer, String> words = getWords(wordIds);
+
+        List<String> sampled = new ArrayList<>(sampledIds.size());
+        for (Integer wordId : sampledIds) {
+            sampled.add(wordId == null ? null : words.get(wordId));
+        }
+        return sampled;
+    }
+
+    /**
+     * @return the IDs of the words that are in the model, looked up in sorted order
+     */
+    private Map<String, Integer> getWordIds(Collection<String> words) {
+        Map<String, Integer> wordIds = new TreeMap<>();
+        for (String word : new TreeSet<>(words)) {
+            Integer wordId = getWordId(word);
+            if (wordId != null) {
+                wordIds.put(word, wordId);
+            }
+        }
+        return wordIds;
+    }
+
+    private Map<Integer, String> getWords(TreeSet<Integer> wordIds) {
+        Map<Integer, String> words = new HashMap<>();
+        for (Integer wordId : wordIds) {
+            words.put(wordId, maps.idWords.get(wordId));
+        }
+        return words;
+    }
+
+    /**
+     * @return the stored keys of the pairs whose words are both in the model
+     */
+    private Map<Pair, Long> getPairKeys(Collection<Pair> wordPairs) {
+        List<String> words = new ArrayList<>(wordPairs.size() * 2);
+        for (Pair pair : wordPairs) {
+            words.add(pair.getFirst().toLowerCase());
+            words.add(pair.getSecond().toLowerCase());
+        }
+        Map<String, Integer> wordIds = getWordIds(words);
+
+        Map<Pair, Long> pairKeys = new HashMap<>();
+        for (Pair pair : wordPairs) {
+            Integer first = wordIds.get(pair.getFirst().toLowerCase());
+            Integer second = wordIds.get(pair.getSecond().toLowerCase());
+            if (first != null && second != null) {
+                pairKeys.put(pair, WordPairDataType.toKey(first, second));
+            }
+        }
+        return pairKeys;
+    }
+
+    /**
+     * @return the visible successors of every key that has some, read in key order
+     */
+    private Map<Long, Successors> getSuccessors(MVMap<Long, Successors> chain, BloomFilter pairFilter,
+                                                Collection<Long> pairKeys) {
+        Map<Long, Successors> found = new HashMap<>();
+        for (Long pairKey : new TreeSet<>(pairKeys)) {
+            if (pairFilter != null && !pairFilter.mightContain(pairKey)) {
+                continue;
+            }
+            Successors successors = chain.get(pairKey);
+            Successors visible = successors == null ? null : successors.getVisible(publishedGeneration);
+            if (visible != null) {
+                found.put(pairKey, visible);
+            }
+        }
+        return found;
+    }
+
+    private static Map<Integer, String> byId(Map<String, Integer> wordIds) {
+        Map<Integer, String> byId = new TreeMap<>();
+        for (Entry<String, Integer> entry : wordIds.entrySet()) {
+            byId.put(entry.getValue(), entry.getKey());
+        }
+        return byId;
+    }
 }
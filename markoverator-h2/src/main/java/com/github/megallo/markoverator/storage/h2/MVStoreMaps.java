@@ -0,0 +1,120 @@
+package com.github.megallo.markoverator.storage.h2;
+
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+
+/**
+ * The maps that make up a model file, opened with the data types they were written with.
+ * Shared by the generator and the storage so the two can't drift apart.
+ */
+class MVStoreMaps {
+
+    // bump this whenever the layout or the data types change
+    static final String FORMAT_VERSION = "5";
+    static final String FORMAT_VERSION_KEY = "formatVersion";
+
+    // what readers are allowed to see: the last finished generation and how many words it had
+    static final String PUBLISHED_GENERATION_KEY = "publishedGeneration";
+    static final String PUBLISHED_WORD_COUNT_KEY = "publishedWordCount";
+
+    // the last generation a writer started, which may have been interrupted before publishing
+    static final String LAST_GENERATION_KEY = "lastGeneration";
+
+    // bloom filters over every word in the vocabulary and every forward chain pair key
+    static final String WORDS_FILTER_KEY = "words";
+    static final String FORWARD_PAIRS_FILTER_KEY = "forwardPairs";
+
+    // model_info <key, value>
+    final MVMap<String, String> modelInfo;
+
+    // all_words <counter, word>
+    final MVMap<Integer, String> fullWordList;
+
+    // vocabulary <word, word id> and <word id, word>
+    final MVMap<String, Integer> wordIds;
+    final MVMap<Integer, String> idWords;
+
+    // forward_chain <(word_one, word_two), word_three counts>
+    final MVMap<Long, Successors> forwardCache;
+
+    // backward_chain <(word_two, word_three), word_one counts>
+    final MVMap<Long, Successors> backwardCache;
+
+    // word_locations <(word id, location)>, one key for every place a word occurs
+    final MVMap<Long, Boolean> wordLocations;
+
+    // start_locations <location>, every place a sentence can start: neither that word nor the next is DELIM
+    final MVMap<Integer, Boolean> startLocations;
+
+    // bloom_filters <filter name, serialized BloomFilter>
+    final MVMap<String, byte[]> bloomFilters;
+
+    // forward_touched and backward_touched <(word_one, word_two)>, every pair the last append wrote,
+    // kept until its values have been settled into what readers see
+    final MVMap<Long, Boolean> forwardTouched;
+    final MVMap<Long, Boolean> backwardTouched;
+
+    /**
+     * @param singleWriter true if the generator is the only one touching the store,
+     *                     so appending onto the end of a map can skip the usual locking
+     */
+    MVStoreMaps(MVStore store, boolean singleWriter) {
+        this.modelInfo = store.openMap("modelInfo");
+        this.fullWordList = store.openMap("fullWordList", singleWriter(new MVMap.Builder<Integer, String>(), singleWriter));
+        this.wordIds = store.openMap("wordIds", singleWriter(new MVMap.Builder<String, Integer>(), singleWriter));
+        this.idWords = store.openMap("idWords", singleWriter(new MVMap.Builder<Integer, String>(), singleWriter));
+        this.forwardCache = store.openMap("forwardCache", singleWriter(new MVMap.Builder<Long, Successors>()
+                .keyType(WordPairDataType.INSTANCE)
+                .valueType(SuccessorsDataType.INSTANCE), singleWriter));
+        this.backwardCache = store.openMap("backwardCache", singleWriter(new MVMap.Builder<Long, Successors>()
+                .keyType(WordPairDataType.INSTANCE)
+                .valueType(SuccessorsDataType.INSTANCE), singleWriter));
+        this.wordLocations = store.openMap("wordLocations", singleWriter(new MVMap.Builder<Long, Boolean>()
+                .keyType(WordPairDataType.INSTANCE)
+                .valueType(NoValueDataType.INSTANCE), singleWriter));
+        this.startLocations = store.openMap("startLocations", singleWriter(new MVMap.Builder<Integer, Boolean>()
+                .valueType(NoValueDataType.INSTANCE), singleWriter));
+        this.bloomFilters = store.openMap("bloomFilters");
+        this.forwardTouched = store.openMap("forwardTouched", new MVMap.Builder<Long, Boolean>()
+                .keyType(WordPairDataType.INSTANCE)
+                .valueType(NoValueDataType.INSTANCE));
+        this.backwardTouched = store.openMap("backwardTouched", new MVMap.Builder<Long, Boolean>()
+                .keyType(WordPairDataType.INSTANCE)
+                .valueType(NoValueDataType.INSTANCE));
+    }
+
+    /**
+     * @return the wordLocations key for one occurrence of a word. All of a word's locations sit
+     *         next to each other in ascending order.
+     */
+    static long toLocationKey(int wordId, int location) {
+        return WordPairDataType.toKey(wordId, location);
+    }
+
+    /**
+     * Fail loudly instead of misreading a file written in an older layout
+     */
+    void checkFormatVersion(String filename) {
+        String version = modelInfo.get(FORMAT_VERSION_KEY);
+        if (!FORMAT_VERSION.equals(version)) {
+            throw new RuntimeException("Unsupported model format " + version + " in " + filename
+                    + ", expected " + FORMAT_VERSION + ". Regenerate it with MVStoreModelGenerator.");
+        }
+    }
+
+    /**
+     * @return the numeric model info stored under the key, or the default if there isn't any
+     */
+    int getInfo(String key, int defaultValue) {
+        String value = modelInfo.get(key);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    void putInfo(String key, int value) {
+        modelInfo.put(key, String.valueOf(value));
+    }
+
+    private static <K, V> MVMap.Builder<K, V> singleWriter(MVMap.Builder<K, V> builder, boolean singleWriter) {
+        return singleWriter ? builder.singleWriter() : builder;
+    }
+}
@@ -1,117 +1,662 @@
 package com.github.megallo.markoverator.storage.h2;
 
-import com.github.megallo.markoverator.utils.Pair;
+import com.github.megallo.markoverator.annotations.VisibleForTesting;
+import com.github.megallo.markoverator.utils.BloomFilter;
+import org.h2.mvstore.Cursor;
+import org.h2.mvstore.MVMap;
 import org.h2.mvstore.MVStore;
 import org.h2.mvstore.MVStoreTool;
 
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
 
 import static com.github.megallo.markoverator.bigrammer.Bigrammer.DELIM;
 
+/**
+ * Writes a model into an MVStore file, either from scratch or appended onto an existing one.
+ *
+ * Each run is a new generation of the model. Everything it writes is tagged with that
+ * generation and only published to readers at the very end, so a run that dies halfway
+ * is invisible to MVStoreBigrammerStorage and gets cleaned up by the next append.
+ * An append keeps track of every pair it touches, so once it's published the old versions
+ * readers needed in the meantime can be dropped again.
+ *
+ * A new file is written in key order so it comes out dense without having to compact it
+ * afterwards. If the model doesn't fit in a single batch, each batch of pairs and locations
+ * is sorted and spilled to a small run file next to it, and at the end the runs are merged
+ * straight onto the end of the model's maps, so nothing goes into the model twice.
+ */
 public class MVStoreModelGenerator {
 
+    /**
+     * Number of triples to aggregate in memory before they get merged into the store
+     */
+    public static final int DEFAULT_BATCH_SIZE = 1_000_000;
+
+    public static final double BLOOM_FILTER_FALSE_POSITIVE_RATE = 0.01;
+
+    private final String filename;
     private final MVStore store;
+    private final MVStoreMaps maps;
+    private final boolean append;
 
-    // all_words <counter, word>
-    private final Map<Integer, String> fullWordList;
+    // the sorted batches waiting to be merged, once a new model turns out not to fit in one batch
+    private boolean spilling = false;
+    private final List<Path> forwardRuns = new ArrayList<>();
+    private final List<Path> backwardRuns = new ArrayList<>();
+    private final List<Path> locationRuns = new ArrayList<>();
 
-    // forward_chain <word_one, word_two, word_three>
-    private final Map<Pair, List<String>> forwardCache;
+    private volatile boolean alreadyGenerated = false;
 
-    // backward_chain <word_two, word_three, word_one>
-    private final Map<Pair, List<String>> backwardCache;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private boolean compactAfterGenerating = false;
+    private boolean useBloomFilters = true;
 
-    // word_index <word, <list of word locations>>
-    private final Map<String, List<Integer>> wordIndex;
+    // what readers can currently see, and the generation we're writing
+    private final int publishedGeneration;
+    private final int publishedWordCount;
+    private final int generation;
 
-    private volatile boolean alreadyGenerated = false;
+    // every word we have handed out an ID to so far
+    private final Map<String, Integer> vocabulary = new HashMap<>();
+    private final List<String> pendingVocabulary = new ArrayList<>();
+
+    // the pending batch, aggregated in memory so each key is only written once per flush
+    private final Map<Long, Map<Integer, Integer>> pendingForward = new HashMap<>();
+    private final Map<Long, Map<Integer, Integer>> pendingBackward = new HashMap<>();
+    private final List<Long> pendingLocations = new ArrayList<>();
+    private final List<Integer> pendingStarts = new ArrayList<>();
+    private int pendingTriples = 0;
 
+    // sliding window over the last two words we saw, so we never have to read fullWordList back out
+    private int counter = 0;
+    private String previousWord1;
+    private String previousWord2;
+
+    /**
+     * Generate a brand new model file
+     */
     public MVStoreModelGenerator(String filename) {
-        // don't overwrite existing file
-        if (Files.exists(Paths.get(filename))) {
+        this(filename, false);
+    }
+
+    /**
+     * @param filename where the model lives
+     * @param append   false to create a new file, true to add to a model file that already exists
+     */
+    public MVStoreModelGenerator(String filename, boolean append) {
+        this.filename = filename;
+        this.append = append;
+
+        if (append) {
+            if (!Files.exists(Paths.get(filename))) {
+                throw new RuntimeException("File does not exist: " + filename);
+            }
+        } else if (Files.exists(Paths.get(filename))) {
+            // don't overwrite existing file
             throw new RuntimeException("File already exists: " + filename);
         }
 
-        this.store = new MVStore.Builder()
+        MVStore store = openStore(filename);
+        if (append && wasInterrupted(store)) {
+            // MVStore can mix up its free space bookkeeping when writing to a file whose last
+            // writer died, so give it a clean copy to work with
+            store.close();
+            MVStoreTool.compact(filename, true);
+            store = openStore(filename);
+        }
+        this.store = store;
+
+        this.maps = new MVStoreMaps(store, !append);
+
+        if (append) {
+            maps.checkFormatVersion(filename);
+            this.publishedGeneration = maps.getInfo(MVStoreMaps.PUBLISHED_GENERATION_KEY, -1);
+            this.publishedWordCount = maps.getInfo(MVStoreMaps.PUBLISHED_WORD_COUNT_KEY, 0);
+            if (publishedGeneration < 0) {
+                throw new RuntimeException("Model was never finished, regenerate it instead: " + filename);
+            }
+            // never reuse the number of a run that didn't finish, so we can recognize what it left behind
+            this.generation = maps.getInfo(MVStoreMaps.LAST_GENERATION_KEY, publishedGeneration) + 1;
+            // whatever the last append touched, whether it got published or died before that
+            settleTouched(publishedGeneration);
+            resumeFromPublished();
+        } else {
+            deleteRuns(); // left behind by a run that died
+            maps.modelInfo.put(MVStoreMaps.FORMAT_VERSION_KEY, MVStoreMaps.FORMAT_VERSION);
+            this.publishedGeneration = -1;
+            this.publishedWordCount = 0;
+            this.generation = 0;
+        }
+
+        maps.putInfo(MVStoreMaps.LAST_GENERATION_KEY, generation);
+        store.commit();
+    }
+
+    private static MVStore openStore(String filename) {
+        return new MVStore.Builder()
                 .fileName(filename)
                 .compress()
+                .autoCommitDisabled() // we commit once per batch
                 .open();
+    }
+
+    /**
+     * @return true if the last generator to open this file never published what it wrote
+     */
+    private static boolean wasInterrupted(MVStore store) {
+        MVStoreMaps existing = new MVStoreMaps(store, false);
+        return existing.getInfo(MVStoreMaps.LAST_GENERATION_KEY, -1)
+                > existing.getInfo(MVStoreMaps.PUBLISHED_GENERATION_KEY, -1);
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Larger batches mean fewer rewrites of the same key, at the cost of more memory while generating
+     *
+     * @param batchSize how many triples to aggregate in memory before writing them out
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
 
-        this.fullWordList = store.openMap("fullWordList");
-        this.forwardCache = store.openMap("forwardCache");
-        this.backwardCache = store.openMap("backwardCache");
-        this.wordIndex = store.openMap("wordIndex");
+    public boolean isCompactAfterGenerating() {
+        return compactAfterGenerating;
     }
 
+    /**
+     * Go back to merging every batch straight into the file and compacting it when we're done.
+     * This rewrites the whole file a second time, but can reclaim the space an append leaves behind.
+     */
+    public void setCompactAfterGenerating(boolean compactAfterGenerating) {
+        this.compactAfterGenerating = compactAfterGenerating;
+    }
+
+    public boolean isUseBloomFilters() {
+        return useBloomFilters;
+    }
+
+    /**
+     * Bloom filters let MVStoreBigrammerStorage turn away words and pairs that aren't in the model
+     * without going to disk, for about 10 bits per word and pair. They're rebuilt on every run.
+     */
+    public void setUseBloomFilters(boolean useBloomFilters) {
+        this.useBloomFilters = useBloomFilters;
+    }
+
+    /**
+     * Build the model out of these sentences, or add them onto the existing model in append mode.
+     * Either way this closes the file when it's done.
+     */
     public synchronized void generateFromSentences(List<List<String>> sentencesList) {
         // this is a one time operation
         if (alreadyGenerated) {
             throw new RuntimeException("Model has already been generated");
         }
 
+        writeSentences(sentencesList);
+        publish();
+        alreadyGenerated = true;
+    }
+
+    /**
+     * Write everything to the file without letting readers see it yet
+     */
+    @VisibleForTesting
+    void writeSentences(List<List<String>> sentencesList) {
         // add sentence delimiters to get more natural sentence starts and ends
-        int counter = 0;
+        // when appending, the existing model already ends with the DELIM that starts our first sentence
         for (List<String> oneSentence : sentencesList) {
-            fullWordList.put(counter++, DELIM);
+            if (needsDelim()) {
+                addWord(DELIM);
+            }
             for (String word : oneSentence) {
-                fullWordList.put(counter++, word);
+                addWord(word);
+            }
+        }
+        if (needsDelim()) {
+            addWord(DELIM); // don't forget the one at the end
+        }
+
+        flush();
+        if (spilling) {
+            mergeRuns();
+        }
+    }
+
+    private void publish() {
+        writeBloomFilters();
+
+        // now that everything is committed, let readers see it in one go
+        maps.putInfo(MVStoreMaps.PUBLISHED_WORD_COUNT_KEY, counter);
+        maps.putInfo(MVStoreMaps.PUBLISHED_GENERATION_KEY, generation);
+        store.commit();
+
+        // readers don't need the versions we replaced anymore
+        settleTouched(generation);
+        store.close();
+
+        if (compactAfterGenerating) {
+            MVStoreTool.compact(filename, true);
+        }
+    }
+
+    /**
+     * Stop without publishing anything, like a run that died halfway
+     */
+    @VisibleForTesting
+    void closeWithoutPublishing() {
+        store.close();
+    }
+
+    /**
+     * Turn every value the last append touched into what readers of the published generation see,
+     * with no older version tucked inside. If the append was published that drops the copies it
+     * kept for readers in the meantime, and if it never was it throws away everything it wrote.
+     * Safe to run again if it gets interrupted, the touched pairs are only forgotten at the end.
+     */
+    private void settleTouched(int published) {
+        settle(maps.forwardCache, maps.forwardTouched, published);
+        settle(maps.backwardCache, maps.backwardTouched, published);
+        store.commit();
+    }
+
+    private void settle(MVMap<Long, Successors> chain, MVMap<Long, Boolean> touched, int published) {
+        Cursor<Long, Boolean> cursor = touched.cursor(null);
+        while (cursor.hasNext()) {
+            Long key = cursor.next();
+            Successors stored = chain.get(key);
+            Successors visible = stored == null ? null : stored.getVisible(published);
+            if (visible == null) {
+                chain.remove(key);
+            } else if (visible != stored || stored.getPrevious() != null) {
+                chain.put(key, visible.withGeneration(visible.getGeneration(), null));
             }
+            commitIfFull();
         }
-        fullWordList.put(counter, DELIM); // don't forget the one at the end
         store.commit();
+        touched.clear();
+    }
+
+    /**
+     * Rebuild the filters from everything in the file, so they're published along with the model.
+     * Words left over from an interrupted append get included too, which only costs a few false positives.
+     */
+    private void writeBloomFilters() {
+        if (!useBloomFilters) {
+            // an old filter would turn away everything this run added
+            maps.bloomFilters.remove(MVStoreMaps.WORDS_FILTER_KEY);
+            maps.bloomFilters.remove(MVStoreMaps.FORWARD_PAIRS_FILTER_KEY);
+            return;
+        }
+
+        BloomFilter words = new BloomFilter(maps.wordIds.sizeAsLong(), BLOOM_FILTER_FALSE_POSITIVE_RATE);
+        Iterator<String> wordIterator = maps.wordIds.keyIterator(null);
+        while (wordIterator.hasNext()) {
+            words.add(wordIterator.next());
+        }
+        maps.bloomFilters.put(MVStoreMaps.WORDS_FILTER_KEY, words.toBytes());
+
+        BloomFilter pairs = new BloomFilter(maps.forwardCache.sizeAsLong(), BLOOM_FILTER_FALSE_POSITIVE_RATE);
+        Iterator<Long> pairIterator = maps.forwardCache.keyIterator(null);
+        while (pairIterator.hasNext()) {
+            pairs.add(pairIterator.next());
+        }
+        maps.bloomFilters.put(MVStoreMaps.FORWARD_PAIRS_FILTER_KEY, pairs.toBytes());
+    }
+
+    /**
+     * Pick up where the published model left off: load the vocabulary, throw away any words
+     * an interrupted append left at the end, and prime the sliding window with the last two words
+     */
+    private void resumeFromPublished() {
+        for (Entry<Integer, String> entry : maps.idWords.entrySet()) {
+            vocabulary.put(entry.getValue(), entry.getKey());
+        }
+
+        Integer lastKey;
+        while ((lastKey = maps.fullWordList.lastKey()) != null && lastKey >= publishedWordCount) {
+            Integer wordId = vocabulary.get(maps.fullWordList.remove(lastKey));
+            if (wordId != null) {
+                maps.wordLocations.remove(MVStoreMaps.toLocationKey(wordId, lastKey));
+            }
+        }
+
+        // the last published word is a DELIM, so no published sentence can start there either
+        while ((lastKey = maps.startLocations.lastKey()) != null && lastKey >= publishedWordCount - 1) {
+            maps.startLocations.remove(lastKey);
+        }
+
+        counter = publishedWordCount;
+        if (counter < 2) {
+            // nothing before the published DELIM to carry on from, so start the way a fresh generator does
+            previousWord1 = DELIM;
+            previousWord2 = DELIM;
+        } else {
+            previousWord1 = maps.fullWordList.get(counter - 2);
+            previousWord2 = maps.fullWordList.get(counter - 1);
+        }
+    }
+
+    /**
+     * @return false only while an append hasn't written past a published model, which already ends with a DELIM
+     */
+    private boolean needsDelim() {
+        return !append || counter > publishedWordCount || publishedWordCount == 0;
+    }
+
+    /**
+     * Append the next word of the corpus, and record the triple it completes
+     */
+    private void addWord(String word) {
+        maps.fullWordList.append(counter, word);
 
         // for each triplet
         //   map of (<w1, w2> -> w3) = generates forward text
         //   map of (<w2, w3> -> w1) = generates backward text
+        if (counter >= 2) {
+            long forwardPair = WordPairDataType.toKey(getKeyId(previousWord1), getKeyId(previousWord2));
+            long backwardPair = WordPairDataType.toKey(getKeyId(previousWord2), getKeyId(word));
+
+            countWord(pendingForward, forwardPair, getId(word));
+            countWord(pendingBackward, backwardPair, getId(previousWord1));
+            pendingTriples++;
+        }
+
+        // update word index to include current word
+        pendingLocations.add(MVStoreMaps.toLocationKey(getId(word), counter));
+
+        // and the previous word is somewhere a sentence can start if neither of us is a DELIM
+        if (counter >= 1 && !previousWord2.equals(DELIM) && !word.equals(DELIM)) {
+            pendingStarts.add(counter - 1);
+        }
+
+        previousWord1 = previousWord2;
+        previousWord2 = word;
+        counter++;
+
+        if (pendingTriples >= batchSize) {
+            // more to come, so a new model can't be written in key order straight from memory
+            spilling = spilling || (!append && !compactAfterGenerating);
+            flush();
+        }
+    }
+
+    /**
+     * The ID of the word exactly as it was written, used for the words we hand back out
+     */
+    private int getId(String word) {
+        Integer id = vocabulary.get(word);
+        if (id == null) {
+            id = vocabulary.size();
+            vocabulary.put(word, id);
+            pendingVocabulary.add(word);
+        }
+        return id;
+    }
+
+    /**
+     * The ID used in pair keys. Pairs match regardless of case, same as Pair.equals()
+     */
+    private int getKeyId(String word) {
+        return getId(word.toLowerCase());
+    }
+
+    /**
+     * Merge everything we have aggregated so far into the store and commit it,
+     * or spill it to run files if we're doing that
+     */
+    private void flush() {
+        if (spilling) {
+            spill();
+            return;
+        }
+
+        for (String word : pendingVocabulary) {
+            int id = vocabulary.get(word);
+            // an interrupted append may have already handed out this ID to the same word, that's fine
+            maps.wordIds.put(word, id);
+            maps.idWords.put(id, word);
+        }
+        pendingVocabulary.clear();
+
+        List<Entry<Long, Successors>> forward = toSuccessors(pendingForward);
+        List<Entry<Long, Successors>> backward = toSuccessors(pendingBackward);
+        if (append) {
+            // remember what we changed, so it can be settled once it's published or thrown away if it never is
+            markTouched(maps.forwardTouched, forward);
+            markTouched(maps.backwardTouched, backward);
+        }
+        mergeInto(maps.forwardCache, forward, this::mergeSuccessors);
+        mergeInto(maps.backwardCache, backward, this::mergeSuccessors);
+        // every location is new, there's never anything to merge with
+        mergeInto(maps.wordLocations, toLocations(pendingLocations), (existing, added) -> added);
+        mergeInto(maps.startLocations, toLocations(pendingStarts), (existing, added) -> added);
+        pendingTriples = 0;
+        store.commit();
+    }
 
-        for (int i = 0; i < fullWordList.size() - 2; i++) {
-            String w1 = fullWordList.get(i);
-            String w2 = fullWordList.get(i + 1);
-            String w3 = fullWordList.get(i + 2);
+    /**
+     * Write the pairs and locations of this batch to run files in key order. Word IDs and start
+     * locations only ever go up, so those can go onto the end of their maps right away.
+     */
+    private void spill() {
+        for (String word : pendingVocabulary) {
+            maps.idWords.append(vocabulary.get(word), word);
+        }
+        pendingVocabulary.clear();
+        for (Integer start : pendingStarts) {
+            maps.startLocations.append(start, Boolean.TRUE);
+        }
+        pendingStarts.clear();
 
-            Pair forwardPair = new Pair(w1, w2);
-            Pair backwardPair = new Pair(w2, w3);
+        List<Entry<Long, Successors>> forward = toSuccessors(pendingForward);
+        List<Entry<Long, Successors>> backward = toSuccessors(pendingBackward);
+        forward.sort(Entry.comparingByKey());
+        backward.sort(Entry.comparingByKey());
+        pendingLocations.sort(null);
+        try {
+            Files.createDirectories(getRunDirectory());
+            int run = forwardRuns.size();
+            forwardRuns.add(getRunDirectory().resolve(run + ".forward"));
+            SpilledRun.writeSuccessors(forwardRuns.get(run), forward);
+            backwardRuns.add(getRunDirectory().resolve(run + ".backward"));
+            SpilledRun.writeSuccessors(backwardRuns.get(run), backward);
+            locationRuns.add(getRunDirectory().resolve(run + ".locations"));
+            SpilledRun.writeKeys(locationRuns.get(run), pendingLocations);
+        } catch (IOException e) {
+            throw new RuntimeException("Couldn't spill batch to " + getRunDirectory(), e);
+        }
+        pendingLocations.clear();
+        pendingTriples = 0;
+        commitIfFull();
+    }
+
+    /**
+     * Merge all the spilled runs into the model, one map at a time, then get rid of them
+     */
+    private void mergeRuns() {
+        // the vocabulary is all in memory anyway, sorting it here beats spilling it
+        for (Entry<String, Integer> entry : new TreeMap<>(vocabulary).entrySet()) {
+            maps.wordIds.append(entry.getKey(), entry.getValue());
+        }
+        store.commit();
 
-            if (!forwardCache.containsKey(forwardPair)) {
-                forwardCache.put(forwardPair, new CopyOnWriteArrayList<>());
+        try {
+            mergeRuns(forwardRuns, maps.forwardCache, merged -> merged.withGeneration(generation, null));
+            mergeRuns(backwardRuns, maps.backwardCache, merged -> merged.withGeneration(generation, null));
+            mergeRuns(locationRuns, maps.wordLocations, merged -> Boolean.TRUE);
+        } catch (IOException e) {
+            throw new RuntimeException("Couldn't merge batches from " + getRunDirectory(), e);
+        }
+        deleteRuns();
+    }
+
+    /**
+     * k-way merge of one map's runs. Each run is in key order, so taking the smallest key any of them
+     * has left gives every key in order, and each one can go straight onto the end of the map.
+     * The same pair from different batches gets its successors added together.
+     */
+    private <V> void mergeRuns(List<Path> runs, MVMap<Long, V> map, Function<Successors, V> toValue) throws IOException {
+        PriorityQueue<SpilledRun> queue = new PriorityQueue<>(Math.max(1, runs.size()), Comparator.comparingLong(SpilledRun::getKey));
+        try {
+            for (Path path : runs) {
+                advance(queue, SpilledRun.open(path));
             }
-            forwardCache.get(forwardPair).add(w3);
+            while (!queue.isEmpty()) {
+                SpilledRun run = queue.poll();
+                long key = run.getKey();
+                Successors merged = run.getValue();
+                advance(queue, run);
+                while (!queue.isEmpty() && queue.peek().getKey() == key) {
+                    SpilledRun same = queue.poll();
+                    merged = merged.merge(same.getValue());
+                    advance(queue, same);
+                }
 
-            if (!backwardCache.containsKey(backwardPair)) {
-                backwardCache.put(backwardPair, new CopyOnWriteArrayList<>());
+                map.append(key, toValue.apply(merged));
+                commitIfFull();
             }
-            backwardCache.get(backwardPair).add(w1);
+        } finally {
+            for (SpilledRun run : queue) {
+                run.close();
+            }
+        }
+        store.commit();
+    }
 
-            // update word index to include current word
-            addToWordIndex(w1, i);
+    /**
+     * Put the run back in the queue at its next key, or close it if it's done
+     */
+    private static void advance(PriorityQueue<SpilledRun> queue, SpilledRun run) throws IOException {
+        if (run.next()) {
+            queue.add(run);
+        } else {
+            run.close();
+        }
+    }
 
-            // prevent iteration over ArrayList during serialization outside this loop
-            //store.commit();
+    /**
+     * Commit at the same point MVStore would have auto committed, so we don't hold a whole map in memory
+     */
+    private void commitIfFull() {
+        if (store.getUnsavedMemory() > store.getAutoCommitMemory()) {
+            store.commit();
         }
+    }
 
-        // update wordIndex for the last 2 values from the loop
-        int index = fullWordList.size() - 2;
-        String word = fullWordList.get(index);
-        addToWordIndex(word, index);
+    private Path getRunDirectory() {
+        return Paths.get(filename + ".runs");
+    }
 
-        index = fullWordList.size() - 1;
-        word = fullWordList.get(index);
-        addToWordIndex(word, index);
+    private void deleteRuns() {
+        Path directory = getRunDirectory();
+        try {
+            if (Files.isDirectory(directory)) {
+                try (DirectoryStream<Path> runs = Files.newDirectoryStream(directory)) {
+                    for (Path run : runs) {
+                        Files.delete(run);
+                    }
+                }
+            }
+            Files.deleteIfExists(directory);
+        } catch (IOException e) {
+            throw new RuntimeException("Couldn't delete spilled batches in " + directory, e);
+        }
+        forwardRuns.clear();
+        backwardRuns.clear();
+        locationRuns.clear();
+    }
 
-        // close and compact the file
-        store.close();
-        MVStoreTool.compact(store.getFileStore().getFileName(), true);
-        alreadyGenerated = true;
+    private Successors mergeSuccessors(Successors existing, Successors added) {
+        if (existing.getGeneration() == generation) {
+            // we already touched this one in an earlier batch
+            return existing.merge(added);
+        }
+
+        // build on what readers can see, which skips anything an interrupted append left here
+        Successors visible = existing.getVisible(publishedGeneration);
+        if (visible == null) {
+            return added;
+        }
+        return visible.merge(added).withGeneration(generation, visible);
+    }
+
+    /**
+     * Write the pending values in key order, combining them with whatever was already stored
+     * for that key by an earlier batch. Sorted writes keep us working on neighboring pages
+     * instead of jumping all over the tree.
+     */
+    private static <K, V> void mergeInto(MVMap<K, V> map, List<Entry<K, V>> pending, BinaryOperator<V> combine) {
+        pending.sort((a, b) -> map.getKeyType().compare(a.getKey(), b.getKey()));
+
+        if (map.isEmpty()) {
+            // nothing to merge with, so the sorted keys can go straight onto the end
+            for (Entry<K, V> entry : pending) {
+                map.append(entry.getKey(), entry.getValue());
+            }
+            return;
+        }
+
+        for (Entry<K, V> entry : pending) {
+            V value = entry.getValue();
+            V existing = map.get(entry.getKey());
+            map.put(entry.getKey(), existing == null ? value : combine.apply(existing, value));
+        }
+    }
+
+    private static void markTouched(MVMap<Long, Boolean> touched, List<Entry<Long, Successors>> entries) {
+        for (Entry<Long, Successors> entry : entries) {
+            touched.put(entry.getKey(), Boolean.TRUE);
+        }
+    }
+
+    private List<Entry<Long, Successors>> toSuccessors(Map<Long, Map<Integer, Integer>> pending) {
+        List<Entry<Long, Successors>> entries = new ArrayList<>(pending.size());
+        for (Entry<Long, Map<Integer, Integer>> entry : pending.entrySet()) {
+            Successors successors = Successors.fromCounts(entry.getValue()).withGeneration(generation, null);
+            entries.add(new SimpleImmutableEntry<>(entry.getKey(), successors));
+        }
+        pending.clear();
+        return entries;
+    }
+
+    private static <K> List<Entry<K, Boolean>> toLocations(List<K> pending) {
+        List<Entry<K, Boolean>> entries = new ArrayList<>(pending.size());
+        for (K key : pending) {
+            entries.add(new SimpleImmutableEntry<>(key, Boolean.TRUE));
+        }
+        pending.clear();
+        return entries;
     }
 
-    private void addToWordIndex(String word, int index) {
-        if (!wordIndex.containsKey(word)) {
-            wordIndex.put(word, new CopyOnWriteArrayList<>());
+    private static void countWord(Map<Long, Map<Integer, Integer>> pending, long pair, int wordId) {
+        Map<Integer, Integer> counts = pending.get(pair);
+        if (counts == null) {
+            counts = new HashMap<>();
+            pending.put(pair, counts);
         }
-        wordIndex.get(word).add(index);
+        counts.merge(wordId, 1, Integer::sum);
     }
 }
@@ -0,0 +1,35 @@
+package com.github.megallo.markoverator.storage.h2;
+
+import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.type.BasicDataType;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Value type for maps that are only used as a set of keys, so it writes nothing at all
+ */
+public final class NoValueDataType extends BasicDataType<Boolean> {
+
+    public static final NoValueDataType INSTANCE = new NoValueDataType();
+
+    private NoValueDataType() { }
+
+    @Override
+    public int getMemory(Boolean value) {
+        return 0;
+    }
+
+    @Override
+    public void write(WriteBuffer buff, Boolean value) {
+    }
+
+    @Override
+    public Boolean read(ByteBuffer buff) {
+        return Boolean.TRUE;
+    }
+
+    @Override
+    public Boolean[] createStorage(int size) {
+        return new Boolean[size];
+    }
+}
@@ -0,0 +1,148 @@
+package com.github.megallo.markoverator.storage.h2;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map.Entry;
+
+/**
+ * One batch of a map, written out to a temporary file in key order so that all the batches can
+ * be merged into the model in a single pass at the end. It's just varints one after another,
+ * keys as the difference from the one before, with no tree and no compression, so writing it
+ * and reading it back are each one sequential pass over a small file.
+ */
+final class SpilledRun implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final DataInputStream in;
+    private final boolean withValues;
+    private int remaining;
+
+    private long key = 0;
+    private Successors value;
+
+    private SpilledRun(DataInputStream in, boolean withValues, int remaining) {
+        this.in = in;
+        this.withValues = withValues;
+        this.remaining = remaining;
+    }
+
+    /**
+     * @param sorted entries in ascending key order, all from the same generation
+     */
+    static void writeSuccessors(Path path, List<Entry<Long, Successors>> sorted) throws IOException {
+        try (DataOutputStream out = openOutput(path)) {
+            out.writeBoolean(true);
+            out.writeInt(sorted.size());
+            long previousKey = 0;
+            for (Entry<Long, Successors> entry : sorted) {
+                writeVarLong(out, entry.getKey() - previousKey);
+                previousKey = entry.getKey();
+
+                Successors successors = entry.getValue();
+                writeVarLong(out, successors.size());
+                int previousId = 0;
+                for (int i = 0; i < successors.size(); i++) {
+                    writeVarLong(out, successors.getWordId(i) - previousId);
+                    writeVarLong(out, successors.getCount(i));
+                    previousId = successors.getWordId(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param sorted keys in ascending order, for maps that are only a set of keys
+     */
+    static void writeKeys(Path path, List<Long> sorted) throws IOException {
+        try (DataOutputStream out = openOutput(path)) {
+            out.writeBoolean(false);
+            out.writeInt(sorted.size());
+            long previousKey = 0;
+            for (long key : sorted) {
+                writeVarLong(out, key - previousKey);
+                previousKey = key;
+            }
+        }
+    }
+
+    static SpilledRun open(Path path) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE));
+        return new SpilledRun(in, in.readBoolean(), in.readInt());
+    }
+
+    /**
+     * Move on to the next entry
+     *
+     * @return false if there aren't any more
+     */
+    boolean next() throws IOException {
+        if (remaining == 0) {
+            return false;
+        }
+        remaining--;
+        key += readVarLong(in);
+        if (withValues) {
+            int size = (int) readVarLong(in);
+            int[] wordIds = new int[size];
+            int[] counts = new int[size];
+            int previousId = 0;
+            for (int i = 0; i < size; i++) {
+                previousId += (int) readVarLong(in);
+                wordIds[i] = previousId;
+                counts[i] = (int) readVarLong(in);
+            }
+            value = new Successors(wordIds, counts);
+        }
+        return true;
+    }
+
+    long getKey() {
+        return key;
+    }
+
+    /**
+     * @return the successors of the current key, without a generation, or null for a run of keys only
+     */
+    Successors getValue() {
+        return value;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private static DataOutputStream openOutput(Path path) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), BUFFER_SIZE));
+    }
+
+    // everything we write is zero or more, seven bits at a time with the high bit saying there's more
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new EOFException("Varint runs past 64 bits");
+    }
+}
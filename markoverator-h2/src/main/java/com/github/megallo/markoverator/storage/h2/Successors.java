@@ -0,0 +1,169 @@
+package com.github.megallo.markoverator.storage.h2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.IntFunction;
+
+/**
+ * Every word that can follow (or precede) a word pair, stored once per distinct word
+ * along with how many times it occurred. Word IDs are kept in ascending order.
+ *
+ * Each value remembers which generation of the model last changed it. A value changed by
+ * an append that hasn't been published yet also carries the version it replaced, so readers
+ * can keep using that one until the append finishes. Once it's published the generator
+ * rewrites the value without it.
+ */
+public final class Successors {
+
+    private final int[] wordIds;
+    private final int[] counts;
+
+    private final int generation;
+    private final Successors previous;
+
+    Successors(int[] wordIds, int[] counts) {
+        this(wordIds, counts, 0, null);
+    }
+
+    Successors(int[] wordIds, int[] counts, int generation, Successors previous) {
+        this.wordIds = wordIds;
+        this.counts = counts;
+        this.generation = generation;
+        this.previous = previous;
+    }
+
+    /**
+     * @param counts word ID mapped to the number of times it occurred
+     */
+    public static Successors fromCounts(Map<Integer, Integer> counts) {
+        int[] wordIds = new int[counts.size()];
+        int i = 0;
+        for (Integer wordId : counts.keySet()) {
+            wordIds[i++] = wordId;
+        }
+        Arrays.sort(wordIds);
+
+        int[] sortedCounts = new int[wordIds.length];
+        for (i = 0; i < wordIds.length; i++) {
+            sortedCounts[i] = counts.get(wordIds[i]);
+        }
+        return new Successors(wordIds, sortedCounts);
+    }
+
+    /**
+     * @return the number of distinct words
+     */
+    public int size() {
+        return wordIds.length;
+    }
+
+    public int getWordId(int i) {
+        return wordIds[i];
+    }
+
+    public int getCount(int i) {
+        return counts[i];
+    }
+
+    /**
+     * @return the model generation that wrote this value
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return the value this one replaced, or null if there wasn't one or the append that replaced it has been settled
+     */
+    public Successors getPrevious() {
+        return previous;
+    }
+
+    /**
+     * @param publishedGeneration the latest generation readers are allowed to see
+     * @return the newest version visible to readers, or null if this pair doesn't exist for them yet
+     */
+    public Successors getVisible(int publishedGeneration) {
+        if (generation <= publishedGeneration) {
+            return this;
+        }
+        if (previous != null && previous.generation <= publishedGeneration) {
+            return previous;
+        }
+        return null;
+    }
+
+    /**
+     * @return a copy of these successors tagged with the given generation
+     */
+    public Successors withGeneration(int generation, Successors previous) {
+        return new Successors(wordIds, counts, generation, previous);
+    }
+
+    /**
+     * Combine with the successors of the same pair from another batch.
+     * The result keeps this value's generation and previous version.
+     */
+    public Successors merge(Successors other) {
+        int[] mergedIds = new int[wordIds.length + other.wordIds.length];
+        int[] mergedCounts = new int[mergedIds.length];
+
+        int i = 0, j = 0, k = 0;
+        while (i < wordIds.length || j < other.wordIds.length) {
+            if (j == other.wordIds.length || (i < wordIds.length && wordIds[i] < other.wordIds[j])) {
+                mergedIds[k] = wordIds[i];
+                mergedCounts[k++] = counts[i++];
+            } else if (i == wordIds.length || other.wordIds[j] < wordIds[i]) {
+                mergedIds[k] = other.wordIds[j];
+                mergedCounts[k++] = other.counts[j++];
+            } else {
+                mergedIds[k] = wordIds[i];
+                mergedCounts[k++] = counts[i++] + other.counts[j++];
+            }
+        }
+
+        return new Successors(Arrays.copyOf(mergedIds, k), Arrays.copyOf(mergedCounts, k), generation, previous);
+    }
+
+    /**
+     * Pick a word ID at random, weighted by how many times each one occurred
+     */
+    public int sample(Random random) {
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+
+        int pick = random.nextInt(total);
+        int i = 0;
+        while (pick >= counts[i]) {
+            pick -= counts[i++];
+        }
+        return wordIds[i];
+    }
+
+    /**
+     * Expand back out into the list format BigrammerStorage hands out, where each word
+     * shows up as many times as it occurred
+     *
+     * @param wordLookup turns a word ID back into the word
+     */
+    public List<String> toWordList(IntFunction<String> wordLookup) {
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+
+        List<String> words = new ArrayList<>(total);
+        for (int i = 0; i < wordIds.length; i++) {
+            String word = wordLookup.apply(wordIds[i]);
+            for (int c = 0; c < counts[i]; c++) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+}
@@ -0,0 +1,83 @@
+package com.github.megallo.markoverator.storage.h2;
+
+import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.type.BasicDataType;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Packs successors as their generation and count followed by (word ID delta, occurrences)
+ * varint pairs. A value replaced by an unpublished append is written after it the same way.
+ */
+public final class SuccessorsDataType extends BasicDataType<Successors> {
+
+    public static final SuccessorsDataType INSTANCE = new SuccessorsDataType();
+
+    private SuccessorsDataType() { }
+
+    @Override
+    public int getMemory(Successors successors) {
+        // object header plus two arrays
+        int memory = 48 + 8 * successors.size();
+        if (successors.getPrevious() != null) {
+            memory += getMemory(successors.getPrevious());
+        }
+        return memory;
+    }
+
+    @Override
+    public void write(WriteBuffer buff, Successors successors) {
+        writeOne(buff, successors);
+
+        // only one previous version is ever kept around
+        Successors previous = successors.getPrevious();
+        if (previous == null) {
+            buff.put((byte) 0);
+        } else {
+            buff.put((byte) 1);
+            writeOne(buff, previous);
+        }
+    }
+
+    @Override
+    public Successors read(ByteBuffer buff) {
+        Successors latest = readOne(buff);
+        if (buff.get() == 0) {
+            return latest;
+        }
+        return latest.withGeneration(latest.getGeneration(), readOne(buff));
+    }
+
+    @Override
+    public Successors[] createStorage(int size) {
+        return new Successors[size];
+    }
+
+    private static void writeOne(WriteBuffer buff, Successors successors) {
+        int size = successors.size();
+        buff.putVarInt(successors.getGeneration()).putVarInt(size);
+
+        int previousId = 0;
+        for (int i = 0; i < size; i++) {
+            int wordId = successors.getWordId(i);
+            buff.putVarInt(wordId - previousId).putVarInt(successors.getCount(i));
+            previousId = wordId;
+        }
+    }
+
+    private static Successors readOne(ByteBuffer buff) {
+        int generation = DataUtils.readVarInt(buff);
+        int size = DataUtils.readVarInt(buff);
+        int[] wordIds = new int[size];
+        int[] counts = new int[size];
+
+        int previousId = 0;
+        for (int i = 0; i < size; i++) {
+            previousId += DataUtils.readVarInt(buff);
+            wordIds[i] = previousId;
+            counts[i] = DataUtils.readVarInt(buff);
+        }
+        return new Successors(wordIds, counts, generation, null);
+    }
+}
@@ -0,0 +1,57 @@
+package com.github.megallo.markoverator.storage.h2;
+
+import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.type.BasicDataType;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A word pair key made of two word IDs packed into a single long, first word in the high half.
+ * Ordering the longs is the same as ordering by first ID and then second ID.
+ */
+public final class WordPairDataType extends BasicDataType<Long> {
+
+    public static final WordPairDataType INSTANCE = new WordPairDataType();
+
+    private WordPairDataType() { }
+
+    public static long toKey(int firstWordId, int secondWordId) {
+        return ((long) firstWordId << 32) | (secondWordId & 0xFFFFFFFFL);
+    }
+
+    public static int getFirstWordId(long key) {
+        return (int) (key >>> 32);
+    }
+
+    public static int getSecondWordId(long key) {
+        return (int) key;
+    }
+
+    @Override
+    public int compare(Long a, Long b) {
+        return Long.compare(a, b);
+    }
+
+    @Override
+    public int getMemory(Long key) {
+        return 24;
+    }
+
+    @Override
+    public void write(WriteBuffer buff, Long key) {
+        buff.putVarInt(getFirstWordId(key)).putVarInt(getSecondWordId(key));
+    }
+
+    @Override
+    public Long read(ByteBuffer buff) {
+        int first = DataUtils.readVarInt(buff);
+        int second = DataUtils.readVarInt(buff);
+        return toKey(first, second);
+    }
+
+    @Override
+    public Long[] createStorage(int size) {
+        return new Long[size];
+    }
+}
@@ -0,0 +1,87 @@
+package com.github.megallo.markoverator.storage.h2;
+
+import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.type.DataType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class DataTypesTest {
+
+    @Test
+    public void testWordPairRoundTrip() {
+        int[] ids = {0, 1, 127, 128, 16384, Integer.MAX_VALUE, -1, Integer.MIN_VALUE};
+        for (int first : ids) {
+            for (int second : ids) {
+                long key = WordPairDataType.toKey(first, second);
+                Assert.assertEquals(first, WordPairDataType.getFirstWordId(key));
+                Assert.assertEquals(second, WordPairDataType.getSecondWordId(key));
+                Assert.assertEquals(Long.valueOf(key), roundTrip(WordPairDataType.INSTANCE, key));
+            }
+        }
+    }
+
+    @Test
+    public void testWordPairOrder() {
+        // first ID decides, then the second
+        Assert.assertTrue(WordPairDataType.INSTANCE.compare(WordPairDataType.toKey(1, 500), WordPairDataType.toKey(2, 0)) < 0);
+        Assert.assertTrue(WordPairDataType.INSTANCE.compare(WordPairDataType.toKey(3, 4), WordPairDataType.toKey(3, 5)) < 0);
+        Assert.assertEquals(0, WordPairDataType.INSTANCE.compare(WordPairDataType.toKey(3, 4), WordPairDataType.toKey(3, 4)));
+    }
+
+    @Test
+    public void testSuccessorsRoundTrip() {
+        Successors successors = new Successors(new int[] {0, 3, 200, 70000, Integer.MAX_VALUE}, new int[] {1, 2, 300, 1, 7}, 12, null);
+        assertSameSuccessors(successors, roundTrip(SuccessorsDataType.INSTANCE, successors));
+    }
+
+    @Test
+    public void testEmptySuccessors() {
+        Successors empty = new Successors(new int[0], new int[0]);
+        Successors read = roundTrip(SuccessorsDataType.INSTANCE, empty);
+        Assert.assertEquals(0, read.size());
+        Assert.assertNull(read.getPrevious());
+    }
+
+    @Test
+    public void testSuccessorsWithPrevious() {
+        Successors previous = new Successors(new int[] {5}, new int[] {1}, 3, null);
+        Successors latest = new Successors(new int[] {5, 9}, new int[] {2, 1}, 4, previous);
+        Successors read = roundTrip(SuccessorsDataType.INSTANCE, latest);
+
+        assertSameSuccessors(latest, read);
+        assertSameSuccessors(previous, read.getPrevious());
+        Assert.assertSame(read, read.getVisible(4));
+        Assert.assertSame(read.getPrevious(), read.getVisible(3));
+        Assert.assertNull(read.getVisible(2));
+    }
+
+    @Test
+    public void testNoValue() {
+        Assert.assertEquals(Boolean.TRUE, roundTrip(NoValueDataType.INSTANCE, Boolean.TRUE));
+
+        WriteBuffer buff = new WriteBuffer();
+        NoValueDataType.INSTANCE.write(buff, Boolean.TRUE);
+        Assert.assertEquals(0, buff.position());
+    }
+
+    private static void assertSameSuccessors(Successors expected, Successors actual) {
+        Assert.assertEquals(expected.getGeneration(), actual.getGeneration());
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertEquals(expected.getWordId(i), actual.getWordId(i));
+            Assert.assertEquals(expected.getCount(i), actual.getCount(i));
+        }
+    }
+
+    private static <T> T roundTrip(DataType<T> type, T value) {
+        WriteBuffer buff = new WriteBuffer();
+        type.write(buff, value);
+        ByteBuffer written = buff.getBuffer();
+        written.flip();
+        T read = type.read(written);
+        Assert.assertFalse("Left bytes unread", written.hasRemaining());
+        return read;
+    }
+}
@@ -0,0 +1,164 @@
+package com.github.megallo.markoverator.storage.h2;
+
+import com.github.megallo.markoverator.bigrammer.BigramModel;
+import com.github.megallo.markoverator.bigrammer.BigramModelBuilder;
+import com.github.megallo.markoverator.storage.MemoryBigrammerStorage;
+import com.github.megallo.markoverator.utils.Pair;
+import org.h2.mvstore.MVStore;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static com.github.megallo.markoverator.bigrammer.Bigrammer.DELIM;
+
+public class MVStoreBigrammerStorageTest {
+
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<List<String>> sentences;
+    private static BigramModel model;
+
+    @BeforeClass
+    public static void setup() {
+        sentences = randomSentences(500, new Random(42));
+        model = BigramModelBuilder.buildModel(sentences);
+    }
+
+    /**
+     * Sentences made up from a few words, some the same but for case, so pairs repeat a lot
+     */
+    static List<List<String>> randomSentences(int count, Random random) {
+        List<String> words = Arrays.asList("the", "The", "cat", "sat", "on", "a", "mat", "Mat", "and", "ate",
+                "it", ",", "howdy", "café", "y'all", "?");
+        List<List<String>> sentences = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            List<String> sentence = new ArrayList<>();
+            int length = 1 + random.nextInt(12);
+            for (int j = 0; j < length; j++) {
+                sentence.add(words.get(random.nextInt(words.size())));
+            }
+            sentence.add(".");
+            sentences.add(sentence);
+        }
+        return sentences;
+    }
+
+    static MVStoreBigrammerStorage generate(List<List<String>> sentences, int batchSize) throws IOException {
+        return generate(new File(folder.newFolder(), "model.mv.db"), sentences, batchSize);
+    }
+
+    static MVStoreBigrammerStorage generate(File file, List<List<String>> sentences, int batchSize) {
+        MVStoreModelGenerator generator = new MVStoreModelGenerator(file.getPath());
+        generator.setBatchSize(batchSize);
+        generator.generateFromSentences(sentences);
+        return new MVStoreBigrammerStorage(file.getPath());
+    }
+
+    @Test
+    public void testSameAsMemoryStorage() throws IOException {
+        assertSameAsMemory(model, generate(sentences, MVStoreModelGenerator.DEFAULT_BATCH_SIZE));
+    }
+
+    @Test
+    public void testSameAsMemoryStorageAcrossBatches() throws IOException {
+        // a few thousand triples, so this takes dozens of batches to write
+        File file = new File(folder.newFolder(), "model.mv.db");
+        assertSameAsMemory(model, generate(file, sentences, 97));
+        // and the batches it spilled along the way are gone
+        Assert.assertFalse(new File(file.getPath() + ".runs").exists());
+    }
+
+    /**
+     * Everything a reader can see of the stored model is the same as the model built in memory
+     */
+    static void assertSameAsMemory(BigramModel model, MVStoreBigrammerStorage stored) {
+        MemoryBigrammerStorage memory = new MemoryBigrammerStorage(model);
+        Assert.assertEquals(memory.getFullWordListSize(), stored.getFullWordListSize());
+        Set<String> words = new HashSet<>();
+        for (int i = 0; i < memory.getFullWordListSize(); i++) {
+            Assert.assertEquals(memory.getByIndex(i), stored.getByIndex(i));
+            words.add(memory.getByIndex(i));
+        }
+
+        Random random = new Random(42);
+        for (String word : words) {
+            Assert.assertEquals(word, sorted(memory.getAllPossibleLocations(word)), sorted(stored.getAllPossibleLocations(word)));
+            Assert.assertTrue(memory.getAllPossibleLocations(word).contains(stored.sampleLocation(word, random)));
+        }
+        Assert.assertNull(stored.getAllPossibleLocations("nope"));
+        Assert.assertEquals(words, stored.getVocabulary());
+        List<String> endings = Arrays.asList(".", "?", DELIM);
+        Assert.assertEquals(memory.getWordsBefore(endings), stored.getWordsBefore(endings));
+
+        for (Pair pair : model.getForwardCache().keySet()) {
+            Assert.assertTrue(stored.containsForwardWordList(pair));
+            Assert.assertEquals(sorted(memory.getForwardWordList(pair)), sorted(stored.getForwardWordList(pair)));
+            Assert.assertTrue(memory.getForwardWordList(pair).contains(stored.sampleForward(pair, random)));
+        }
+        for (Pair pair : model.getBackwardCache().keySet()) {
+            Assert.assertEquals(sorted(memory.getBackwardWordList(pair)), sorted(stored.getBackwardWordList(pair)));
+            Assert.assertTrue(memory.getBackwardWordList(pair).contains(stored.sampleBackward(pair, random)));
+        }
+        Assert.assertFalse(stored.containsForwardWordList(new Pair("nope", "cat")));
+        Assert.assertNull(stored.getBackwardWordList(new Pair("mat", "nope")));
+
+        for (int i = 0; i < 100; i++) {
+            int start = stored.sampleStartLocation(random);
+            Assert.assertNotEquals(DELIM, stored.getByIndex(start));
+            Assert.assertNotEquals(DELIM, stored.getByIndex(start + 1));
+        }
+    }
+
+    @Test
+    public void testSampleLocationsOncePerPosition() throws IOException {
+        MVStoreBigrammerStorage stored = generate(sentences, MVStoreModelGenerator.DEFAULT_BATCH_SIZE);
+        List<Integer> cats = new MemoryBigrammerStorage(model).getAllPossibleLocations("cat");
+
+        List<String> words = new ArrayList<>(Collections.nCopies(50, "cat"));
+        words.add(10, "nope");
+        List<Integer> sampled = stored.sampleLocations(words, new Random(42));
+
+        Assert.assertEquals(words.size(), sampled.size());
+        Assert.assertNull(sampled.get(10));
+        sampled.remove(10);
+        Assert.assertTrue(cats.containsAll(sampled));
+        // the same word over and over still gets picked at different places
+        Assert.assertTrue(new HashSet<>(sampled).size() > 10);
+    }
+
+    @Test
+    public void testWrongFormatVersion() throws IOException {
+        File file = new File(folder.newFolder(), "model.mv.db");
+        new MVStoreModelGenerator(file.getPath()).generateFromSentences(sentences);
+
+        MVStore store = new MVStore.Builder().fileName(file.getPath()).open();
+        store.<String, String>openMap("modelInfo").put(MVStoreMaps.FORMAT_VERSION_KEY, "1");
+        store.close();
+
+        try {
+            new MVStoreBigrammerStorage(file.getPath());
+            Assert.fail("Read a model in the wrong format");
+        } catch (RuntimeException expected) {
+            Assert.assertTrue(expected.getMessage().contains("Unsupported model format 1"));
+        }
+    }
+
+    static <T extends Comparable<T>> List<T> sorted(List<T> values) {
+        List<T> copy = new ArrayList<>(values);
+        Collections.sort(copy);
+        return copy;
+    }
+}
@@ -0,0 +1,111 @@
+package com.github.megallo.markoverator.storage.h2;
+
+import com.github.megallo.markoverator.bigrammer.BigramModelBuilder;
+import org.h2.mvstore.Cursor;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static com.github.megallo.markoverator.storage.h2.MVStoreBigrammerStorageTest.assertSameAsMemory;
+import static com.github.megallo.markoverator.storage.h2.MVStoreBigrammerStorageTest.randomSentences;
+
+public class MVStoreModelGeneratorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<List<String>> first = randomSentences(200, new Random(1));
+    private final List<List<String>> second = randomSentences(200, new Random(2));
+    private final List<List<String>> third = randomSentences(200, new Random(3));
+
+    @Test
+    public void testAppend() throws IOException {
+        File file = newModel(first);
+        append(file, second, 50);
+
+        MVStoreBigrammerStorage stored = new MVStoreBigrammerStorage(file.getPath());
+        assertSameAsMemory(BigramModelBuilder.buildModel(concat(first, second)), stored);
+        stored.close();
+        assertSettled(file);
+    }
+
+    @Test
+    public void testAppendToEmptyModel() throws IOException {
+        File file = newModel(new ArrayList<>());
+        append(file, second, 50);
+
+        MVStoreBigrammerStorage stored = new MVStoreBigrammerStorage(file.getPath());
+        assertSameAsMemory(BigramModelBuilder.buildModel(second), stored);
+        stored.close();
+        assertSettled(file);
+    }
+
+    @Test
+    public void testInterruptedAppend() throws IOException {
+        File file = newModel(first);
+
+        MVStoreModelGenerator interrupted = new MVStoreModelGenerator(file.getPath(), true);
+        interrupted.setBatchSize(50);
+        // with a word the first model doesn't have, which mustn't show up either
+        interrupted.writeSentences(concat(second, Arrays.asList(Arrays.asList("yeehaw", "!"))));
+        interrupted.closeWithoutPublishing();
+
+        // readers only ever see the first model, even though the second one is mostly in the file
+        MVStoreBigrammerStorage stored = new MVStoreBigrammerStorage(file.getPath());
+        assertSameAsMemory(BigramModelBuilder.buildModel(first), stored);
+        stored.close();
+
+        // and the next append picks up from the first model as if the second never happened
+        append(file, third, 50);
+        stored = new MVStoreBigrammerStorage(file.getPath());
+        assertSameAsMemory(BigramModelBuilder.buildModel(concat(first, third)), stored);
+        stored.close();
+        assertSettled(file);
+    }
+
+    private File newModel(List<List<String>> sentences) throws IOException {
+        File file = new File(folder.newFolder(), "model.mv.db");
+        new MVStoreModelGenerator(file.getPath()).generateFromSentences(sentences);
+        return file;
+    }
+
+    private static void append(File file, List<List<String>> sentences, int batchSize) {
+        MVStoreModelGenerator generator = new MVStoreModelGenerator(file.getPath(), true);
+        generator.setBatchSize(batchSize);
+        generator.generateFromSentences(sentences);
+    }
+
+    /**
+     * Once an append is published, no value holds on to the version it replaced
+     */
+    private static void assertSettled(File file) {
+        MVStore store = new MVStore.Builder().fileName(file.getPath()).readOnly().open();
+        MVStoreMaps maps = new MVStoreMaps(store, false);
+        Assert.assertEquals(0, maps.forwardTouched.size());
+        Assert.assertEquals(0, maps.backwardTouched.size());
+        for (MVMap<Long, Successors> chain : Arrays.asList(maps.forwardCache, maps.backwardCache)) {
+            Cursor<Long, Successors> cursor = chain.cursor(null);
+            while (cursor.hasNext()) {
+                cursor.next();
+                Assert.assertNull(cursor.getValue().getPrevious());
+            }
+        }
+        store.close();
+    }
+
+    private static List<List<String>> concat(List<List<String>> one, List<List<String>> two) {
+        List<List<String>> both = new ArrayList<>(one);
+        both.addAll(two);
+        return both;
+    }
+}
@@ -0,0 +1,299 @@
+package com.github.megallo.markoverator.poet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Reads the CMU dictionary files: which phonemes are vowels, then every word's pronunciations,
+ * which go into a RhymeTrieBuilder along with their rhyming sections.
+ */
+final class CmuDictParser {
+
+    private static final Logger loggie = LoggerFactory.getLogger(CmuDictParser.class);
+
+    private final static String cmuDictComment = ";;;";
+    private static final Pattern WORD_COUNTER = Pattern.compile("\\(\\d\\)");
+    private static final int LINES_PER_CHUNK = 8192;
+
+    final Set<String> vowels = new HashSet<>();
+    // every phoneme that isn't a vowel and what kind it is, like stop or nasal
+    final Map<String, String> consonantClasses = new HashMap<>();
+    final RhymeTrieBuilder builder = new RhymeTrieBuilder();
+
+    /**
+     * Call populatePhonemes() first
+     */
+    CmuDictParser() {
+    }
+
+    /**
+     * For a few more words when we already know the phonemes, so populatePhonemes() isn't needed
+     */
+    CmuDictParser(Set<String> vowels, Map<String, String> consonantClasses) {
+        this.vowels.addAll(vowels);
+        this.consonantClasses.putAll(consonantClasses);
+    }
+
+    void populatePhonemes(InputStream phonemesStream) throws IOException {
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(phonemesStream))) {
+            String line;
+            // A line looks like
+            // AE	vowel
+            // TH	fricative
+            // and we want the vowels, and what kind everything else is for near rhymes
+            while ((line = reader.readLine()) != null) {
+                if (!line.startsWith(cmuDictComment)) {
+                    String[] split = line.split("\\s+"); // break on whitespace
+                    // ["AE", "vowel"]
+                    String phonemeBase = split[0];
+                    String phonemeType = split[1];
+                    if (phonemeType.equals("vowel")) {
+                        vowels.add(phonemeBase);
+                    } else {
+                        consonantClasses.put(phonemeBase, phonemeType);
+                    }
+                }
+            }
+        }
+
+        loggie.info("vowels: {}", vowels.toString());
+    }
+
+    /**
+     * Reads every line first, then works out pronunciations and rhyming sections a chunk of lines
+     * at a time on as many threads as the common pool has. Entries still go into the builder in
+     * the order they were read, so earlier pronunciations keep their priority.
+     */
+    void populateCmuMap(InputStream cmuDict) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(cmuDict))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+
+        List<List<String>> chunks = new ArrayList<>();
+        for (int from = 0; from < lines.size(); from += LINES_PER_CHUNK) {
+            chunks.add(lines.subList(from, Math.min(from + LINES_PER_CHUNK, lines.size())));
+        }
+        List<List<Entry>> parsed = chunks.parallelStream().map(this::parseLines).collect(Collectors.toList());
+
+        for (List<Entry> entries : parsed) {
+            for (Entry entry : entries) {
+                // we encounter the word multiple times in the case that it has different pronunciations, like
+                // ACTS  AE1 K T S
+                // ACTS(1)  AE1 K S
+                // the builder puts all rhymes for the homographs into the same list once everything is read,
+                // sorted by how many phonemes they have so we still get the maximum rhyme first
+                builder.add(entry.word, entry.phonemes, entry.stresses, entry.sectionDepths);
+            }
+        }
+    }
+
+    private List<Entry> parseLines(List<String> lines) {
+        List<Entry> entries = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            if (!line.isEmpty() && !line.startsWith(cmuDictComment)) {
+                Entry entry = parseLine(line);
+                if (entry != null) {
+                    entries.add(entry);
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @return the word and everything about how it's said, or null if there's no word on the line
+     */
+    private Entry parseLine(String line) {
+        // a line looks like this:
+        // COAXIAL  K OW1 AE1 K S IY0 AH0 L
+        // and gets broken on whitespace by hand, it's a lot of lines to run a regex over
+        int end = nextWhitespace(line, 0);
+        if (end == 0) {
+            return null;
+        }
+        // the first item on the line is the word in plaintext
+        String word = removeWordCounter(line.substring(0, end).toLowerCase()); // prestigious(1) -> prestigious
+
+        List<String> phonemes = new ArrayList<>();
+        StringBuilder stresses = new StringBuilder();
+        // remove the numbers from the end of the vowel phonemes
+        // these indicate emphasis, which reduces rhymability, so they go in their own lookup table
+        // K OW1 AE1 K S IY0 AH0 L ---> K OW AE K S IY AH L and 1100
+        for (int start = skipWhitespace(line, end); start < line.length(); start = skipWhitespace(line, end)) {
+            end = nextWhitespace(line, start);
+            char last = line.charAt(end - 1);
+            boolean numbered = Character.isDigit(last);
+            String phoneme = line.substring(start, numbered ? end - 1 : end);
+            phonemes.add(phoneme);
+            if (vowels.contains(phoneme)) {
+                // every vowel is its own syllable
+                stresses.append(last >= '0' && last <= '2' ? last : '0');
+            }
+        }
+        return new Entry(word, phonemes, stresses.toString(), getRhymingDepths(phonemes));
+    }
+
+    private static int nextWhitespace(String line, int from) {
+        while (from < line.length() && !Character.isWhitespace(line.charAt(from))) {
+            from++;
+        }
+        return from;
+    }
+
+    private static int skipWhitespace(String line, int from) {
+        while (from < line.length() && Character.isWhitespace(line.charAt(from))) {
+            from++;
+        }
+        return from;
+    }
+
+    /**
+     * One line of the dictionary, ready for the builder
+     */
+    private static final class Entry {
+        final String word;
+        final List<String> phonemes;
+        final String stresses;
+        final List<Integer> sectionDepths;
+
+        Entry(String word, List<String> phonemes, String stresses, List<Integer> sectionDepths) {
+            this.word = word;
+            this.phonemes = phonemes;
+            this.stresses = stresses;
+            this.sectionDepths = sectionDepths;
+        }
+    }
+
+    /**
+     * getRhymingSection() as how many phonemes from the end of the word each section starts,
+     * which is how deep it is in the rhyme trie
+     */
+    List<Integer> getRhymingDepths(List<String> phonemeList) {
+        List<Integer> depths = new ArrayList<>();
+        int size = phonemeList.size();
+
+        // find the locations of the first and last vowels
+        int firstVowel = -1;
+        int lastVowel = -2;
+
+        for (int j = 0; j < phonemeList.size(); j++) {
+            String pho = phonemeList.get(j);
+            if (vowels.contains(pho)) {
+                lastVowel = j;
+                if (firstVowel == -1) {
+                    firstVowel = j;
+                }
+            }
+        }
+
+        // TODO I am deciding not to add only the last vowel in a multi-syllable word. The goal is
+        // to prevent terrible rhymes like meander + sister
+
+        // TODO should we keep the whole word in a single-syllable word?
+        // Do these rhyme: bye + goodbye
+
+        // TODO what do about prefixes on the base word?
+        // Do these rhyme: agreeable + disagreeable
+        // but how do we not become overzealous in throwing things out?
+        // Do these rhyme: acts + artifacts + contracts
+
+        // TODO you removed the emphasis markers for more rhymes. Good choice or no?
+        // Do these rhyme: agreeable + permeable
+
+        // if we have one phoneme, then it's a vowel, add it and don't iterate
+        if (size == 1) {
+            // A  AH0
+            depths.add(1);
+        } else if (firstVowel == lastVowel || lastVowel < 0) {
+            // if we have only one vowel, add one rhyme which is vowel + everything after it
+            // BYE  B AY1 -> AY
+            // ACT  AE1 K T -> AEKT
+            // PLAYS  P L EY1 Z -> EYZ
+            // and with no vowels at all, which CMU doesn't have, just take the whole thing
+            depths.add(size - Math.max(lastVowel, 0));
+        } else {
+            int startHere;
+            // we have more than one vowel, therefore more than one syllable
+            if (lastVowel == size - 1) {
+                // if it ends with a vowel, add rhyme of previous non-vowel + vowel
+                // that means start right before the last vowel
+                // PONY  P OW1 N IY2 -> NIY
+                // ALTER  AO1 L T ER0 -> TER
+                startHere = lastVowel - 1;
+            } else {
+                // if it doesn't end with a vowel, start at the last vowel instead and take it and the stuff after it to the end of the word
+                // PLAYS  P L EY1 Z
+                startHere = lastVowel;
+            }
+
+            // that last syllable, then keep prepending the phones to it until you reach the first vowel,
+            // longest first
+            // PONY  P OW1 N IY2 -> OWNIY, NIY
+            // ALTER  AO1 L T ER0 -> AOLTER, LTER, TER
+            for (int i = firstVowel; i <= startHere; i++) {
+                depths.add(size - i);
+            }
+        }
+
+        return depths;
+    }
+
+    static String removeWordCounter(String originalWord) {
+        if (originalWord.indexOf('(') < 0) {
+            return originalWord; // most words only have the one pronunciation
+        }
+        return WORD_COUNTER.split(originalWord)[0];
+    }
+
+    /**
+     * Method to log rhyme stats to see if changes to the rhyming algorithm actually did anything.
+     * Heavy, should only be used for analyzing changes
+     */
+    static void logStats(RhymeTrie trie) {
+        HashMap<Integer, Integer> lengthCountMap = new HashMap<>();
+        int distinctRhymes = 0;
+        for (int node = 0; node < trie.getNodeCount(); node++) {
+            // collect length
+            int numberOfWordsThatRhymeWithEachOther = trie.getWordCount(node);
+            if (numberOfWordsThatRhymeWithEachOther == 0) {
+                continue; // just a step on the way to some longer ending
+            }
+            distinctRhymes++;
+            // add 1 to the existing count, or put 1 if this
+            lengthCountMap.merge(numberOfWordsThatRhymeWithEachOther, 1, Integer::sum);
+
+            if (numberOfWordsThatRhymeWithEachOther > 1000) {
+                loggie.info("Whoa! This word has {} rhymes! {} {} {}", numberOfWordsThatRhymeWithEachOther,
+                        trie.getWord(trie.getWordId(node, 0)), trie.getWord(trie.getWordId(node, 500)),
+                        trie.getWord(trie.getWordId(node, numberOfWordsThatRhymeWithEachOther - 1)));
+            }
+        }
+        loggie.info("Count of distinct rhymes: {} in {} trie nodes", distinctRhymes, trie.getNodeCount());
+
+        ArrayList<Integer> printme2 = new ArrayList<>(lengthCountMap.keySet());
+        Collections.sort(printme2);
+
+        for(Integer sortedKey : printme2) {
+            loggie.info("number of words that rhyme with each other = {} and count of those is {}", sortedKey, lengthCountMap.get(sortedKey));
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.github.megallo.markoverator.poet;
+
+import com.github.megallo.markoverator.storage.BigrammerStorage;
+import com.github.megallo.markoverator.utils.TinyLfuCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static com.github.megallo.markoverator.bigrammer.Bigrammer.DELIM;
+
+/**
+ * A Poet's rhymes cut down to the words one particular model actually has, so a poem never asks
+ * the model for a word it's never seen. Build it once per Poet and model and keep it around.
+ *
+ * Words are matched exactly, the same way Bigrammer looks them up, and Poet's words are all
+ * lowercase. With sentenceEndingsOnly, a word only counts if the model has it right before the
+ * end of a sentence somewhere, which makes for lines that end more naturally on the rhyme.
+ *
+ * Like the dictionary, it keeps the model's rhymes for the words it gets asked about the most,
+ * as long as the Poet didn't have extras of its own.
+ */
+public class ModelRhymeIndex {
+
+    private static final Logger loggie = LoggerFactory.getLogger(ModelRhymeIndex.class);
+
+    private static final Pattern SENTENCE_ENDING_PUNCTUATION = Pattern.compile("[\\.!\\?]+");
+
+    private final RhymeDictionary[] layers;
+    // for each of the Poet's tries, which of its words are in the model
+    private final Map<RhymeTrie, BitSet> inModel = new IdentityHashMap<>();
+    // and the same layout as the trie's own words, but only those ones
+    private final Map<RhymeTrie, int[][]> nodeWords = new IdentityHashMap<>();
+    private final int size;
+    // the model's rhymes of popular target words, by their id in the only layer, or null if there's more than one
+    private final TinyLfuCache<Integer, RhymeFamily> families;
+
+    /**
+     * @param poet                where the rhymes come from, including its own extras
+     * @param storage             the model, whose words come from its own index of them
+     * @param sentenceEndingsOnly only keep words the model ends a sentence with
+     */
+    public ModelRhymeIndex(Poet poet, BigrammerStorage storage, boolean sentenceEndingsOnly) {
+        this.layers = poet.getLayers();
+
+        Set<String> found = storage.getVocabulary();
+        if (sentenceEndingsOnly) {
+            // the words in front of each ending, found through where the endings are
+            List<String> endings = new ArrayList<>();
+            for (String word : found) {
+                if (word.equals(DELIM) || SENTENCE_ENDING_PUNCTUATION.matcher(word).matches()) {
+                    endings.add(word);
+                }
+            }
+            found = new HashSet<>(storage.getWordsBefore(endings));
+            // and the very last word, which has the end of the model after it
+            int wordListSize = storage.getFullWordListSize();
+            if (wordListSize > 0) {
+                found.add(storage.getByIndex(wordListSize - 1));
+            }
+        }
+
+        for (RhymeDictionary layer : layers) {
+            filter(layer.trie, found);
+        }
+        int known = 0;
+        for (String modelWord : found) {
+            if (contains(modelWord)) {
+                known++;
+            }
+        }
+        this.size = known;
+        this.families = layers.length == 1 ? new TinyLfuCache<>(RhymeDictionary.FAMILY_CACHE_WEIGHT, RhymeFamily::weight) : null;
+
+        loggie.info("Found {} of the model's words that Poet knows how to rhyme", size);
+    }
+
+    private void filter(RhymeTrie trie, Set<String> found) {
+        BitSet known = new BitSet(trie.words.size());
+        for (String modelWord : found) {
+            int wordId = trie.getWordId(modelWord);
+            if (wordId != RhymeTrie.NOT_FOUND) {
+                known.set(wordId);
+            }
+        }
+        inModel.put(trie, known);
+
+        int nodeCount = trie.getNodeCount();
+        int[] starts = new int[nodeCount + 1];
+        int total = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            for (int i = 0; i < trie.getWordCount(node); i++) {
+                if (known.get(trie.getWordId(node, i))) {
+                    total++;
+                }
+            }
+        }
+        int[] words = new int[total];
+        int position = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            starts[node] = position;
+            for (int i = 0; i < trie.getWordCount(node); i++) {
+                int wordId = trie.getWordId(node, i);
+                if (known.get(wordId)) {
+                    words[position++] = wordId;
+                }
+            }
+        }
+        starts[nodeCount] = position;
+        nodeWords.put(trie, new int[][] {starts, words});
+    }
+
+    private RhymeIterator.Section modelWords(RhymeTrie trie, int node) {
+        int[][] filtered = nodeWords.get(trie);
+        return RhymeIterator.Section.ofNode(trie, filtered[0], filtered[1], node);
+    }
+
+    /**
+     * @return true if the word is in the model and Poet knows how to rhyme it
+     */
+    public boolean contains(String word) {
+        for (RhymeDictionary layer : layers) {
+            int wordId = layer.trie.getWordId(word);
+            if (wordId != RhymeTrie.NOT_FOUND && inModel.get(layer.trie).get(wordId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Poet.iterateRhymingWords() with only the words that are in the model
+     *
+     * @param targetWord doesn't have to be in the model itself, just in Poet's dictionary
+     * @return null if Poet doesn't know targetWord
+     */
+    public Iterator<String> iterateRhymingWords(String targetWord, Random random) {
+        return iterate(targetWord, random, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Poet.sampleRhymingWords() with only the words that are in the model
+     *
+     * @return null if Poet doesn't know targetWord
+     */
+    public List<String> sampleRhymingWords(String targetWord, int perSection, Random random) {
+        RhymeIterator sampled = iterate(targetWord, random, perSection);
+        if (sampled == null) {
+            return null;
+        }
+        List<String> sample = new ArrayList<>();
+        sampled.forEachRemaining(sample::add);
+        return sample;
+    }
+
+    private RhymeIterator iterate(String targetWord, Random random, int perSection) {
+        if (families != null) {
+            RhymeTrie trie = layers[0].trie;
+            int wordId = trie.getWordId(targetWord.toLowerCase());
+            if (wordId == RhymeTrie.NOT_FOUND) {
+                return null;
+            }
+            return families.get(wordId, id -> RhymeFamily.of(trie, id, this::modelWords)).iterator(random, perSection);
+        }
+
+        List<RhymeIterator.Section> sections = Poet.collectSections(layers, targetWord, this::modelWords);
+        if (sections == null) {
+            return null;
+        }
+        return new RhymeIterator(sections, random, perSection, word -> false);
+    }
+}
@@ -0,0 +1,176 @@
+package com.github.megallo.markoverator.poet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Groups of words that almost rhyme, for when the exact rhymes run out. Each word's ending from
+ * its stressed vowel on gets boiled down three ways, from strictest to loosest:
+ * ORANGE  AO1 R AH0 N JH
+ * -> AO liquid AH nasal affricate   every vowel, and consonants only by what kind they are
+ * -> AO liquid V nasal affricate    the stressed vowel, and just where the other vowels are
+ * -> ~ AO AH                        the vowels alone
+ * and words that boil down the same way go in a group together, so four-inch (AO1 R IH0 N CH)
+ * lands in orange's second group and gorgeous (AO1 R JH AH0 S) in its third.
+ *
+ * The groups are worked out once and laid out like the trie's sections, so near rhymes come
+ * out of a RhymeIterator, strictest group first, without comparing the word to anything.
+ */
+final class NearRhymeIndex {
+
+    static final int SIGNATURES = 3;
+    private static final String OTHER_VOWEL = "V";
+    private static final String VOWELS_ONLY = "~";
+
+    final RhymeTrie trie;
+
+    // the groups of word w are wordGroups[SIGNATURES * w] onwards, strictest first, NOT_FOUND where it has none
+    private final int[] wordGroups;
+    // the words in group g are groupWords[groupStarts[g]] up to groupStarts[g + 1]
+    private final int[] groupStarts;
+    private final int[] groupWords;
+
+    /**
+     * @param vowels           phonemes that are vowels
+     * @param consonantClasses what kind of sound every other phoneme is, like stop or nasal
+     */
+    NearRhymeIndex(RhymeTrie trie, Set<String> vowels, Map<String, String> consonantClasses) {
+        this.trie = trie;
+        int wordCount = trie.words.size();
+
+        Map<String, Integer> groupIds = new HashMap<>();
+        this.wordGroups = new int[SIGNATURES * wordCount];
+        Arrays.fill(wordGroups, RhymeTrie.NOT_FOUND);
+        List<Integer> sizes = new ArrayList<>();
+        for (int wordId = 0; wordId < wordCount; wordId++) {
+            String[] signatures = signatures(wordId, vowels, consonantClasses);
+            for (int i = 0; i < signatures.length; i++) {
+                // the same signature can come up twice when there's nothing to loosen
+                if (signatures[i] == null || i > 0 && signatures[i].equals(signatures[i - 1])) {
+                    continue;
+                }
+                Integer group = groupIds.get(signatures[i]);
+                if (group == null) {
+                    group = sizes.size();
+                    groupIds.put(signatures[i], group);
+                    sizes.add(0);
+                }
+                wordGroups[SIGNATURES * wordId + i] = group;
+                sizes.set(group, sizes.get(group) + 1);
+            }
+        }
+
+        this.groupStarts = new int[sizes.size() + 1];
+        for (int group = 0; group < sizes.size(); group++) {
+            groupStarts[group + 1] = groupStarts[group] + sizes.get(group);
+        }
+        this.groupWords = new int[groupStarts[sizes.size()]];
+        int[] filled = Arrays.copyOf(groupStarts, sizes.size());
+        for (int wordId = 0; wordId < wordCount; wordId++) {
+            for (int i = 0; i < SIGNATURES; i++) {
+                int group = wordGroups[SIGNATURES * wordId + i];
+                if (group != RhymeTrie.NOT_FOUND) {
+                    groupWords[filled[group]++] = wordId;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the word's three signatures, or nulls if it has no rhyming sections to go on
+     */
+    private String[] signatures(int wordId, Set<String> vowels, Map<String, String> consonantClasses) {
+        String[] signatures = new String[SIGNATURES];
+        if (trie.getSectionCount(wordId) == 0) {
+            return signatures;
+        }
+
+        // the deepest section starts at the first vowel, so it has the stressed one in it
+        List<String> ending = new ArrayList<>();
+        for (int node = trie.getSection(wordId, 0); node != RhymeTrie.ROOT; node = trie.getParent(node)) {
+            ending.add(trie.phonemes.get(trie.nodePhonemes[node]));
+        }
+
+        // last primary stress, or else the last secondary, or else the last vowel
+        String stresses = trie.getStressPattern(wordId);
+        int stressed = stresses.lastIndexOf('1');
+        if (stressed < 0) {
+            stressed = stresses.lastIndexOf('2');
+        }
+
+        // a homograph's deepest section might be from a pronunciation with fewer vowels
+        List<Integer> vowelPositions = new ArrayList<>();
+        for (int i = 0; i < ending.size(); i++) {
+            if (vowels.contains(ending.get(i))) {
+                vowelPositions.add(i);
+            }
+        }
+        int start = 0;
+        if (!vowelPositions.isEmpty()) {
+            start = vowelPositions.get(stressed < 0 ? vowelPositions.size() - 1 : Math.min(stressed, vowelPositions.size() - 1));
+        }
+
+        StringBuilder strict = new StringBuilder();
+        StringBuilder loose = new StringBuilder();
+        StringBuilder vowelsOnly = new StringBuilder(VOWELS_ONLY);
+        for (int i = start; i < ending.size(); i++) {
+            String phoneme = ending.get(i);
+            if (vowels.contains(phoneme)) {
+                strict.append(' ').append(phoneme);
+                loose.append(' ').append(i == start ? phoneme : OTHER_VOWEL);
+                vowelsOnly.append(' ').append(phoneme);
+            } else {
+                String kind = consonantClasses.getOrDefault(phoneme, phoneme);
+                strict.append(' ').append(kind);
+                loose.append(' ').append(kind);
+            }
+        }
+        signatures[0] = strict.toString();
+        signatures[1] = loose.toString();
+        signatures[2] = vowelsOnly.toString();
+        return signatures;
+    }
+
+    /**
+     * @return words from the strictest group to the loosest, leaving out the word itself and its
+     *         exact rhymes, or null if we don't know the word
+     */
+    RhymeIterator iterateNearRhymes(String word, Random random, int perGroup) {
+        int wordId = trie.getWordId(word);
+        if (wordId == RhymeTrie.NOT_FOUND) {
+            return null;
+        }
+
+        List<RhymeIterator.Section> groups = new ArrayList<>(SIGNATURES);
+        for (int i = 0; i < SIGNATURES; i++) {
+            int group = wordGroups[SIGNATURES * wordId + i];
+            if (group != RhymeTrie.NOT_FOUND) {
+                groups.add(RhymeIterator.Section.ofNode(trie, groupStarts, groupWords, group));
+            }
+        }
+
+        // anything sharing a rhyming section with the word is an exact rhyme, which we already have
+        return new RhymeIterator(groups, random, perGroup,
+                other -> other.equals(word) || sharesSection(trie.getWordId(other), wordId));
+    }
+
+    private boolean sharesSection(int wordId, int otherWordId) {
+        for (int i = trie.wordNodeStarts[wordId]; i < trie.wordNodeStarts[wordId + 1]; i++) {
+            for (int j = trie.wordNodeStarts[otherWordId]; j < trie.wordNodeStarts[otherWordId + 1]; j++) {
+                if (trie.wordNodes[i] == trie.wordNodes[j]) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    int getGroupCount() {
+        return groupStarts.length - 1;
+    }
+}
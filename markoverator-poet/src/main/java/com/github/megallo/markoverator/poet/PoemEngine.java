@@ -0,0 +1,263 @@
+package com.github.megallo.markoverator.poet;
+
+import com.github.megallo.markoverator.bigrammer.Bigrammer;
+import com.github.megallo.markoverator.bigrammer.GenerationBudget;
+import com.github.megallo.markoverator.bigrammer.GenerationResult;
+import com.github.megallo.markoverator.storage.BigrammerStorage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes poems about a topic word: lines from a model that each end in a word rhyming with it,
+ * then a last line that ends in the topic word itself.
+ *
+ * Lines for several rhymes get generated at once on the executor, strongest rhymes first. As soon
+ * as enough of them have worked out, the rest are called off. Rhymes only come from the words the
+ * model has, and each line gets a time budget instead of retrying forever.
+ */
+public class PoemEngine {
+
+    public static final int DEFAULT_PARALLELISM = 4;
+    public static final long DEFAULT_LINE_BUDGET_MILLIS = 50;
+
+    private final Bigrammer bigrammer;
+    private final ModelRhymeIndex rhymeIndex;
+    private final Executor executor;
+
+    private volatile int parallelism = DEFAULT_PARALLELISM;
+    private volatile long lineBudgetNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_LINE_BUDGET_MILLIS);
+
+    /**
+     * @param executor where lines get generated, whoever made it is responsible for shutting it down
+     */
+    public PoemEngine(Bigrammer bigrammer, ModelRhymeIndex rhymeIndex, Executor executor) {
+        this.bigrammer = bigrammer;
+        this.rhymeIndex = rhymeIndex;
+        this.executor = executor;
+    }
+
+    /**
+     * Everything from just a Poet and a model
+     */
+    public PoemEngine(Poet poet, BigrammerStorage storage, Executor executor) {
+        this(new Bigrammer(storage), new ModelRhymeIndex(poet, storage, false), executor);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @param parallelism how many lines of one poem can be in the works at once
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new RuntimeException("Parallelism must be positive: " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @param lineBudget how long to keep trying one rhyme word before moving on
+     */
+    public void setLineBudget(long lineBudget, TimeUnit unit) {
+        this.lineBudgetNanos = unit.toNanos(lineBudget);
+    }
+
+    /**
+     * @param topicWord    what the poem is about, and the word it ends on
+     * @param lineCount    how many lines, including the last one
+     * @param minLineWords the fewest words in a line
+     * @param maxLineWords the most words in a line
+     * @return the lines, each a list of tokens, or null if there's no line for the topic word to end on.
+     *         There can be fewer lines than asked for if we run out of rhymes that work.
+     */
+    public List<List<String>> writePoem(String topicWord, int lineCount, int minLineWords, int maxLineWords) {
+        return writePoemAsync(topicWord, lineCount, minLineWords, maxLineWords).join();
+    }
+
+    /**
+     * writePoem() for many topics at once, all sharing the executor
+     *
+     * @return a poem or null for each topic, in the same order
+     */
+    public List<List<List<String>>> writePoems(List<String> topicWords, int lineCount, int minLineWords, int maxLineWords) {
+        List<CompletableFuture<List<List<String>>>> futures = new ArrayList<>(topicWords.size());
+        for (String topicWord : topicWords) {
+            futures.add(writePoemAsync(topicWord, lineCount, minLineWords, maxLineWords));
+        }
+        List<List<List<String>>> poems = new ArrayList<>(futures.size());
+        for (CompletableFuture<List<List<String>>> future : futures) {
+            poems.add(future.join());
+        }
+        return poems;
+    }
+
+    /**
+     * writePoem() without waiting, nothing here blocks
+     */
+    public CompletableFuture<List<List<String>>> writePoemAsync(String topicWord, int lineCount,
+                                                               int minLineWords, int maxLineWords) {
+        if (lineCount < 1) {
+            throw new RuntimeException("A poem needs at least one line: " + lineCount);
+        }
+        String topic = topicWord.toLowerCase();
+        return CompletableFuture.supplyAsync(() -> makeLine(topic, minLineWords, maxLineWords), executor)
+                .thenCompose(topicLine -> {
+                    Iterator<String> rhymes = rhymeIndex.iterateRhymingWords(topic, new Random());
+                    if (topicLine == null || rhymes == null) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    return new PoemJob(topic, topicLine, rhymes, lineCount - 1, minLineWords, maxLineWords).start();
+                });
+    }
+
+    /**
+     * @return a line ending in the word, or null if we couldn't make one in time
+     */
+    private List<String> makeLine(String word, int minLineWords, int maxLineWords) {
+        GenerationResult result = bigrammer.generateRandomBackwards(word, minLineWords, maxLineWords,
+                new GenerationBudget(lineBudgetNanos, TimeUnit.NANOSECONDS));
+        return result != null && result.isComplete() ? result.getWords() : null;
+    }
+
+    /**
+     * The lines of one poem coming in. Everything that changes is guarded by this, but nothing
+     * gets handed to the executor while holding it.
+     */
+    private class PoemJob {
+        private final String topic;
+        private final List<String> topicLine;
+        private final Iterator<String> rhymes;
+        private final int wanted;
+        private final int minLineWords;
+        private final int maxLineWords;
+
+        private final List<List<String>> lines = new ArrayList<>();
+        private final CompletableFuture<List<List<String>>> poem = new CompletableFuture<>();
+        // rhymes we've counted as running but haven't handed to the executor yet
+        private final Deque<String> pending = new ArrayDeque<>();
+        private int running;
+        private boolean submitting;
+        private volatile boolean finished;
+
+        PoemJob(String topic, List<String> topicLine, Iterator<String> rhymes, int wanted, int minLineWords, int maxLineWords) {
+            this.topic = topic;
+            this.topicLine = topicLine;
+            this.rhymes = rhymes;
+            this.wanted = wanted;
+            this.minLineWords = minLineWords;
+            this.maxLineWords = maxLineWords;
+        }
+
+        CompletableFuture<List<List<String>>> start() {
+            synchronized (this) {
+                if (wanted == 0) {
+                    finish();
+                } else {
+                    fill();
+                }
+            }
+            submitPending();
+            return poem;
+        }
+
+        /**
+         * Line up as many rhymes as we're allowed to have going
+         */
+        private void fill() {
+            while (!finished && running < parallelism && rhymes.hasNext()) {
+                String rhyme = rhymes.next();
+                if (rhyme.equals(topic)) {
+                    continue;
+                }
+                running++;
+                pending.add(rhyme);
+            }
+            if (running == 0 && !finished) {
+                finish(); // out of rhymes, so this is as good as it gets
+            }
+        }
+
+        /**
+         * Hand the lined up rhymes to the executor, outside the lock. Only one thread does it at a time,
+         * so an executor that runs lines right away comes back here and leaves the next rhyme to the
+         * loop that's already going, instead of going one level deeper for every line.
+         */
+        private void submitPending() {
+            synchronized (this) {
+                if (submitting) {
+                    return;
+                }
+                submitting = true;
+            }
+            while (true) {
+                String rhyme;
+                synchronized (this) {
+                    rhyme = finished ? null : pending.poll();
+                    if (rhyme == null) {
+                        running -= pending.size();
+                        pending.clear();
+                        submitting = false;
+                        return;
+                    }
+                }
+                try {
+                    // a line that hasn't started by the time we're done doesn't bother
+                    CompletableFuture.supplyAsync(() -> finished ? null : makeLine(rhyme, minLineWords, maxLineWords), executor)
+                            .whenComplete(this::lineDone);
+                } catch (RejectedExecutionException e) {
+                    rejected();
+                }
+            }
+        }
+
+        private void lineDone(List<String> line, Throwable error) {
+            synchronized (this) {
+                running--;
+                if (finished) {
+                    return;
+                }
+                if (error != null) {
+                    finished = true;
+                    poem.completeExceptionally(error);
+                    return;
+                }
+                if (line != null) {
+                    lines.add(line);
+                }
+                if (lines.size() >= wanted) {
+                    finish();
+                    return;
+                }
+                fill();
+            }
+            submitPending();
+        }
+
+        /**
+         * The executor won't take any more lines, so go with what we have
+         */
+        private synchronized void rejected() {
+            running--;
+            if (!finished) {
+                finish();
+            }
+        }
+
+        private void finish() {
+            finished = true;
+            lines.add(topicLine); // artistically use the target rhyme word last, I guess
+            poem.complete(lines);
+        }
+    }
+}
@@ -17,30 +17,25 @@
 package com.github.megallo.markoverator.poet;
 
 import com.github.megallo.markoverator.annotations.VisibleForTesting;
-import com.github.megallo.markoverator.utils.Lists;
+import com.github.megallo.markoverator.bigrammer.SyllableCounter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
-import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Random;
 import java.util.Set;
-import java.util.Stack;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
- * Find words that rhyme using cmuDict
+ * Find words that rhyme using cmuDict, and count their syllables
+ * A Poet is just a view over a RhymeDictionary, usually the shared one, maybe with its own extras on top,
+ * so make as many as you like.
  **/
-public class Poet {
+public class Poet implements SyllableCounter {
 
     private static final Logger loggie = LoggerFactory.getLogger(Poet.class);
 
@@ -48,33 +43,56 @@ public class Poet {
     public static final String cmuPhonemeLocation = "/com/github/megallo/markoverator/poet/cmudict-0.7b-phones.txt";
     public static final String cmuSymbolsLocation = "/com/github/megallo/markoverator/poet/cmudict-0.7b-symbols.txt";
     public static final String myDictLocation = "/com/github/megallo/markoverator/poet/extras-dict.txt";
+    // all of the above compiled by RhymeIndexCompiler during the build
+    public static final String rhymeIndexLocation = "/com/github/megallo/markoverator/poet/rhyme-index.bin";
 
-    private final static String cmuDictComment = ";;;";
+    // where the words come from, usually the shared one
+    private volatile RhymeDictionary dictionary;
+    // this Poet's own words on top of the dictionary, which win when both have a word, or null
+    private volatile RhymeDictionary extras;
 
-    // TODO srsly this doesn't change once you build the model, so use Kryo and dump it somewhere. add a method to load the model for initializeDictionary
+    /**
+     * Default constructor if you just want the CMU dictionaries.
+     * Uses the shared dictionary, so only the first Poet made waits for it to load.
+     */
+    public Poet() {
+        this(RhymeDictionary.shared());
+    }
 
-    Set<String> vowels = new HashSet<>();
+    /**
+     * The shared CMU dictionaries with some entries of your own on top, in the same format as extras-dict.
+     * Only your entries get read, the shared ones aren't copied.
+     */
+    public Poet(InputStream extraDictStream) {
+        this(RhymeDictionary.shared(), extraDictStream);
+    }
 
-    // the raw words mapped to their rhyming sections
-    // lestrange -> [EHSTREYNJH, STREYNJH, TREYNJH, REYNJH, EYNJH]
-    Map<String, List<String>> wordToRhymes = new HashMap<>();
+    public Poet(RhymeDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
 
-    // the rhyming sections mapped to lists of words that end with that rhyming section
-    // EYNJH -> [strange, mange, arrange, prearrange, ... ]
-    Map<String, List<String>> rhymeToWords = new HashMap<>();
+    /**
+     * @param extraDictStream entries to put on top of the dictionary, or null
+     */
+    public Poet(RhymeDictionary dictionary, InputStream extraDictStream) {
+        this.dictionary = dictionary;
+        if (extraDictStream != null) {
+            this.extras = dictionary.parseExtras(extraDictStream);
+        }
+    }
 
     /**
-     * Default constructor if you just want the CMU dictionaries
+     * Use dictionaries that were already compiled with RhymeIndexCompiler
      */
-    public Poet() {
-        initializeDictionaries(cmuDictLocation, cmuPhonemeLocation, cmuSymbolsLocation, myDictLocation);
+    public Poet(RhymeIndex rhymeIndex) {
+        initializeDictionaries(rhymeIndex);
     }
 
     public Poet(InputStream cmuDictStream, InputStream cmuPhonesStream, InputStream cmuSymbolsStream, InputStream extraDictStream) {
         initializeDictionaries(cmuDictStream, cmuPhonesStream, cmuSymbolsStream, extraDictStream);
     }
 
-    // call initializeDictionaries before first use so we have something to work with
+    // these give this Poet a dictionary of its own instead of the shared one
     public void initializeDictionaries(String cmuDictClasspath, String cmuPhonesClasspath, String cmuSymbolsClasspath) {
         initializeDictionaries(cmuDictClasspath, cmuPhonesClasspath, cmuSymbolsClasspath, null);
     }
@@ -88,21 +106,37 @@ public class Poet {
                 Poet.class.getResourceAsStream(cmuSymbolsClasspath), extra);
     }
 
+    public void initializeDictionaries(RhymeIndex rhymeIndex) {
+        dictionary = RhymeDictionary.fromIndex(rhymeIndex);
+    }
+
     public void initializeDictionaries(InputStream cmuDictStream, InputStream cmuPhonesStream, InputStream cmuSymbolsStream, InputStream extraDictStream) {
-        try {
-            populatePhonemes(cmuPhonesStream); // do this first to get the vowels
-            if (extraDictStream != null) { // load any custom entries first so they take priority
-                populateCmuMap(extraDictStream);
-            }
-            populateCmuMap(cmuDictStream);
-        } catch (IOException e) {
-            loggie.error("Unable to load CMU files", e);
-        }
-        loggie.info("Loaded rhyme dictionary; found {} words", wordToRhymes.size());
+        dictionary = RhymeDictionary.parse(cmuDictStream, cmuPhonesStream, cmuSymbolsStream, extraDictStream);
+    }
 
-        if (loggie.isDebugEnabled()) {
-            logStats();
-        }
+    /**
+     * Swap this Poet's own entries for new ones without touching the dictionary underneath.
+     * Only the new entries get parsed, so this is quick even for a big extras-dict.
+     *
+     * @param extraDictStream entries in the same format as extras-dict, or null to go back to just the dictionary
+     */
+    public void setExtras(InputStream extraDictStream) {
+        extras = extraDictStream == null ? null : dictionary.parseExtras(extraDictStream);
+    }
+
+    /**
+     * @return the dictionary under this Poet's own extras
+     */
+    public RhymeDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * @return the extras first if there are any, then the dictionary
+     */
+    RhymeDictionary[] getLayers() {
+        RhymeDictionary ours = extras;
+        return ours == null ? new RhymeDictionary[] {dictionary} : new RhymeDictionary[] {ours, dictionary};
     }
 
     /**
@@ -113,253 +147,287 @@ public class Poet {
      * @return list of unique words that rhyme with targetWord, including targetWord itself
      */
     public List<String> findRhymingWords(String targetWord) {
-        if (wordToRhymes.containsKey(targetWord.toLowerCase())) { // is this word in the dictionary?
-            Set<String> allRhymingWords = new LinkedHashSet<>();
-
-            List<String> rhymingSections = wordToRhymes.get(targetWord.toLowerCase()); // wordPhonemes contained numbers but now does not
-            // wordToRhymes.get("KERFUFFLE") -> ["ERFAHFAHL", "FAHFAHL", "AHFAHL", "FAHL", "AHL"]
-            // notably here, the list is ordered from largest to smallest
-            // that means the order in which we look up and append the words will be most-rhyming to least-rhyming
-            for (String rhyme : rhymingSections) {
-                if (rhymeToWords.containsKey(rhyme)) { // TODO I'm pretty sure we can't have something in wordToRhymes unless it's also in endingPhonemesWords, you can remove this check
-                    // we have things that rhyme!
-                    List<String> wordsThatRhymeWithTargetWord = rhymeToWords.get(rhyme);
-                    // if we don't shuffle here then the caller will end up choosing the same words out of their model every time
-                    // and I don't like any of my options for how to inform them where the "good rhymes" and the "bad rhymes" are so they could shuffle it themselves
-                    Collections.shuffle(wordsThatRhymeWithTargetWord); // TODO I don't like returning non-deterministic results, but this will be mitigated when we add structure to Poet in the future
-                    loggie.info("Found {} words that rhyme with {}", wordsThatRhymeWithTargetWord.size(), rhyme);
-                    allRhymingWords.addAll(wordsThatRhymeWithTargetWord);
-                }
-            }
+        return findRhymingWords(targetWord, ThreadLocalRandom.current());
+    }
 
-            // this contains the targetWord itself for as many rhyming sections as it had, and it's up to the caller to remove it if they want to???
-            return Lists.newArrayList(allRhymingWords);
+    /**
+     * findRhymingWords() shuffled with your own random
+     */
+    public List<String> findRhymingWords(String targetWord, Random random) {
+        // this contains the targetWord itself, and it's up to the caller to remove it if they want to???
+        List<String> allRhymingWords;
+        RhymeDictionary[] layers = getLayers();
+        if (layers.length == 1) {
+            // no extras to line up, so the dictionary's cached family has everything
+            RhymeFamily family = layers[0].getRhymeFamily(targetWord.toLowerCase());
+            if (family == null) {
+                return null; // we don't have that word in the dictionary :c
+            }
+            allRhymingWords = family.shuffled(random);
+        } else {
+            Iterator<String> rhymingWords = iterateRhymingWords(targetWord, random);
+            if (rhymingWords == null) {
+                return null;
+            }
+            allRhymingWords = new ArrayList<>();
+            rhymingWords.forEachRemaining(allRhymingWords::add);
         }
+        loggie.info("Found {} words that rhyme with {}", allRhymingWords.size(), targetWord);
+        return allRhymingWords;
+    }
 
-        return null; // we don't have that word in the dictionary :c
+    /**
+     * The same words as findRhymingWords(), but each one only gets picked out when you ask for it,
+     * so stopping at the first few only costs the first few. Safe to call from many threads at once,
+     * since nothing we have stored gets touched. Words that get asked about a lot have their rhymes
+     * cached by the dictionary, unless this Poet has extras of its own.
+     *
+     * @param targetWord we want things that rhyme with this
+     * @param random     picks the order within each rhyming section
+     * @return unique words from the best rhymes to the worst, including targetWord itself, or null if we don't know targetWord
+     */
+    public Iterator<String> iterateRhymingWords(String targetWord, Random random) {
+        RhymeDictionary[] layers = getLayers();
+        if (layers.length == 1) {
+            RhymeFamily family = layers[0].getRhymeFamily(targetWord.toLowerCase());
+            return family == null ? null : family.iterator(random, Integer.MAX_VALUE);
+        }
+        List<RhymeIterator.Section> sections = collectSections(targetWord, ALL_WORDS);
+        if (sections == null) {
+            return null;
+        }
+        return new RhymeIterator(sections, random, Integer.MAX_VALUE, word -> false);
     }
 
     /**
-     * Extract all possible sections that this word could rhyme with.
-     * Return them in a list ordered from longest to shortest
+     * Up to perSection random words from each of the target word's rhyming sections, without repeats
      *
-     * @param phonemeList for this word
+     * @return words from the best rhymes to the worst, including targetWord itself if it gets picked, or null if we don't know targetWord
      */
-    @VisibleForTesting
-    List<String> getRhymingSection(List<String> phonemeList) {
-        StringBuilder rhymeMe = new StringBuilder();
-        Stack<String> rhymeMeStack = new Stack<>();
-
-        // find the locations of the first and last vowels
-        int firstVowel = -1;
-        int lastVowel = -2;
-
-        for (int j = 0; j < phonemeList.size(); j++) {
-            String pho = phonemeList.get(j);
-            if (vowels.contains(pho)) {
-                lastVowel = j;
-                if (firstVowel == -1) {
-                    firstVowel = j;
-                }
+    public List<String> sampleRhymingWords(String targetWord, int perSection, Random random) {
+        Iterator<String> sampled;
+        RhymeDictionary[] layers = getLayers();
+        if (layers.length == 1) {
+            RhymeFamily family = layers[0].getRhymeFamily(targetWord.toLowerCase());
+            if (family == null) {
+                return null;
+            }
+            sampled = family.iterator(random, perSection);
+        } else {
+            List<RhymeIterator.Section> sections = collectSections(targetWord, ALL_WORDS);
+            if (sections == null) {
+                return null;
             }
+            sampled = new RhymeIterator(sections, random, perSection, word -> false);
         }
+        List<String> sample = new ArrayList<>();
+        sampled.forEachRemaining(sample::add);
+        return sample;
+    }
 
-        // TODO I am deciding not to add only the last vowel in a multi-syllable word. The goal is
-        // to prevent terrible rhymes like meander + sister
-
-        // TODO should we keep the whole word in a single-syllable word?
-        // Do these rhyme: bye + goodbye
+    /**
+     * Which of a trie's words hang off a node, all of them or only some
+     */
+    interface NodeWords {
+        RhymeIterator.Section get(RhymeTrie trie, int node);
+    }
 
-        // TODO what do about prefixes on the base word?
-        // Do these rhyme: agreeable + disagreeable
-        // but how do we not become overzealous in throwing things out?
-        // Do these rhyme: acts + artifacts + contracts
+    static final NodeWords ALL_WORDS =
+            (trie, node) -> RhymeIterator.Section.ofNode(trie, trie.nodeWordStarts, trie.nodeWords, node);
 
-        // TODO you removed the emphasis markers for more rhymes. Good choice or no?
-        // Do these rhyme: agreeable + permeable
+    /**
+     * The target word's rhyming sections from every layer, deepest first, each with the words every
+     * layer has for it. Where two sections are the same depth, the extras' come first.
+     *
+     * @return null if we don't know the word
+     */
+    List<RhymeIterator.Section> collectSections(String targetWord, NodeWords nodeWords) {
+        return collectSections(getLayers(), targetWord, nodeWords);
+    }
 
-        int i;
+    /**
+     * collectSections() from layers like getLayers() gives
+     */
+    static List<RhymeIterator.Section> collectSections(RhymeDictionary[] layers, String targetWord, NodeWords nodeWords) {
+        String word = targetWord.toLowerCase();
+        List<RhymeIterator.Section> sections = new ArrayList<>();
+        if (layers.length == 1) {
+            // nothing to line up, so skip spelling the sections out
+            RhymeTrie trie = layers[0].trie;
+            int wordId = trie.getWordId(word);
+            if (wordId == RhymeTrie.NOT_FOUND) {
+                return null;
+            }
+            for (int i = 0; i < trie.getSectionCount(wordId); i++) {
+                sections.add(nodeWords.get(trie, trie.getSection(wordId, i)));
+            }
+            return sections;
+        }
 
-        // if we have one phoneme, then it's a vowel, add it and don't iterate
-        if (phonemeList.size() == 1) {
-            // A  AH0
-            rhymeMeStack.push(phonemeList.get(0));
+        List<List<String>> endings = collectEndings(word, layers);
+        if (endings == null) {
+            return null;
         }
-        else {
-            // if we have only one vowel, add one rhyme which is vowel + everything after it
-            if (firstVowel == lastVowel) {
-                // BYE  B AY1 -> AY
-                // ACT  AE1 K T -> AEKT
-                // PLAYS  P L EY1 Z -> EYZ
-                for (i = lastVowel; i < phonemeList.size(); i++) {
-                    String pho = phonemeList.get(i);
-                    rhymeMe.append(pho);
-                }
-                rhymeMeStack.push(rhymeMe.toString());
-            } else {
-                int startHere;
-                // we have more than one vowel, therefore more than one syllable
-                if (lastVowel == phonemeList.size()-1) {
-                    // if it ends with a vowel, add rhyme of previous non-vowel + vowel
-                    // that means start right before the last vowel
-                    // PONY  P OW1 N IY2 -> NIY
-                    // ALTER  AO1 L T ER0 -> TER
-                    startHere = lastVowel - 1;
-                } else {
-                    // if it doesn't end with a vowel, start at the last vowel instead and take it and the stuff after it to the end of the word
-                    // PLAYS  P L EY1 Z
-                    startHere = lastVowel;
+        for (List<String> ending : endings) {
+            for (RhymeDictionary layer : layers) {
+                int node = layer.trie.findNode(ending);
+                if (node != RhymeTrie.NOT_FOUND) {
+                    sections.add(nodeWords.get(layer.trie, node));
                 }
+            }
+        }
+        return sections;
+    }
 
-                for (i = startHere; i < phonemeList.size(); i++) {
-                    String pho = phonemeList.get(i);
-                    rhymeMe.append(pho);
-                }
-                // push that last syllable into the final list
-                rhymeMeStack.push(rhymeMe.toString());
-
-                // now take that last syllable and keep prepending the phones to it until you reach the first vowel
-                // PONY  P OW1 N IY2 -> OWNIY
-                // ALTER  AO1 L T ER0 -> LTER, AOLTER
-                for (i = startHere - 1; i >= firstVowel; i--) {
-                    String pho = phonemeList.get(i);
-                    rhymeMe.insert(0, pho);
-                    rhymeMeStack.push(rhymeMe.toString());
+    /**
+     * @return the phonemes of every rhyming section any layer has for the word, deepest first, or null if none have it
+     */
+    private static List<List<String>> collectEndings(String word, RhymeDictionary[] layers) {
+        Set<List<String>> endings = new LinkedHashSet<>();
+        for (RhymeDictionary layer : layers) {
+            RhymeTrie trie = layer.trie;
+            int wordId = trie.getWordId(word);
+            if (wordId != RhymeTrie.NOT_FOUND) {
+                for (int i = 0; i < trie.getSectionCount(wordId); i++) {
+                    endings.add(trie.getEnding(trie.getSection(wordId, i)));
                 }
-
             }
         }
+        if (endings.isEmpty()) {
+            return null;
+        }
+        List<List<String>> sorted = new ArrayList<>(endings);
+        sorted.sort((one, two) -> two.size() - one.size());
+        return sorted;
+    }
 
-        Collections.reverse(rhymeMeStack);
-        return rhymeMeStack;
+    /**
+     * Words that don't rhyme exactly but come close: the same vowels from the stressed one on,
+     * with the same kinds of consonants around them, or failing that just the same vowels.
+     * None of them are in findRhymingWords(). The first call builds an index, after that it's quick.
+     *
+     * @param targetWord we want things that almost rhyme with this
+     * @param limit      the most words to give back
+     * @param random     picks the order within each kind of near rhyme
+     * @return unique words from the closest to the loosest, not including targetWord, or null if we don't know targetWord
+     */
+    public List<String> findNearRhymes(String targetWord, int limit, Random random) {
+        Iterator<String> nearRhymingWords = iterateNearRhymes(targetWord, random);
+        if (nearRhymingWords == null) {
+            return null;
+        }
+        List<String> found = new ArrayList<>();
+        while (found.size() < limit && nearRhymingWords.hasNext()) {
+            found.add(nearRhymingWords.next());
+        }
+        return found;
     }
 
-    private void populateCmuMap(InputStream cmuDict) throws IOException {
-        try(BufferedReader reader = new BufferedReader(new InputStreamReader(cmuDict))) {
-            String line;
-            // a line looks like this:
-            // COAXIAL  K OW1 AE1 K S IY0 AH0 L
-            while((line = reader.readLine()) != null) {
-                if (!line.isEmpty() && !line.startsWith(cmuDictComment)) {
-                    String[] split = line.split("\\s+"); // break on whitespace
-                    String word = split[0].toLowerCase(); // the first item on the line is the word in plaintext
-
-                    List<String> phonemes = Lists.newArrayList();
-                    // start at 1 so we skip the word and only iterate over the phonemes
-                    // remove the numbers from the end of the vowel phonemes
-                    // these indicate emphasis, which we might want someday, but they'd need to go in their own lookup table because they reduce rhymability
-                    // K OW1 AE1 K S IY0 AH0 L ---> K OW AE K S IY AH L
-                    for (int i = 1; i < split.length; i++) {
-                        phonemes.add(split[i].replaceAll("\\d$", ""));
-                    }
-
-                    List<String> rhymingSections = getRhymingSection(phonemes);
-                    String actualWord = removeWordCounter(word); // prestigious(1) -> prestigious
-
-                    /* map it from word -> rhyme */
-
-                    // we encounter the word multiple times in the case that it has different pronunciations, like
-                    // ACTS  AE1 K T S
-                    // ACTS(1)  AE1 K S
-                    // but we want to put all rhymes for the homographs into the same list
-                    // then we sort by length so in theory we still mostly get the maximum rhyme first
-                    // also remove duplicates
-                    // This might be heavy but we save computation at runtime by doing it now
-                    // also it's only 8,780 times plus the custom dict entries
-                    if (wordToRhymes.containsKey(actualWord)) {
-                        List<String> rhymesForActualWord = wordToRhymes.get(actualWord);
-                        rhymesForActualWord.addAll(rhymingSections);
-                        rhymesForActualWord.sort(Comparator.comparingInt(String::length).reversed());
-                        wordToRhymes.put(actualWord, Lists.newArrayList(new LinkedHashSet<>(rhymesForActualWord)));
-                    } else {
-                        wordToRhymes.put(actualWord, Lists.newArrayList(rhymingSections));
-                    }
-
-                    /* map it from rhyme -> word */
-
-                    // we have this:
-                    // getRhymingSections("KERFUFFLE") -> ["ERFAHFAHL", "FAHFAHL", "AHFAHL", "FAHL", "AHL"]
-                    // so for each of the known rhymes for this word, go find the rhyme in the map and add this word
-                    // to the list of known words for that rhyme
-                    List<String> wordsForThisRhyme;
-                    for (String rhyme : rhymingSections) {
-
-                        if (rhymeToWords.containsKey(rhyme)) {
-                            wordsForThisRhyme = rhymeToWords.get(rhyme);
-                        } else {
-                            wordsForThisRhyme = new ArrayList<>();
-                            rhymeToWords.put(rhyme, wordsForThisRhyme);
-                        }
-                        wordsForThisRhyme.add(actualWord);
-
-                    }
-                }
+    /**
+     * findNearRhymes() one word at a time, safe to use from many threads like iterateRhymingWords()
+     */
+    public Iterator<String> iterateNearRhymes(String targetWord, Random random) {
+        // just the dictionary's, which are worked out once for every Poet that shares it
+        return dictionary.getNearRhymeIndex().iterateNearRhymes(targetWord.toLowerCase(), random, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Every word whose pronunciation ends with the same phonemes as the target word's strongest
+     * rhyme, cut down to the last phonemeCount of them. Fewer phonemes means looser rhymes.
+     *
+     * @return unique words in no particular order, including targetWord itself, or null if we don't know targetWord
+     */
+    public List<String> findWordsSharingEnding(String targetWord, int phonemeCount) {
+        RhymeDictionary[] layers = getLayers();
+        List<List<String>> endings = collectEndings(targetWord.toLowerCase(), layers);
+        if (endings == null) {
+            return null;
+        }
+        List<String> ending = endings.get(0);
+        ending = ending.subList(ending.size() - Math.min(Math.max(phonemeCount, 1), ending.size()), ending.size());
+
+        // everything hanging below this ending ends with it too
+        Set<String> words = new LinkedHashSet<>();
+        for (RhymeDictionary layer : layers) {
+            RhymeTrie trie = layer.trie;
+            int node = trie.findNode(ending);
+            if (node != RhymeTrie.NOT_FOUND) {
+                trie.forEachWordBelow(node, id -> words.add(trie.getWord(id)));
             }
         }
+        return new ArrayList<>(words);
     }
 
     /**
-     * Method to log rhyme stats to see if changes to the rhyming algorithm actually did anything.
-     * Heavy, should only be used for analyzing changes
+     * How many syllables a word has, as the first pronunciation we know for it says.
+     * Tokens with no letters or digits in them, like punctuation, don't have any.
+     *
+     * @return the syllable count, or -1 if we don't know the word
      */
-    private void logStats() {
-
-        loggie.info("Count of distinct rhymes: {}", rhymeToWords.keySet().size());
-
-        HashMap<Integer, Integer> lengthCountMap = new HashMap<>();
-        Collection<List<String>> listsOfRhymingWords = rhymeToWords.values();
-        for (List<String> thisList : listsOfRhymingWords) {
-            // collect length
-            int numberOfWordsThatRhymeWithEachOther = thisList.size();
-            Integer currentCount = 1;
-            if (lengthCountMap.containsKey(numberOfWordsThatRhymeWithEachOther)) {
-                currentCount = lengthCountMap.get(numberOfWordsThatRhymeWithEachOther);
-                currentCount++;
+    @Override
+    public int countSyllables(String word) {
+        for (RhymeDictionary layer : getLayers()) {
+            int wordId = layer.trie.getWordId(word.toLowerCase());
+            if (wordId != RhymeTrie.NOT_FOUND) {
+                return layer.trie.getSyllableCount(wordId);
             }
-            // add 1 to the existing count, or put 1 if this
-            lengthCountMap.put(numberOfWordsThatRhymeWithEachOther, currentCount);
-
-            if (numberOfWordsThatRhymeWithEachOther > 1000) {
-                loggie.info("Whoa! This word has {} rhymes! {} {} {}", numberOfWordsThatRhymeWithEachOther, thisList.get(0), thisList.get(500), thisList.get(thisList.size()-1));
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (Character.isLetterOrDigit(word.charAt(i))) {
+                return -1;
             }
         }
+        return 0;
+    }
 
-        ArrayList<Integer> printme2 = new ArrayList<>(lengthCountMap.keySet());
-        Collections.sort(printme2);
-
-        for(Integer sortedKey : printme2) {
-            loggie.info("number of words that rhyme with each other = {} and count of those is {}", sortedKey, lengthCountMap.get(sortedKey));
+    /**
+     * The stress on each of a word's syllables, from CMU: 1 for primary, 2 for secondary, 0 for none
+     *
+     * @return one digit per syllable like "012" for tomato, or null if we don't know the word
+     */
+    public String getStressPattern(String word) {
+        for (RhymeDictionary layer : getLayers()) {
+            int wordId = layer.trie.getWordId(word.toLowerCase());
+            if (wordId != RhymeTrie.NOT_FOUND) {
+                return layer.trie.getStressPattern(wordId);
+            }
         }
+        return null;
     }
 
+    /**
+     * @return the target word's rhyming sections spelled out, longest first, or null if we don't know it
+     */
     @VisibleForTesting
-    protected String removeWordCounter(String originalWord) {
-        String[] split = originalWord.split("\\(\\d\\)");
-        return split[0];
+    List<String> getRhymingSections(String targetWord) {
+        List<List<String>> endings = collectEndings(targetWord.toLowerCase(), getLayers());
+        if (endings == null) {
+            return null;
+        }
+        List<String> sections = new ArrayList<>();
+        for (List<String> ending : endings) {
+            sections.add(String.join("", ending));
+        }
+        return sections;
     }
 
-    private void populatePhonemes(InputStream phonemesStream) throws IOException {
-
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(phonemesStream))) {
-            String line;
-            // A line looks like
-            // AE	vowel
-            // TH	fricative
-            // and we only want the vowels
-            while ((line = reader.readLine()) != null) {
-                if (!line.startsWith(cmuDictComment)) {
-                    String[] split = line.split("\\s+"); // break on whitespace
-                    // ["AE", "vowel"]
-                    String phonemeBase = split[0];
-                    String phonemeType = split[1];
-                    if (phonemeType.equals("vowel")) {
-                        vowels.add(phonemeBase);
-                    }
-                }
-            }
+    /**
+     * Extract all possible sections that this word could rhyme with.
+     * Return them in a list ordered from longest to shortest
+     *
+     * @param phonemeList for this word
+     */
+    @VisibleForTesting
+    List<String> getRhymingSection(List<String> phonemeList) {
+        List<String> sections = new ArrayList<>();
+        for (int depth : new CmuDictParser(dictionary.vowels, dictionary.consonantClasses).getRhymingDepths(phonemeList)) {
+            sections.add(String.join("", phonemeList.subList(phonemeList.size() - depth, phonemeList.size())));
         }
-
-        loggie.info("vowels: {}", vowels.toString());
+        return sections;
     }
 
+    @VisibleForTesting
+    protected String removeWordCounter(String originalWord) {
+        return CmuDictParser.removeWordCounter(originalWord);
+    }
 }
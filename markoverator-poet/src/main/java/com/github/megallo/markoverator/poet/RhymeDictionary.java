@@ -0,0 +1,224 @@
+package com.github.megallo.markoverator.poet;
+
+import com.github.megallo.markoverator.annotations.VisibleForTesting;
+import com.github.megallo.markoverator.utils.TinyLfuCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Everything Poet knows about pronunciations: which phonemes are vowels, and the rhyme trie.
+ * It never changes once it's made, so any number of Poets can share one.
+ *
+ * shared() is the one with the CMU dictionaries, loaded the first time anyone asks for it and
+ * kept for the life of the process. Call preload() early on and it loads in the background
+ * while everything else starts up, near rhymes and all.
+ *
+ * The rhymes of the words that get looked up the most are kept around as RhymeFamilies, so
+ * asking for the same word over and over doesn't keep going through the trie.
+ */
+public final class RhymeDictionary {
+
+    private static final Logger loggie = LoggerFactory.getLogger(RhymeDictionary.class);
+
+    private static final AtomicReference<CompletableFuture<RhymeDictionary>> shared = new AtomicReference<>();
+
+    // roughly how many word ids to keep in cached rhyme families
+    static final long FAMILY_CACHE_WEIGHT = 1 << 18;
+
+    final Set<String> vowels;
+    // every phoneme that isn't a vowel and what kind it is, like stop or nasal
+    final Map<String, String> consonantClasses;
+
+    // the raw words and their rhyming sections, as nodes in a trie of pronunciations read backwards
+    // lestrange -> [EHSTREYNJH, STREYNJH, TREYNJH, REYNJH, EYNJH]
+    // and each of those sections has the words that end with it
+    // EYNJH -> [strange, mange, arrange, prearrange, ... ]
+    final RhymeTrie trie;
+
+    // built by preload() right after the shared one is ready, otherwise the first time someone wants a near rhyme
+    private volatile NearRhymeIndex nearRhymes;
+    // made the first time someone wants rhymes, so dictionaries that are only extras don't pay for it
+    private volatile TinyLfuCache<Integer, RhymeFamily> families;
+
+    RhymeDictionary(Set<String> vowels, Map<String, String> consonantClasses, RhymeTrie trie) {
+        this.vowels = Collections.unmodifiableSet(new HashSet<>(vowels));
+        this.consonantClasses = Collections.unmodifiableMap(new HashMap<>(consonantClasses));
+        this.trie = trie;
+    }
+
+    /**
+     * The CMU dictionaries and extras-dict, the same for everyone. Waits for them if they're still loading.
+     */
+    public static RhymeDictionary shared() {
+        return preload().join();
+    }
+
+    /**
+     * Start loading shared() on a background thread if nobody has yet. Once it's ready, the same
+     * thread goes on to sort out the near rhymes, so they're usually done before anyone asks.
+     *
+     * @return done when shared() is ready
+     */
+    public static CompletableFuture<RhymeDictionary> preload() {
+        CompletableFuture<RhymeDictionary> loading = shared.get();
+        if (loading != null) {
+            return loading;
+        }
+        CompletableFuture<RhymeDictionary> ours = new CompletableFuture<>();
+        if (!shared.compareAndSet(null, ours)) {
+            return shared.get(); // somebody beat us to it
+        }
+        Thread loader = new Thread(() -> {
+            RhymeDictionary dictionary;
+            try {
+                dictionary = loadDefault();
+            } catch (Throwable e) {
+                ours.completeExceptionally(e);
+                return;
+            }
+            ours.complete(dictionary);
+            // exact rhymes don't have to wait for this, but the first near rhyme doesn't have to build it
+            try {
+                dictionary.getNearRhymeIndex();
+            } catch (Throwable e) {
+                loggie.warn("Unable to build near rhymes ahead of time, they'll be built when first needed", e);
+            }
+        }, "rhyme-dictionary-loader");
+        loader.setDaemon(true);
+        loader.start();
+        return ours;
+    }
+
+    /**
+     * Loads the precompiled rhyme index if it's on the classpath, otherwise parses the dictionaries.
+     */
+    private static RhymeDictionary loadDefault() {
+        InputStream indexStream = Poet.class.getResourceAsStream(Poet.rhymeIndexLocation);
+        if (indexStream != null) {
+            try {
+                return fromIndex(RhymeIndex.readFrom(indexStream));
+            } catch (IOException e) {
+                loggie.warn("Unable to load rhyme index, parsing the CMU files instead", e);
+            }
+        }
+        return parse(Poet.class.getResourceAsStream(Poet.cmuDictLocation), Poet.class.getResourceAsStream(Poet.cmuPhonemeLocation),
+                Poet.class.getResourceAsStream(Poet.cmuSymbolsLocation), Poet.class.getResourceAsStream(Poet.myDictLocation));
+    }
+
+    /**
+     * Use dictionaries that were already compiled with RhymeIndexCompiler
+     */
+    public static RhymeDictionary fromIndex(RhymeIndex rhymeIndex) {
+        RhymeDictionary dictionary = new RhymeDictionary(new HashSet<>(rhymeIndex.getVowels()),
+                rhymeIndex.getConsonantClasses(), rhymeIndex.getTrie());
+        loggie.info("Loaded rhyme index; found {} words", dictionary.getWordCount());
+        return dictionary;
+    }
+
+    /**
+     * Read the CMU files
+     *
+     * @param extraDictStream custom entries in the same format as cmuDict that take priority, or null
+     */
+    public static RhymeDictionary parse(InputStream cmuDictStream, InputStream cmuPhonesStream,
+                                        InputStream cmuSymbolsStream, InputStream extraDictStream) {
+        CmuDictParser parser = new CmuDictParser();
+        try {
+            parser.populatePhonemes(cmuPhonesStream); // do this first to get the vowels
+            if (extraDictStream != null) { // load any custom entries first so they take priority
+                parser.populateCmuMap(extraDictStream);
+            }
+            parser.populateCmuMap(cmuDictStream);
+        } catch (IOException e) {
+            loggie.error("Unable to load CMU files", e);
+        }
+        RhymeDictionary dictionary = new RhymeDictionary(parser.vowels, parser.consonantClasses, parser.builder.build());
+        loggie.info("Loaded rhyme dictionary; found {} words", dictionary.getWordCount());
+
+        if (loggie.isDebugEnabled()) {
+            CmuDictParser.logStats(dictionary.trie);
+        }
+        return dictionary;
+    }
+
+    /**
+     * Just the words in an extras-dict file, with the same phonemes as this one, to go on top of it
+     */
+    RhymeDictionary parseExtras(InputStream extraDictStream) {
+        CmuDictParser parser = new CmuDictParser(vowels, consonantClasses);
+        try {
+            parser.populateCmuMap(extraDictStream);
+        } catch (IOException e) {
+            loggie.error("Unable to load extra dictionary", e);
+        }
+        return new RhymeDictionary(vowels, consonantClasses, parser.builder.build());
+    }
+
+    public int getWordCount() {
+        return trie.words.size();
+    }
+
+    public RhymeIndex toRhymeIndex() {
+        return new RhymeIndex(vowels, consonantClasses, trie);
+    }
+
+    @VisibleForTesting
+    boolean hasNearRhymeIndex() {
+        return nearRhymes != null;
+    }
+
+    NearRhymeIndex getNearRhymeIndex() {
+        NearRhymeIndex index = nearRhymes;
+        if (index == null) {
+            synchronized (this) {
+                index = nearRhymes;
+                if (index == null) {
+                    index = new NearRhymeIndex(trie, vowels, consonantClasses);
+                    loggie.info("Sorted {} words into {} groups of near rhymes", getWordCount(), index.getGroupCount());
+                    nearRhymes = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return all the rhymes of the word, from the cache if it's been asked for lately, or null if we don't know it
+     */
+    RhymeFamily getRhymeFamily(String word) {
+        int wordId = trie.getWordId(word);
+        if (wordId == RhymeTrie.NOT_FOUND) {
+            return null;
+        }
+        return getFamilyCache().get(wordId, id -> RhymeFamily.of(trie, id, Poet.ALL_WORDS));
+    }
+
+    TinyLfuCache<Integer, RhymeFamily> getFamilyCache() {
+        TinyLfuCache<Integer, RhymeFamily> cache = families;
+        if (cache == null) {
+            synchronized (this) {
+                cache = families;
+                if (cache == null) {
+                    cache = new TinyLfuCache<>(FAMILY_CACHE_WEIGHT, RhymeFamily::weight);
+                    families = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    @Override
+    public String toString() {
+        return "RhymeDictionary{" + getWordCount() + " words}";
+    }
+}
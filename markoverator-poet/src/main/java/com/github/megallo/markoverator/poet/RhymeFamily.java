@@ -0,0 +1,103 @@
+package com.github.megallo.markoverator.poet;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Every word that rhymes with one word, worked out ahead of time. Each word is in here once, in
+ * the tier of the deepest rhyming section it shares with the target, and the tiers go from the
+ * strongest rhymes to the weakest:
+ * TOMATO -> [tomato] [potato] [grotto]
+ * It never changes once it's made, so it can be cached and handed out to any number of threads,
+ * and picking rhymes out of it is just shuffling word ids.
+ */
+final class RhymeFamily {
+
+    final RhymeTrie trie;
+    // the words of tier t are wordIds[tierStarts[t]] up to tierStarts[t + 1]
+    private final int[] wordIds;
+    private final int[] tierStarts;
+
+    private RhymeFamily(RhymeTrie trie, int[] wordIds, int[] tierStarts) {
+        this.trie = trie;
+        this.wordIds = wordIds;
+        this.tierStarts = tierStarts;
+    }
+
+    /**
+     * @param nodeWords which words of each rhyming section to take, all of them or only some
+     */
+    static RhymeFamily of(RhymeTrie trie, int wordId, Poet.NodeWords nodeWords) {
+        BitSet added = new BitSet(trie.words.size());
+        RhymeTrieBuilder.IntList ids = new RhymeTrieBuilder.IntList();
+        RhymeTrieBuilder.IntList starts = new RhymeTrieBuilder.IntList();
+        for (int i = 0; i < trie.getSectionCount(wordId); i++) {
+            int start = ids.size();
+            RhymeIterator.Section section = nodeWords.get(trie, trie.getSection(wordId, i));
+            for (int j = section.from; j < section.to; j++) {
+                int id = section.wordIds[j];
+                if (!added.get(id)) {
+                    added.set(id);
+                    ids.add(id);
+                }
+            }
+            if (ids.size() > start) {
+                starts.add(start);
+            }
+        }
+        starts.add(ids.size());
+        return new RhymeFamily(trie, ids.toArray(), starts.toArray());
+    }
+
+    int size() {
+        return wordIds.length;
+    }
+
+    /**
+     * How much room it takes up in a cache, about one per int
+     */
+    int weight() {
+        return wordIds.length + tierStarts.length;
+    }
+
+    /**
+     * @return the tiers laid out for a RhymeIterator, strongest first
+     */
+    List<RhymeIterator.Section> getTiers() {
+        List<RhymeIterator.Section> tiers = new ArrayList<>(tierStarts.length - 1);
+        for (int tier = 0; tier < tierStarts.length - 1; tier++) {
+            tiers.add(RhymeIterator.Section.ofNode(trie, tierStarts, wordIds, tier));
+        }
+        return tiers;
+    }
+
+    /**
+     * @param perTier the most words to take from one tier
+     */
+    RhymeIterator iterator(Random random, int perTier) {
+        return new RhymeIterator(this, random, perTier);
+    }
+
+    /**
+     * @return every word, strongest rhymes first, in a random order within each tier
+     */
+    List<String> shuffled(Random random) {
+        int[] order = wordIds.clone();
+        for (int tier = 0; tier < tierStarts.length - 1; tier++) {
+            int from = tierStarts[tier];
+            for (int i = tierStarts[tier + 1] - 1; i > from; i--) {
+                int j = from + random.nextInt(i - from + 1);
+                int swap = order[i];
+                order[i] = order[j];
+                order[j] = swap;
+            }
+        }
+        List<String> words = new ArrayList<>(order.length);
+        for (int id : order) {
+            words.add(trie.getWord(id));
+        }
+        return words;
+    }
+}
@@ -0,0 +1,183 @@
+package com.github.megallo.markoverator.poet;
+
+import com.github.megallo.markoverator.utils.Vocabulary;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Everything Poet knows after parsing the CMU dictionaries, in a compact binary form that loads
+ * without parsing anything: the vowels and kinds of consonants, and the RhymeTrie's arrays
+ * written out as they are, syllables included.
+ *
+ * Build one with RhymeIndexCompiler, which the poet build runs to ship it as a resource.
+ */
+public class RhymeIndex {
+
+    private static final int MAGIC = 0x52484D58; // RHMX
+    private static final int VERSION = 4;
+
+    private final List<String> vowels;
+    private final Map<String, String> consonantClasses;
+    private final RhymeTrie trie;
+
+    RhymeIndex(Collection<String> vowels, Map<String, String> consonantClasses, RhymeTrie trie) {
+        this.vowels = new ArrayList<>(vowels);
+        this.consonantClasses = new LinkedHashMap<>(consonantClasses);
+        this.trie = trie;
+    }
+
+    List<String> getVowels() {
+        return vowels;
+    }
+
+    Map<String, String> getConsonantClasses() {
+        return consonantClasses;
+    }
+
+    RhymeTrie getTrie() {
+        return trie;
+    }
+
+    public int getWordCount() {
+        return trie.words.size();
+    }
+
+    public int getNodeCount() {
+        return trie.getNodeCount();
+    }
+
+    public void writeTo(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+
+        writeStrings(out, vowels);
+        writeStrings(out, new ArrayList<>(consonantClasses.keySet()));
+        writeStrings(out, new ArrayList<>(consonantClasses.values()));
+        writeStrings(out, trie.phonemes);
+        writeBytes(out, trie.words.toBytes());
+        writeInts(out, trie.parents);
+        writeBytes(out, trie.nodePhonemes);
+        writeBytes(out, trie.depths);
+        writeInts(out, trie.childStarts);
+        writeInts(out, trie.nodeWordStarts);
+        writeInts(out, trie.nodeWords);
+        writeInts(out, trie.wordNodeStarts);
+        writeInts(out, trie.wordNodes);
+        writeBytes(out, trie.syllables);
+        writeLongs(out, trie.stresses);
+        out.flush();
+    }
+
+    /**
+     * @param stream what writeTo() wrote, this reads all of it and closes it
+     */
+    public static RhymeIndex readFrom(InputStream stream) throws IOException {
+        ByteBuffer buffer;
+        try (InputStream in = stream) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 20);
+            byte[] chunk = new byte[1 << 16];
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                bytes.write(chunk, 0, read);
+            }
+            buffer = ByteBuffer.wrap(bytes.toByteArray());
+        }
+
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not a rhyme index");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Rhyme index is version " + version + " but we read version " + VERSION
+                    + ", run RhymeIndexCompiler again");
+        }
+
+        List<String> vowels = readStrings(buffer);
+        List<String> consonants = readStrings(buffer);
+        List<String> classes = readStrings(buffer);
+        Map<String, String> consonantClasses = new LinkedHashMap<>();
+        for (int i = 0; i < consonants.size(); i++) {
+            consonantClasses.put(consonants.get(i), classes.get(i));
+        }
+        RhymeTrie trie = new RhymeTrie(readStrings(buffer), Vocabulary.fromBytes(readBytes(buffer)),
+                readInts(buffer), readBytes(buffer), readBytes(buffer), readInts(buffer),
+                readInts(buffer), readInts(buffer), readInts(buffer), readInts(buffer),
+                readBytes(buffer), readLongs(buffer));
+        return new RhymeIndex(vowels, consonantClasses, trie);
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String string : strings) {
+            writeBytes(out, string.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static List<String> readStrings(ByteBuffer buffer) {
+        List<String> strings = new ArrayList<>();
+        for (int count = buffer.getInt(); count > 0; count--) {
+            strings.add(new String(readBytes(buffer), StandardCharsets.UTF_8));
+        }
+        return strings;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] ints) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(ints.length * 4);
+        buffer.asIntBuffer().put(ints);
+        out.writeInt(ints.length);
+        out.write(buffer.array());
+    }
+
+    private static int[] readInts(ByteBuffer buffer) {
+        int[] ints = new int[buffer.getInt()];
+        IntBuffer view = buffer.asIntBuffer();
+        view.get(ints);
+        buffer.position(buffer.position() + ints.length * 4);
+        return ints;
+    }
+
+    private static void writeLongs(DataOutputStream out, long[] longs) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(longs.length * 8);
+        buffer.asLongBuffer().put(longs);
+        out.writeInt(longs.length);
+        out.write(buffer.array());
+    }
+
+    private static long[] readLongs(ByteBuffer buffer) {
+        long[] longs = new long[buffer.getInt()];
+        LongBuffer view = buffer.asLongBuffer();
+        view.get(longs);
+        buffer.position(buffer.position() + longs.length * 8);
+        return longs;
+    }
+
+    @Override
+    public String toString() {
+        return "RhymeIndex{" + getWordCount() + " words, " + getNodeCount() + " endings, vowels " + vowels + "}";
+    }
+}
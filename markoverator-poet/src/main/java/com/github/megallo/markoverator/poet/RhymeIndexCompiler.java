@@ -0,0 +1,47 @@
+package com.github.megallo.markoverator.poet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Parses the CMU dictionaries the slow way once and writes them out as a RhymeIndex,
+ * so Poet can load that instead every time after.
+ *
+ * Usage: RhymeIndexCompiler output-file cmudict phones symbols [extras-dict]
+ */
+public class RhymeIndexCompiler {
+
+    private static final Logger loggie = LoggerFactory.getLogger(RhymeIndexCompiler.class);
+
+    public static RhymeIndex compile(InputStream cmuDictStream, InputStream cmuPhonesStream,
+                                     InputStream cmuSymbolsStream, InputStream extraDictStream) {
+        return RhymeDictionary.parse(cmuDictStream, cmuPhonesStream, cmuSymbolsStream, extraDictStream).toRhymeIndex();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 4) {
+            throw new RuntimeException("Usage: RhymeIndexCompiler output-file cmudict phones symbols [extras-dict]");
+        }
+
+        RhymeIndex index = compile(new FileInputStream(args[1]), new FileInputStream(args[2]),
+                new FileInputStream(args[3]), args.length > 4 ? new FileInputStream(args[4]) : null);
+
+        Path output = Paths.get(args[0]);
+        if (output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(output))) {
+            index.writeTo(out);
+        }
+        loggie.info("Wrote {} to {}", index, output);
+    }
+}
@@ -0,0 +1,133 @@
+package com.github.megallo.markoverator.poet;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Goes through the words of each of a word's rhyming sections in turn, deepest section first
+ * KERFUFFLE -> ["ERFAHFAHL", "FAHFAHL", "AHFAHL", "FAHL", "AHL"]
+ * so the order we hand them out in is most-rhyming to least-rhyming. Any other groups of words
+ * laid out the same way, like NearRhymeIndex's, work too, and so do groups from different tries.
+ * Within a section the order is random, one step of a Fisher-Yates shuffle per word, with the
+ * swaps kept on the side so nothing stored ever changes.
+ *
+ * A RhymeFamily already has each word only once, so going through one skips keeping track of
+ * which words have come up.
+ */
+class RhymeIterator implements Iterator<String> {
+
+    /**
+     * One group of words to hand out: word ids wordIds[from] up to wordIds[to] of a trie
+     */
+    static final class Section {
+        final RhymeTrie trie;
+        final int[] wordIds;
+        final int from;
+        final int to;
+
+        Section(RhymeTrie trie, int[] wordIds, int from, int to) {
+            this.trie = trie;
+            this.wordIds = wordIds;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * @param starts the words for node n are words[starts[n]] up to starts[n + 1], the trie's own or some of them
+         */
+        static Section ofNode(RhymeTrie trie, int[] starts, int[] words, int node) {
+            return new Section(trie, words, starts[node], starts[node + 1]);
+        }
+    }
+
+    private final List<Section> sections;
+    private final Random random;
+    private final int perSection;
+    private final Predicate<String> skip;
+    private final Set<String> seen; // null when there can't be repeats
+
+    private int sectionIndex = -1;
+    private Section section;
+    private int sectionSize;
+    private final Map<Integer, Integer> swapped = new HashMap<>();
+    private int taken;      // how much of this section has been shuffled into place
+    private int handedOut;  // how many words this section has given so far
+    private String next;
+
+    /**
+     * @param sections   which groups to go through, in order
+     * @param perSection the most words to take from one section
+     * @param skip       words to leave out
+     */
+    RhymeIterator(List<Section> sections, Random random, int perSection, Predicate<String> skip) {
+        this(sections, random, perSection, skip, new HashSet<>());
+    }
+
+    /**
+     * @param perTier the most words to take from one of the family's tiers
+     */
+    RhymeIterator(RhymeFamily family, Random random, int perTier) {
+        this(family.getTiers(), random, perTier, word -> false, null);
+    }
+
+    private RhymeIterator(List<Section> sections, Random random, int perSection, Predicate<String> skip, Set<String> seen) {
+        this.sections = sections;
+        this.random = random;
+        this.perSection = perSection;
+        this.skip = skip;
+        this.seen = seen;
+        advance();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public String next() {
+        if (next == null) {
+            throw new NoSuchElementException();
+        }
+        String word = next;
+        advance();
+        return word;
+    }
+
+    private void advance() {
+        next = null;
+        while (next == null) {
+            if (taken == sectionSize || handedOut == perSection) {
+                if (++sectionIndex == sections.size()) {
+                    return;
+                }
+                section = sections.get(sectionIndex);
+                sectionSize = section.to - section.from;
+                swapped.clear();
+                taken = 0;
+                handedOut = 0;
+                continue;
+            }
+
+            // pick one of the ones left and swap it to the front of what's left
+            int pick = taken + random.nextInt(sectionSize - taken);
+            int picked = swapped.getOrDefault(pick, pick);
+            swapped.put(pick, swapped.getOrDefault(taken, taken));
+            taken++;
+
+            // the same word can be in more than one section, or more than one trie
+            String word = section.trie.getWord(section.wordIds[section.from + picked]);
+            if ((seen == null || seen.add(word)) && !skip.test(word)) {
+                next = word;
+                handedOut++;
+            }
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.github.megallo.markoverator.poet;
+
+import com.github.megallo.markoverator.utils.Vocabulary;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Every word's rhyming sections, kept as nodes of a trie over pronunciations read backwards.
+ * The root's children are the last phonemes of words, their children the phonemes before those,
+ * and so on, so a node stands for one ending and everything below it ends the same way.
+ *
+ * Words hang off the nodes of their rhyming sections, so there's no String for any section, and a
+ * section's depth is how many phonemes it has, which is how strong a rhyme it makes.
+ *
+ * Nodes are numbered breadth first with the root as 0, so the children of a node are one run of
+ * ids, sorted by phoneme. Phonemes are numbered too, in the order they were first seen.
+ *
+ * Each word also keeps how many syllables it has and how stressed each one is, two bits apiece
+ * packed into a long, the first syllable lowest.
+ */
+final class RhymeTrie {
+
+    static final int ROOT = 0;
+    static final int NOT_FOUND = -1;
+    static final int MAX_SYLLABLES = Long.SIZE / 2;
+
+    final List<String> phonemes;   // phoneme code -> symbol like "AH"
+    final Vocabulary words;
+
+    final int[] parents;
+    final byte[] nodePhonemes;
+    final byte[] depths;
+    final int[] childStarts;       // children of n are childStarts[n] up to childStarts[n + 1]
+
+    // words hanging off node n are nodeWords[nodeWordStarts[n]] up to nodeWordStarts[n + 1], in the order they were added
+    final int[] nodeWordStarts;
+    final int[] nodeWords;
+
+    // rhyming sections of word w, deepest first, are wordNodes[wordNodeStarts[w]] up to wordNodeStarts[w + 1]
+    final int[] wordNodeStarts;
+    final int[] wordNodes;
+
+    final byte[] syllables;        // word id -> how many vowels its first pronunciation has
+    final long[] stresses;         // word id -> packStresses() of their stress numbers
+
+    RhymeTrie(List<String> phonemes, Vocabulary words, int[] parents, byte[] nodePhonemes, byte[] depths,
+              int[] childStarts, int[] nodeWordStarts, int[] nodeWords, int[] wordNodeStarts, int[] wordNodes,
+              byte[] syllables, long[] stresses) {
+        this.phonemes = phonemes;
+        this.words = words;
+        this.parents = parents;
+        this.nodePhonemes = nodePhonemes;
+        this.depths = depths;
+        this.childStarts = childStarts;
+        this.nodeWordStarts = nodeWordStarts;
+        this.nodeWords = nodeWords;
+        this.wordNodeStarts = wordNodeStarts;
+        this.wordNodes = wordNodes;
+        this.syllables = syllables;
+        this.stresses = stresses;
+    }
+
+    int getNodeCount() {
+        return parents.length;
+    }
+
+    int getWordId(String word) {
+        return words.getId(word);
+    }
+
+    String getWord(int wordId) {
+        return words.getWord(wordId);
+    }
+
+    int getSyllableCount(int wordId) {
+        return syllables[wordId];
+    }
+
+    /**
+     * @return the stress number of each syllable, like "012" for tomato
+     */
+    String getStressPattern(int wordId) {
+        char[] pattern = new char[syllables[wordId]];
+        long packed = stresses[wordId];
+        for (int i = 0; i < pattern.length; i++) {
+            pattern[i] = (char) ('0' + (packed >>> 2 * i & 3));
+        }
+        return new String(pattern);
+    }
+
+    /**
+     * @param pattern stress numbers 0, 1 or 2, no more than MAX_SYLLABLES of them
+     */
+    static long packStresses(String pattern) {
+        long packed = 0;
+        for (int i = 0; i < pattern.length(); i++) {
+            packed |= (long) (pattern.charAt(i) - '0') << 2 * i;
+        }
+        return packed;
+    }
+
+    int getDepth(int node) {
+        return depths[node];
+    }
+
+    int getParent(int node) {
+        return parents[node];
+    }
+
+    int getSectionCount(int wordId) {
+        return wordNodeStarts[wordId + 1] - wordNodeStarts[wordId];
+    }
+
+    /**
+     * @param i from 0, the deepest section, to getSectionCount() - 1
+     */
+    int getSection(int wordId, int i) {
+        return wordNodes[wordNodeStarts[wordId] + i];
+    }
+
+    int getWordCount(int node) {
+        return nodeWordStarts[node + 1] - nodeWordStarts[node];
+    }
+
+    int getWordId(int node, int i) {
+        return nodeWords[nodeWordStarts[node] + i];
+    }
+
+    /**
+     * @return the ending a node stands for in reading order, like "EYNJH", with phonemes run together
+     */
+    String getSectionString(int node) {
+        StringBuilder section = new StringBuilder();
+        for (int n = node; n != ROOT; n = parents[n]) {
+            section.append(phonemes.get(nodePhonemes[n]));
+        }
+        return section.toString();
+    }
+
+    /**
+     * @return the phonemes of the ending a node stands for, in reading order
+     */
+    List<String> getEnding(int node) {
+        List<String> ending = new ArrayList<>(depths[node]);
+        for (int n = node; n != ROOT; n = parents[n]) {
+            ending.add(phonemes.get(nodePhonemes[n]));
+        }
+        return ending;
+    }
+
+    /**
+     * @param ending phonemes in reading order, which might come from another trie
+     * @return the node for that ending, or NOT_FOUND if no word here ends that way
+     */
+    int findNode(List<String> ending) {
+        int node = ROOT;
+        for (int i = ending.size() - 1; i >= 0 && node != NOT_FOUND; i--) {
+            int phoneme = phonemes.indexOf(ending.get(i));
+            node = phoneme < 0 ? NOT_FOUND : getChild(node, phoneme);
+        }
+        return node;
+    }
+
+    /**
+     * @return the child of node for the phoneme that comes before its ending, or NOT_FOUND
+     */
+    int getChild(int node, int phoneme) {
+        int low = childStarts[node];
+        int high = childStarts[node + 1] - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = nodePhonemes[middle] - phoneme;
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * Every word hanging anywhere below node, including node itself, with repeats
+     */
+    void forEachWordBelow(int node, IntConsumer wordIds) {
+        // breadth first numbering means each level below node is one run of ids
+        int from = node;
+        int to = node + 1;
+        while (from < to) {
+            for (int i = nodeWordStarts[from]; i < nodeWordStarts[to]; i++) {
+                wordIds.accept(nodeWords[i]);
+            }
+            int nextFrom = childStarts[from];
+            to = childStarts[to];
+            from = nextFrom;
+        }
+    }
+}
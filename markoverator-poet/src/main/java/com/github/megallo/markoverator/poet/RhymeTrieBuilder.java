@@ -0,0 +1,223 @@
+package com.github.megallo.markoverator.poet;
+
+import com.github.megallo.markoverator.utils.Vocabulary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collects pronunciations one at a time and then packs them into a RhymeTrie
+ */
+final class RhymeTrieBuilder {
+
+    private final Map<String, Integer> phonemeCodes = new HashMap<>();
+    private final List<String> phonemes = new ArrayList<>();
+
+    // the trie while it's growing, numbered in the order nodes were made
+    private final Map<Long, Integer> children = new HashMap<>();
+    private final IntList parents = new IntList();
+    private final IntList nodePhonemes = new IntList();
+    private final IntList depths = new IntList();
+    private final List<List<String>> nodeWords = new ArrayList<>();
+
+    // every section of every pronunciation of a word, in the order they were added
+    private final Map<String, List<Integer>> wordNodes = new LinkedHashMap<>();
+    // the stress pattern of the first pronunciation of each word
+    private final Map<String, String> wordStresses = new HashMap<>();
+    // words that came up more than once, whose sections need merging
+    private final Set<String> homographs = new HashSet<>();
+
+    RhymeTrieBuilder() {
+        newNode(RhymeTrie.NOT_FOUND, 0, 0); // the root
+    }
+
+    /**
+     * @param word          the word, homographs can be added as many times as they have pronunciations
+     * @param pronunciation its phonemes in reading order, without stress numbers
+     * @param stresses      the stress number of each vowel in it, like "010"
+     * @param sectionDepths how many phonemes from the end each rhyming section has, longest first
+     */
+    void add(String word, List<String> pronunciation, String stresses, List<Integer> sectionDepths) {
+        if (stresses.length() > RhymeTrie.MAX_SYLLABLES) {
+            throw new RuntimeException("Too many syllables in " + word + ": " + stresses.length());
+        }
+        List<Integer> sections = wordNodes.get(word);
+        if (sections == null) {
+            sections = new ArrayList<>();
+            wordNodes.put(word, sections);
+            wordStresses.put(word, stresses); // the first one wins, same as with rhymes
+        } else {
+            homographs.add(word);
+        }
+
+        int node = RhymeTrie.ROOT;
+        int depth = 0;
+        int deepest = sectionDepths.isEmpty() ? 0 : sectionDepths.get(0);
+        List<Integer> found = new ArrayList<>();
+        for (int i = pronunciation.size() - 1; depth < deepest; i--) {
+            node = child(node, code(pronunciation.get(i)));
+            depth++;
+            if (sectionDepths.contains(depth)) {
+                found.add(node);
+                nodeWords.get(node).add(word);
+            }
+        }
+        // we walked from the shortest ending to the longest, but want them longest first
+        for (int i = found.size() - 1; i >= 0; i--) {
+            sections.add(found.get(i));
+        }
+    }
+
+    private int code(String phoneme) {
+        Integer code = phonemeCodes.get(phoneme);
+        if (code == null) {
+            if (phonemes.size() == Byte.MAX_VALUE) {
+                throw new RuntimeException("Too many different phonemes, " + phoneme + " would be " + (Byte.MAX_VALUE + 1));
+            }
+            code = phonemes.size();
+            phonemeCodes.put(phoneme, code);
+            phonemes.add(phoneme);
+        }
+        return code;
+    }
+
+    private int child(int node, int phoneme) {
+        long key = (long) node << 8 | phoneme;
+        Integer child = children.get(key);
+        if (child == null) {
+            child = newNode(node, phoneme, depths.get(node) + 1);
+            children.put(key, child);
+        }
+        return child;
+    }
+
+    private int newNode(int parent, int phoneme, int depth) {
+        if (depth > Byte.MAX_VALUE) {
+            throw new RuntimeException("Rhyming section is too long: " + depth + " phonemes");
+        }
+        parents.add(parent);
+        nodePhonemes.add(phoneme);
+        depths.add(depth);
+        nodeWords.add(new ArrayList<>(1));
+        return parents.size() - 1;
+    }
+
+    RhymeTrie build() {
+        int nodeCount = parents.size();
+
+        // renumber breadth first, with each node's children sorted by phoneme
+        List<List<Integer>> childLists = new ArrayList<>(nodeCount);
+        for (int node = 0; node < nodeCount; node++) {
+            childLists.add(new ArrayList<>());
+        }
+        for (int node = 1; node < nodeCount; node++) {
+            childLists.get(parents.get(node)).add(node);
+        }
+
+        int[] order = new int[nodeCount];     // new id -> old id
+        int[] renumbered = new int[nodeCount]; // old id -> new id
+        int[] childStarts = new int[nodeCount + 1];
+        int next = 1;
+        for (int id = 0; id < nodeCount; id++) {
+            childStarts[id] = next;
+            List<Integer> kids = childLists.get(order[id]);
+            kids.sort((one, two) -> nodePhonemes.get(one) - nodePhonemes.get(two));
+            for (int kid : kids) {
+                order[next] = kid;
+                renumbered[kid] = next++;
+            }
+        }
+        childStarts[nodeCount] = nodeCount;
+
+        Vocabulary words = new Vocabulary(wordNodes.keySet());
+
+        int[] parentArray = new int[nodeCount];
+        byte[] phonemeArray = new byte[nodeCount];
+        byte[] depthArray = new byte[nodeCount];
+        int[] nodeWordStarts = new int[nodeCount + 1];
+        IntList nodeWordIds = new IntList();
+        for (int id = 0; id < nodeCount; id++) {
+            int old = order[id];
+            parentArray[id] = id == RhymeTrie.ROOT ? RhymeTrie.NOT_FOUND : renumbered[parents.get(old)];
+            phonemeArray[id] = (byte) nodePhonemes.get(old);
+            depthArray[id] = (byte) depths.get(old);
+            nodeWordStarts[id] = nodeWordIds.size();
+            for (String word : nodeWords.get(old)) {
+                nodeWordIds.add(words.getId(word));
+            }
+        }
+        nodeWordStarts[nodeCount] = nodeWordIds.size();
+
+        // all the pronunciations of a word together, deepest first, keeping the order they came in
+        // within a depth so a custom pronunciation can stay ahead of CMU's
+        // this is the only place homographs get merged, and words with one pronunciation are already in order
+        int[] wordNodeStarts = new int[words.size() + 1];
+        IntList wordNodeIds = new IntList();
+        for (int wordId = 0; wordId < words.size(); wordId++) {
+            wordNodeStarts[wordId] = wordNodeIds.size();
+            String word = words.getWord(wordId);
+            List<Integer> added = wordNodes.get(word);
+            if (!homographs.contains(word)) {
+                for (int old : added) {
+                    wordNodeIds.add(renumbered[old]);
+                }
+                continue;
+            }
+            Set<Integer> sections = new LinkedHashSet<>();
+            for (int old : added) {
+                sections.add(renumbered[old]);
+            }
+            List<Integer> sorted = new ArrayList<>(sections);
+            sorted.sort((one, two) -> depthArray[two] - depthArray[one]);
+            for (int node : sorted) {
+                wordNodeIds.add(node);
+            }
+        }
+        wordNodeStarts[words.size()] = wordNodeIds.size();
+
+        byte[] syllables = new byte[words.size()];
+        long[] stresses = new long[words.size()];
+        for (int wordId = 0; wordId < words.size(); wordId++) {
+            String pattern = wordStresses.get(words.getWord(wordId));
+            syllables[wordId] = (byte) pattern.length();
+            stresses[wordId] = RhymeTrie.packStresses(pattern);
+        }
+
+        return new RhymeTrie(new ArrayList<>(phonemes), words, parentArray, phonemeArray, depthArray, childStarts,
+                nodeWordStarts, nodeWordIds.toArray(), wordNodeStarts, wordNodeIds.toArray(), syllables, stresses);
+    }
+
+    /**
+     * Just enough of a growable int array to avoid boxing hundreds of thousands of Integers
+     */
+    static class IntList {
+        private int[] values = new int[1024];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int get(int i) {
+            return values[i];
+        }
+
+        int size() {
+            return size;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.github.megallo.markoverator.poet;
+
+import com.github.megallo.markoverator.bigrammer.BigramModelBuilder;
+import com.github.megallo.markoverator.storage.BigrammerStorage;
+import com.github.megallo.markoverator.storage.MemoryBigrammerStorage;
+import com.github.megallo.markoverator.utils.Lists;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+public class ModelRhymeIndexTest {
+
+    private static Poet poet;
+    private static BigrammerStorage storage;
+
+    @BeforeClass
+    public static void setup() {
+        poet = new Poet(
+                PoetTest.class.getResourceAsStream("/com/github/megallo/markoverator/poet/mockCmuDict.txt"),
+                PoetTest.class.getResourceAsStream("/com/github/megallo/markoverator/poet/cmudict-0.7b-phones.txt"),
+                PoetTest.class.getResourceAsStream("/com/github/megallo/markoverator/poet/cmudict-0.7b-symbols.txt"),
+                null);
+        storage = new MemoryBigrammerStorage(BigramModelBuilder.buildModel(Arrays.asList(
+                Arrays.asList("mind", "the", "curb"),
+                Arrays.asList("what", "a", "blurb", "!"),
+                Arrays.asList("my", "tomato", "is", "red"),
+                Arrays.asList("Potato", "potato")
+        )));
+    }
+
+    @Test
+    public void testOnlyModelWords() {
+        ModelRhymeIndex index = new ModelRhymeIndex(poet, storage, false);
+        Assert.assertTrue(index.contains("curb"));
+        Assert.assertTrue(index.contains("tomato"));
+        Assert.assertFalse(index.contains("grotto")); // Poet knows it, the model doesn't
+        Assert.assertFalse(index.contains("mind"));   // the other way around
+        Assert.assertEquals(4, index.size());
+
+        Assert.assertEquals(Lists.newArrayList("blurb", "curb"), sorted(index.iterateRhymingWords("curb", new Random(42))));
+        Assert.assertEquals(Lists.newArrayList("potato", "tomato"), sorted(index.iterateRhymingWords("grotto", new Random(42))));
+        Assert.assertNull(index.iterateRhymingWords("nope", new Random(42)));
+    }
+
+    @Test
+    public void testSentenceEndingsOnly() {
+        ModelRhymeIndex index = new ModelRhymeIndex(poet, storage, true);
+        Assert.assertTrue(index.contains("curb"));
+        Assert.assertTrue(index.contains("blurb"));  // right before the !
+        Assert.assertFalse(index.contains("tomato")); // never ends a sentence
+        Assert.assertTrue(index.contains("potato"));
+
+        Assert.assertEquals(Lists.newArrayList("potato"), index.sampleRhymingWords("tomato", 1, new Random(42)));
+    }
+
+    private static List<String> sorted(Iterator<String> words) {
+        List<String> list = new ArrayList<>();
+        words.forEachRemaining(list::add);
+        Collections.sort(list);
+        return list;
+    }
+}
@@ -0,0 +1,113 @@
+package com.github.megallo.markoverator.poet;
+
+import com.github.megallo.markoverator.bigrammer.BigramModelBuilder;
+import com.github.megallo.markoverator.storage.BigrammerStorage;
+import com.github.megallo.markoverator.storage.MemoryBigrammerStorage;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PoemEngineTest {
+
+    private static Poet poet;
+    private static BigrammerStorage storage;
+    private static ExecutorService executor;
+    private static PoemEngine engine;
+
+    @BeforeClass
+    public static void setup() {
+        poet = new Poet(
+                PoetTest.class.getResourceAsStream("/com/github/megallo/markoverator/poet/mockCmuDict.txt"),
+                PoetTest.class.getResourceAsStream("/com/github/megallo/markoverator/poet/cmudict-0.7b-phones.txt"),
+                PoetTest.class.getResourceAsStream("/com/github/megallo/markoverator/poet/cmudict-0.7b-symbols.txt"),
+                null);
+        storage = new MemoryBigrammerStorage(BigramModelBuilder.buildModel(Arrays.asList(
+                Arrays.asList("mind", "the", "curb"),
+                Arrays.asList("what", "a", "blurb"),
+                Arrays.asList("my", "red", "tomato"),
+                Arrays.asList("a", "hot", "potato"),
+                Arrays.asList("in", "the", "grotto")
+        )));
+        executor = Executors.newFixedThreadPool(4);
+        engine = new PoemEngine(poet, storage, executor);
+    }
+
+    @AfterClass
+    public static void teardown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void testWritePoem() {
+        List<List<String>> poem = engine.writePoem("Tomato", 3, 1, 5);
+        Assert.assertEquals(3, poem.size());
+        Assert.assertEquals("tomato", last(poem.get(2)));
+
+        // the other two lines each end in a different rhyme
+        Set<String> rhymes = new HashSet<>(Arrays.asList(last(poem.get(0)), last(poem.get(1))));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("potato", "grotto")), rhymes);
+    }
+
+    @Test
+    public void testNotEnoughRhymes() {
+        // blurb is the only thing that rhymes
+        List<List<String>> poem = engine.writePoem("curb", 4, 1, 5);
+        Assert.assertEquals(Arrays.asList(Arrays.asList("what", "a", "blurb"), Arrays.asList("mind", "the", "curb")), poem);
+    }
+
+    @Test
+    public void testLineLengths() {
+        // no line here is one word long
+        Assert.assertNull(engine.writePoem("tomato", 3, 1, 1));
+    }
+
+    @Test
+    public void testWritePoems() {
+        List<List<List<String>>> poems = engine.writePoems(Arrays.asList("curb", "nope", "grotto"), 2, 1, 5);
+        Assert.assertEquals(3, poems.size());
+        Assert.assertEquals(2, poems.get(0).size());
+        Assert.assertNull(poems.get(1));
+        Assert.assertEquals(2, poems.get(2).size());
+        Assert.assertEquals("grotto", last(poems.get(2).get(1)));
+    }
+
+    @Test
+    public void testRejectingExecutor() throws Exception {
+        // takes the topic line and then won't take anything else
+        AtomicInteger taken = new AtomicInteger();
+        Executor rejecting = task -> {
+            if (taken.getAndIncrement() > 0) {
+                throw new RejectedExecutionException("No more");
+            }
+            task.run();
+        };
+        List<List<String>> poem = new PoemEngine(poet, storage, rejecting).writePoemAsync("tomato", 3, 1, 5)
+                .get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(Arrays.asList(Arrays.asList("my", "red", "tomato")), poem);
+    }
+
+    @Test
+    public void testSameThreadExecutor() {
+        PoemEngine sameThread = new PoemEngine(poet, storage, Runnable::run);
+        sameThread.setParallelism(1);
+        List<List<String>> poem = sameThread.writePoem("tomato", 3, 1, 5);
+        Assert.assertEquals(3, poem.size());
+        Assert.assertEquals("tomato", last(poem.get(2)));
+    }
+
+    private static String last(List<String> line) {
+        return line.get(line.size() - 1);
+    }
+}
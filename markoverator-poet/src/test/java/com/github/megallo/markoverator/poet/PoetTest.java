@@ -5,7 +5,16 @@ import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
 
 public class PoetTest {
 
@@ -117,7 +126,7 @@ public class PoetTest {
 
     @Test
     public void testRhymeLengthOrder() {
-        List<String> rhymesOfTomato = poet.wordToRhymes.get("tomato");
+        List<String> rhymesOfTomato = poet.getRhymingSections("tomato");
         List<String> expected = Lists.newArrayList("AHMEYTOW", "AHMAATOW", "MEYTOW", "MAATOW", "EYTOW", "AATOW", "TOW");
 
         Assert.assertEquals(expected, rhymesOfTomato);
@@ -140,7 +149,7 @@ public class PoetTest {
                     PoetTest.class.getResourceAsStream(realPhones),
                     PoetTest.class.getResourceAsStream(realSymbols),
                     null);
-            List<String> rhymesOfTomato = localPoet.wordToRhymes.get("tomato");
+            List<String> rhymesOfTomato = localPoet.getRhymingSections("tomato");
             List<String> expected = Lists.newArrayList("AHMEYTOW", "AHMAATOW", "MEYTOW", "MAATOW", "EYTOW", "AATOW", "TOW");
 
             Assert.assertEquals(expected, rhymesOfTomato);
@@ -152,4 +161,182 @@ public class PoetTest {
         Assert.assertEquals("PRESTIGIOUS", poet.removeWordCounter("PRESTIGIOUS(1)"));
         Assert.assertEquals("FACTS", poet.removeWordCounter("FACTS(1)"));
     }
+
+    @Test
+    public void testRhymeIndexRoundTrip() throws IOException {
+        RhymeIndex index = RhymeIndexCompiler.compile(
+                PoetTest.class.getResourceAsStream(mockDict),
+                PoetTest.class.getResourceAsStream(realPhones),
+                PoetTest.class.getResourceAsStream(realSymbols),
+                null);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        index.writeTo(bytes);
+        Poet loaded = new Poet(RhymeIndex.readFrom(new ByteArrayInputStream(bytes.toByteArray())));
+
+        Assert.assertEquals(poet.getDictionary().vowels, loaded.getDictionary().vowels);
+        Assert.assertEquals(poet.getDictionary().trie.getNodeCount(), loaded.getDictionary().trie.getNodeCount());
+        for (int wordId = 0; wordId < poet.getDictionary().getWordCount(); wordId++) {
+            String word = poet.getDictionary().trie.getWord(wordId);
+            Assert.assertEquals(poet.getRhymingSections(word), loaded.getRhymingSections(word));
+            Assert.assertEquals(poet.getStressPattern(word), loaded.getStressPattern(word));
+            Assert.assertEquals(poet.findNearRhymes(word, 10, new Random(42)), loaded.findNearRhymes(word, 10, new Random(42)));
+        }
+
+        // the order of pronunciations is kept
+        List<String> expected = Lists.newArrayList("AHMEYTOW", "AHMAATOW", "MEYTOW", "MAATOW", "EYTOW", "AATOW", "TOW");
+        Assert.assertEquals(expected, loaded.getRhymingSections("tomato"));
+        Assert.assertEquals(Lists.newArrayList("tomato", "potato", "grotto"), loaded.findRhymingWords("tomato"));
+    }
+
+    @Test
+    public void testSyllables() {
+        Assert.assertEquals(1, poet.countSyllables("curb"));
+        Assert.assertEquals(4, poet.countSyllables("Cat-O-Nine-Tails"));
+        Assert.assertEquals(3, poet.countSyllables("tomato"));
+        Assert.assertEquals(0, poet.countSyllables("?!"));
+        Assert.assertEquals(-1, poet.countSyllables("nope"));
+
+        Assert.assertEquals("1022", poet.getStressPattern("cat-o-nine-tails"));
+        Assert.assertEquals("012", poet.getStressPattern("tomato")); // both pronunciations agree
+        Assert.assertEquals("12", poet.getStressPattern("pony"));
+        Assert.assertNull(poet.getStressPattern("?!"));
+    }
+
+    @Test
+    public void testNearRhymes() {
+        // the same kinds of consonants, then anything with a vowel where tomato has one, then the same vowels
+        // potato and grotto rhyme exactly, so they aren't here
+        Assert.assertEquals(Lists.newArrayList("mako", "payday", "halo"), poet.findNearRhymes("Tomato", 10, new Random(42)));
+        Assert.assertEquals(Lists.newArrayList("mako"), poet.findNearRhymes("tomato", 1, new Random(42)));
+
+        // blurb rhymes exactly, blur just has the same vowel
+        Assert.assertEquals(Lists.newArrayList("blur"), poet.findNearRhymes("curb", 10, new Random(42)));
+        Assert.assertNull(poet.findNearRhymes("nope", 10, new Random(42)));
+    }
+
+    @Test
+    public void testExtrasOnTop() {
+        String extras = "FLURB  F L ER1 B\nPOTATO  P AH0 T AA1 T OW2\n";
+        Poet layered = new Poet(poet.getDictionary(), new ByteArrayInputStream(extras.getBytes(StandardCharsets.UTF_8)));
+        Assert.assertSame(poet.getDictionary(), layered.getDictionary());
+
+        List<String> actual = layered.findRhymingWords("curb");
+        actual.sort(String::compareTo);
+        Assert.assertEquals(Lists.newArrayList("blurb", "curb", "flurb"), actual);
+        actual = layered.findRhymingWords("flurb");
+        actual.sort(String::compareTo);
+        Assert.assertEquals(Lists.newArrayList("blurb", "curb", "flurb"), actual);
+        Assert.assertEquals(1, layered.countSyllables("flurb"));
+
+        // the new potato goes with the dictionary's, and its sections come first at each depth
+        Assert.assertEquals(Lists.newArrayList("AHTAATOW", "AHTEYTOW", "TAATOW", "TEYTOW", "AATOW", "EYTOW", "TOW"),
+                layered.getRhymingSections("potato"));
+        Assert.assertEquals("012", layered.getStressPattern("potato"));
+
+        // underneath, nothing changed
+        Assert.assertNull(poet.findRhymingWords("flurb"));
+        Assert.assertEquals(Lists.newArrayList("blurb", "curb"), sorted(poet.findRhymingWords("curb")));
+
+        // new extras replace the old ones
+        layered.setExtras(new ByteArrayInputStream("SMURB  S M ER1 B\n".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertEquals(Lists.newArrayList("blurb", "curb", "smurb"), sorted(layered.findRhymingWords("curb")));
+        Assert.assertNull(layered.findRhymingWords("flurb"));
+        layered.setExtras(null);
+        Assert.assertEquals(Lists.newArrayList("blurb", "curb"), sorted(layered.findRhymingWords("curb")));
+    }
+
+    @Test
+    public void testSharedDictionary() {
+        RhymeDictionary shared = RhymeDictionary.preload().join();
+        Assert.assertSame(shared, RhymeDictionary.shared());
+        Assert.assertSame(shared, new Poet().getDictionary());
+        Assert.assertTrue(new Poet().findRhymingWords("orange").contains("orange"));
+    }
+
+    @Test
+    public void testPreloadBuildsNearRhymes() throws InterruptedException {
+        RhymeDictionary shared = RhymeDictionary.preload().join();
+        // the loader thread gets to them right after, without anyone asking for a near rhyme
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (!shared.hasNearRhymeIndex() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(shared.hasNearRhymeIndex());
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotARhymeIndex() throws IOException {
+        RhymeIndex.readFrom(PoetTest.class.getResourceAsStream(mockDict));
+    }
+
+    @Test
+    public void testRhymeLookupLeavesDictionaryAlone() {
+        int[] before = poet.getDictionary().trie.nodeWords.clone();
+
+        Random random = new Random(42);
+        for (int i = 0; i < 100; i++) {
+            poet.findRhymingWords("tomato", random);
+            poet.sampleRhymingWords("facts", 1, random);
+        }
+        Assert.assertArrayEquals(before, poet.getDictionary().trie.nodeWords);
+    }
+
+    @Test
+    public void testWordsSharingEnding() {
+        // tomato's longest rhyme cut down to EY T OW, then to T OW
+        Assert.assertEquals(new HashSet<>(Arrays.asList("tomato", "potato")), new HashSet<>(poet.findWordsSharingEnding("tomato", 3)));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("tomato", "potato", "grotto")), new HashSet<>(poet.findWordsSharingEnding("tomato", 2)));
+        Assert.assertEquals(Arrays.asList("tomato"), poet.findWordsSharingEnding("tomato", 5));
+        Assert.assertNull(poet.findWordsSharingEnding("nope", 2));
+    }
+
+    @Test
+    public void testSampleRhymingWords() {
+        Random random = new Random(42);
+        Set<String> picked = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            // curb and blurb share their only rhyming section
+            List<String> sample = poet.sampleRhymingWords("curb", 1, random);
+            Assert.assertEquals(1, sample.size());
+            picked.addAll(sample);
+        }
+        Assert.assertEquals(new HashSet<>(Arrays.asList("curb", "blurb")), picked);
+
+        // one from each section, but never the same word twice
+        Assert.assertEquals(Lists.newArrayList("tomato", "potato", "grotto"), poet.sampleRhymingWords("tomato", 1, random));
+        Assert.assertNull(poet.sampleRhymingWords("nope", 1, random));
+    }
+
+    @Test
+    public void testIterateRhymingWords() {
+        Iterator<String> rhymes = poet.iterateRhymingWords("Tomato", new Random(42));
+        Assert.assertEquals("tomato", rhymes.next());
+        Assert.assertEquals("potato", rhymes.next());
+        Assert.assertEquals("grotto", rhymes.next());
+        Assert.assertFalse(rhymes.hasNext());
+
+        Assert.assertNull(poet.iterateRhymingWords("nope", new Random(42)));
+    }
+
+    @Test
+    public void testRhymeFamilyCached() {
+        RhymeDictionary dictionary = poet.getDictionary();
+        RhymeFamily family = dictionary.getRhymeFamily("tomato");
+        // each word once, in the tier of the deepest section it shares with tomato
+        Assert.assertEquals(3, family.size());
+        Assert.assertEquals(3, family.getTiers().size());
+        Assert.assertEquals(Lists.newArrayList("tomato", "potato", "grotto"), family.shuffled(new Random(42)));
+
+        // asking again, or through the Poet, comes out of the cache
+        Assert.assertSame(family, dictionary.getRhymeFamily("tomato"));
+        long hits = dictionary.getFamilyCache().getHitCount();
+        poet.sampleRhymingWords("tomato", 1, new Random(42));
+        Assert.assertEquals(hits + 1, dictionary.getFamilyCache().getHitCount());
+        Assert.assertNull(dictionary.getRhymeFamily("nope"));
+    }
+
+    private static List<String> sorted(List<String> words) {
+        words.sort(String::compareTo);
+        return words;
+    }
 }